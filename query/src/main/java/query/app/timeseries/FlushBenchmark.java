@@ -0,0 +1,64 @@
+package query.app.timeseries;
+
+import model.avro.EventInfo;
+import model.avro.TaxiRide;
+import query.page.allocator.DurabilityPolicy;
+import query.timeseries.TimeSeriesStore;
+import query.timeseries.id.SystemTimeIdGenerator;
+import query.timeseries.sst.disk.PersistentSSTable;
+import query.timeseries.sst.disk.RecordSerializer;
+import query.timeseries.sst.disk.StoreLocation;
+import query.timeseries.sst.disk.StoreOptions;
+import query.timeseries.sst.memory.InMemorySSTable;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares flush throughput of a store with different durability policies.
+ * <p>
+ * How to Run
+ * java query.app.timeseries.FlushBenchmark 300000
+ * <p>
+ * Records are added to buffer first and flush is timed alone, so time is spent on writing and forcing pages.
+ */
+public class FlushBenchmark {
+
+    public static final int PAGE_SIZE = 1_000;
+    public static final int RECORDS = 300_000;
+
+    public static void main(String[] args) {
+
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : RECORDS;
+        List<TaxiRide> rides = PageCompressionBenchmark.syntheticRides(records);
+        System.out.println("Rides " + rides.size());
+
+        List<DurabilityPolicy> policies = Arrays.asList(DurabilityPolicy.perPage(), DurabilityPolicy.everyPages(256), DurabilityPolicy.onBarrier());
+        for (DurabilityPolicy policy : policies) {
+            File root = new File(System.getProperty("java.io.tmpdir"), "events-flush");
+            root.mkdirs();
+            Arrays.stream(root.listFiles()).forEach(File::delete);
+
+            try (PersistentSSTable<EventInfo> store = createStore(root, policy)) {
+                TimeSeriesStore db = TimeSeriesStore.persistence(store);
+                db.register(TaxiRide.class, () -> TaxiRideBuilder.toEventInfo(new SystemTimeIdGenerator(10_000)));
+                rides.forEach(db::insert);
+
+                long flushStart = System.nanoTime();
+                store.flush();
+                long flushMs = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - flushStart));
+
+                System.out.println(String.format("%s Flush %s ms Records/sec %s", policy, flushMs, rides.size() * 1000L / flushMs));
+            }
+        }
+    }
+
+    private static PersistentSSTable<EventInfo> createStore(File root, DurabilityPolicy policy) {
+        RecordSerializer<EventInfo> recordSerializer = new RecordSerializer<>(1024 * 8,
+                TaxiRideBuilder.toBytes(), TaxiRideBuilder::fromBytes, e -> e.getEventTime().toString());
+        StoreOptions options = StoreOptions.defaults().withCompaction(StoreOptions.NO_COMPACTION).withDurability(policy);
+        return new PersistentSSTable<>(new InMemorySSTable<>(PAGE_SIZE), new StoreLocation(root, "taxi_events"), recordSerializer, options);
+    }
+}
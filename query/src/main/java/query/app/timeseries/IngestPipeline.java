@@ -0,0 +1,224 @@
+package query.app.timeseries;
+
+import model.avro.TaxiRide;
+import query.timeseries.TimeSeriesStore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Loads trip csv in three stages connected by bounded queues
+ * <p>
+ * Reader cuts file into chunks of whole lines, parser workers turn chunks into batches of rides and
+ * inserters add batches to store. Full queue blocks the stage before it, so memory stays bounded by queue depth
+ * whatever the speed of the store. Chunk buffers are recycled through a pool of the same depth.
+ * Rows per second and depth of every queue are reported every second.
+ */
+public class IngestPipeline {
+
+    public static final int CHUNK_BYTES = 4 * 1024 * 1024;
+    public static final int BATCH_ROWS = 1024;
+
+    private static final Chunk END_OF_CHUNKS = new Chunk(new byte[0], 0, 0);
+    private static final List<TaxiRide> END_OF_BATCHES = Collections.emptyList();
+
+    private final TimeSeriesStore store;
+    private final Map<String, Integer> fields;
+    private final int parsers;
+    private final int inserters;
+    private final BlockingQueue<Chunk> chunks;
+    private final BlockingQueue<byte[]> freeChunks;
+    private final BlockingQueue<List<TaxiRide>> batches;
+    private final LongAdder rowsInserted = new LongAdder();
+    private final LongAdder rowsRejected = new LongAdder();
+
+    public IngestPipeline(TimeSeriesStore store, Map<String, Integer> fields, int parsers, int inserters) {
+        this.store = store;
+        this.fields = fields;
+        this.parsers = parsers;
+        this.inserters = inserters;
+        this.chunks = new ArrayBlockingQueue<>(parsers * 2);
+        this.freeChunks = new ArrayBlockingQueue<>(parsers * 3 + 1);
+        this.batches = new ArrayBlockingQueue<>(inserters * 16);
+    }
+
+    /*
+        Loads at most maxRows rows after header and first skipRows rows, maxRows < 0 loads rest of file.
+        Returns number of rows inserted.
+     */
+    public long load(Path path, long skipRows, long maxRows) {
+        ExecutorService stages = Executors.newFixedThreadPool(1 + parsers + inserters);
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        long start = System.currentTimeMillis();
+        long[] lastRows = {0};
+        reporter.scheduleAtFixedRate(() -> {
+            long rows = rowsInserted.sum();
+            System.out.println(String.format("Ingest %s rows/sec, Total %s, Chunks queued %s/%s, Batches queued %s/%s, Rejected %s",
+                    rows - lastRows[0], rows, chunks.size(), parsers * 2, batches.size(), inserters * 16, rowsRejected.sum()));
+            lastRows[0] = rows;
+        }, 1, 1, TimeUnit.SECONDS);
+
+        AtomicInteger parsersLeft = new AtomicInteger(parsers);
+        List<Future<?>> futures = new ArrayList<>();
+        futures.add(stages.submit(() -> read(path, 1 + skipRows, maxRows)));
+        for (int parser = 0; parser < parsers; parser++) {
+            futures.add(stages.submit(() -> parse(parsersLeft)));
+        }
+        for (int inserter = 0; inserter < inserters; inserter++) {
+            futures.add(stages.submit(this::insert));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Ingest interrupted", e);
+        } catch (ExecutionException e) {
+            // Stage that failed leaves others blocked on queues, they are interrupted
+            stages.shutdownNow();
+            throw new IllegalStateException("Ingest failed", e.getCause());
+        } finally {
+            stages.shutdownNow();
+            reporter.shutdownNow();
+        }
+        long total = System.currentTimeMillis() - start;
+        long rows = rowsInserted.sum();
+        System.out.println(String.format("Ingested %s rows in %s ms, %s rows/sec, Parsers %s, Inserters %s, Rejected %s",
+                rows, total, rows * 1000 / Math.max(1, total), parsers, inserters, rowsRejected.sum()));
+        return rows;
+    }
+
+    /*
+        Chunk ends at last line break, rest of the line is carried to next chunk. Lines before skipLines and
+        after maxLines are cut from chunks here, so parsers never count lines.
+     */
+    private Void read(Path path, long skipLines, long maxLines) throws IOException, InterruptedException {
+        long lineNo = 0;
+        long lastLine = maxLines < 0 ? Long.MAX_VALUE : skipLines + maxLines;
+        byte[] carry = new byte[0];
+        try (InputStream in = Files.newInputStream(path)) {
+            boolean eof = false;
+            while (!eof && lineNo < lastLine) {
+                byte[] buffer = chunkBuffer();
+                System.arraycopy(carry, 0, buffer, 0, carry.length);
+                int length = carry.length;
+                while (length < buffer.length) {
+                    int read = in.read(buffer, length, buffer.length - length);
+                    if (read < 0) {
+                        eof = true;
+                        break;
+                    }
+                    length += read;
+                }
+                int end = length;
+                if (!eof) {
+                    end = lastLineBreak(buffer, length) + 1;
+                    if (end == 0) {
+                        throw new IllegalArgumentException("Line longer than chunk " + CHUNK_BYTES);
+                    }
+                }
+                carry = new byte[length - end];
+                System.arraycopy(buffer, end, carry, 0, carry.length);
+
+                int from = 0;
+                for (; from < end && lineNo < skipLines; from++) {
+                    if (buffer[from] == '\n') {
+                        lineNo++;
+                    }
+                }
+                int to = from;
+                for (; to < end && lineNo < lastLine; to++) {
+                    if (buffer[to] == '\n') {
+                        lineNo++;
+                    }
+                }
+                if (to > from) {
+                    chunks.put(new Chunk(buffer, from, to));
+                } else {
+                    freeChunks.offer(buffer);
+                }
+            }
+        } finally {
+            for (int parser = 0; parser < parsers; parser++) {
+                chunks.put(END_OF_CHUNKS);
+            }
+        }
+        return null;
+    }
+
+    private byte[] chunkBuffer() {
+        byte[] buffer = freeChunks.poll();
+        return buffer == null ? new byte[CHUNK_BYTES] : buffer;
+    }
+
+    private static int lastLineBreak(byte[] buffer, int length) {
+        for (int position = length - 1; position >= 0; position--) {
+            if (buffer[position] == '\n') {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    // Last parser to finish tells every inserter
+    private Void parse(AtomicInteger parsersLeft) throws InterruptedException {
+        TaxiRideCsvParser parser = new TaxiRideCsvParser(fields);
+        try {
+            for (Chunk chunk = chunks.take(); chunk != END_OF_CHUNKS; chunk = chunks.take()) {
+                List<TaxiRide> rides = new ArrayList<>();
+                parser.parse(chunk.bytes, chunk.from, chunk.to, rides::add);
+                freeChunks.offer(chunk.bytes);
+                for (int from = 0; from < rides.size(); from += BATCH_ROWS) {
+                    batches.put(rides.subList(from, Math.min(from + BATCH_ROWS, rides.size())));
+                }
+            }
+        } finally {
+            rowsRejected.add(parser.rejected());
+            if (parsersLeft.decrementAndGet() == 0) {
+                for (int inserter = 0; inserter < inserters; inserter++) {
+                    batches.put(END_OF_BATCHES);
+                }
+            }
+        }
+        return null;
+    }
+
+    private Void insert() throws InterruptedException {
+        for (List<TaxiRide> batch = batches.take(); batch != END_OF_BATCHES; batch = batches.take()) {
+            for (TaxiRide ride : batch) {
+                store.insert(ride);
+            }
+            rowsInserted.add(batch.size());
+        }
+        return null;
+    }
+
+    private static class Chunk {
+        final byte[] bytes;
+        final int from;
+        final int to;
+
+        Chunk(byte[] bytes, int from, int to) {
+            this.bytes = bytes;
+            this.from = from;
+            this.to = to;
+        }
+    }
+}
@@ -5,27 +5,24 @@ import model.avro.TaxiRide;
 import org.jetbrains.annotations.NotNull;
 import query.timeseries.TimeSeriesStore;
 import query.timeseries.id.EventIdGenerator;
+import query.timeseries.id.KeyMode;
 import query.timeseries.id.SystemTimeIdGenerator;
 import query.timeseries.sst.SortedStringTable;
 import query.timeseries.sst.disk.PersistentSSTable;
 import query.timeseries.sst.disk.RecordSerializer;
 import query.timeseries.sst.disk.StoreLocation;
+import query.timeseries.sst.disk.StoreOptions;
+import query.timeseries.sst.disk.TimePartitions;
 import query.timeseries.sst.memory.InMemorySSTable;
 
 import java.io.*;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
-import java.util.stream.Stream;
-
-import static java.util.concurrent.CompletableFuture.runAsync;
 
 /**
  * Data Source : https://www1.nyc.gov/site/tlc/about/tlc-trip-record-data.page
@@ -34,8 +31,8 @@ import static java.util.concurrent.CompletableFuture.runAsync;
  * <p>
  * How to Run
  * 1 - Download file @ https://s3.amazonaws.com/nyc-tlc/trip+data/yellow_tripdata_2020-01.csv
- * 2 - Run java query.app.timeseries.NYTaxiRides /tmp/yellow_tripdata_2020-01.csv
- * 3 - Adjust START_LOADING_FROM & START_LOADING_FROM static param to adjust how much data needs to loaded.
+ * 2 - Run java query.app.timeseries.NYTaxiRides /tmp/yellow_tripdata_2020-01.csv [rows to load, -1 for whole file]
+ * 3 - Adjust START_LOADING_FROM & NO_RECORDS_TO_LOAD static param to adjust how much data needs to loaded.
  * 4 - Wait for 'Ready to accept query' message before submitting query
  * <p>
  * Once loading is done then Submit query
@@ -46,10 +43,10 @@ public class NYTaxiRides {
 
     public static final int START_LOADING_FROM = MILLION * 1;
     public static final int NO_RECORDS_TO_LOAD = MILLION;
-    public static final int FLUSH_BATCH = 10_000;
+    public static final int PAGE_SIZE = 10_000;
+    public static final int MAX_UNFLUSHED_PAGES = 10;
 
     static DateTimeFormatter f = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-    static AtomicInteger flushRequest = new AtomicInteger();
 
     public static void main(String[] args) throws Exception {
 
@@ -60,18 +57,15 @@ public class NYTaxiRides {
 
         System.out.println(fields);
 
-        ExecutorService es = Executors.newFixedThreadPool(1);
         TimeSeriesStore store = TimeSeriesStore.persistence(createPersistenceStore());
         store.register(TaxiRide.class, () -> {
             EventIdGenerator generator = new SystemTimeIdGenerator(10_000);
             return TaxiRideBuilder.toEventInfo(generator);
         });
 
-        insert(path, fields, es, store);
-
-        if (flushRequest.get() == 0) {
-            logCLI();
-        }
+        long rowsToLoad = args.length > 1 ? Long.parseLong(args[1]) : NO_RECORDS_TO_LOAD;
+        insert(path, fields, store, rowsToLoad);
+        logCLI();
         new BufferedReader(new InputStreamReader(System.in))
                 .lines()
                 .filter(line -> !line.trim().isEmpty())
@@ -110,9 +104,12 @@ public class NYTaxiRides {
         File storeLocation = new File(System.getProperty("java.io.tmpdir"), "events-reads-full");
         storeLocation.mkdirs();
         RecordSerializer<EventInfo> recordSerializer = new RecordSerializer<>(1024 * 8,
-                TaxiRideBuilder.toBytes(), TaxiRideBuilder::fromBytes, e -> e.getEventTime().toString());
-        return new PersistentSSTable<>(new InMemorySSTable<>(10_000),
-                new StoreLocation(storeLocation, "taxi_events"), recordSerializer);
+                TaxiRideBuilder.toBytes(), TaxiRideBuilder::fromBytes, e -> e.getEventTime().toString())
+                .withTags(EventInfo::getTags);
+        StoreOptions options = StoreOptions.defaults().withBackgroundFlush(MAX_UNFLUSHED_PAGES)
+                .withTimePartitions(TimePartitions.daily(KeyMode.FORMATTED));
+        return new PersistentSSTable<>(new InMemorySSTable<>(PAGE_SIZE),
+                new StoreLocation(storeLocation, "taxi_events"), recordSerializer, options);
     }
 
     private static void executeQuery(TimeSeriesStore store, String[] parts, String op, Function<EventInfo, Boolean> processor) {
@@ -138,40 +135,14 @@ public class NYTaxiRides {
         }
     }
 
-    private static void insert(Path path, Map<String, Integer> fields, ExecutorService es, TimeSeriesStore store) {
-        AtomicInteger recordCounter = new AtomicInteger();
-        Stream<String> lines = lines(path);
-
-        lines
-                .skip(1)
-                .skip(START_LOADING_FROM)
-                .limit(NO_RECORDS_TO_LOAD)
-                .map(r -> r.split(","))
-                .map(values -> TaxiRideBuilder.createTaxiRide(fields, values))
-                .forEach(ride -> {
-                    store.insert(ride);
-                    int value = recordCounter.incrementAndGet();
-                    flushResult(es, store, value, flushRequest);
-                });
-        System.out.println("Loaded - " + recordCounter + " Records ");
-    }
-
-    private static void flushResult(ExecutorService es, TimeSeriesStore store, int value, AtomicInteger flushRequest) {
-        if (value % FLUSH_BATCH == 0) {
-            flushRequest.incrementAndGet();
-            runAsync(() -> {
-                long start = System.currentTimeMillis();
-                System.out.println("Flush starting ->" + store);
-                store.flush();
-                long total = System.currentTimeMillis() - start;
-                int pending = flushRequest.decrementAndGet();
-                System.out.println("Flush Done -> " + store + " Took " + total + " pending request " + pending);
-                if (pending == 0) {
-                    logCLI();
-                }
-            }, es);
-
-        }
+    /*
+        Rows are parsed by a worker per core and inserted by a quarter as many threads, see IngestPipeline.
+     */
+    private static void insert(Path path, Map<String, Integer> fields, TimeSeriesStore store, long rowsToLoad) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        IngestPipeline pipeline = new IngestPipeline(store, fields, cores, Math.max(1, cores / 4));
+        long rows = pipeline.load(path, START_LOADING_FROM, rowsToLoad);
+        System.out.println("Loaded - " + rows + " Records " + store);
     }
 
     private static void logCLI() {
@@ -184,12 +155,4 @@ public class NYTaxiRides {
         System.out.print(">");
     }
 
-    private static Stream<String> lines(Path path) {
-        try {
-            return Files.lines(path);
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
-        }
-    }
-
 }
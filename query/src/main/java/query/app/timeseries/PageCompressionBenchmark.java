@@ -0,0 +1,132 @@
+package query.app.timeseries;
+
+import model.avro.EventInfo;
+import model.avro.TaxiRide;
+import query.page.allocator.PageCodec;
+import query.timeseries.TimeSeriesStore;
+import query.timeseries.id.SystemTimeIdGenerator;
+import query.timeseries.sst.disk.PersistentSSTable;
+import query.timeseries.sst.disk.RecordSerializer;
+import query.timeseries.sst.disk.StoreLocation;
+import query.timeseries.sst.disk.StoreOptions;
+import query.timeseries.sst.memory.InMemorySSTable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Compares size of data blocks and full scan time of a store written with and without page compression.
+ * <p>
+ * How to Run
+ * java query.app.timeseries.PageCompressionBenchmark /tmp/yellow_tripdata_2020-01.csv 1000000
+ * Without file argument synthetic rides are generated, numbers are then only indicative.
+ * <p>
+ * Scan is done by a new store instance, so pages are read from disk and not from memory pages of the writer.
+ */
+public class PageCompressionBenchmark {
+
+    public static final int PAGE_SIZE = 10_000;
+    public static final int RECORDS = 1_000_000;
+
+    public static void main(String[] args) {
+
+        Path path = args.length > 0 && !args[0].isEmpty() ? Paths.get(args[0]) : null;
+        int records = args.length > 1 ? Integer.parseInt(args[1]) : RECORDS;
+        List<TaxiRide> rides = path == null ? syntheticRides(records) : readRides(path, records);
+        System.out.println("Rides " + rides.size() + " Source " + (path == null ? "synthetic" : path));
+
+        for (PageCodec codec : PageCodec.values()) {
+            File root = new File(System.getProperty("java.io.tmpdir"), "events-compression-" + codec.name().toLowerCase());
+            root.mkdirs();
+            Arrays.stream(root.listFiles()).forEach(File::delete);
+
+            long writeStart = System.nanoTime();
+            try (PersistentSSTable<EventInfo> store = createStore(root, codec)) {
+                TimeSeriesStore db = database(store);
+                rides.forEach(db::insert);
+                store.flush();
+            }
+            long writeMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - writeStart);
+
+            long scanStart = System.nanoTime();
+            AtomicInteger counter = new AtomicInteger();
+            try (PersistentSSTable<EventInfo> store = createStore(root, codec)) {
+                database(store).gt(LocalDateTime.of(1970, 1, 1, 0, 0), row -> {
+                    counter.incrementAndGet();
+                    return true;
+                });
+            }
+            long scanMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - scanStart);
+
+            System.out.println(String.format("Codec %s Data bytes %s Write %s ms Scan %s records in %s ms",
+                    codec, dataBytes(root), writeMs, counter.get(), scanMs));
+        }
+    }
+
+    private static PersistentSSTable<EventInfo> createStore(File root, PageCodec codec) {
+        RecordSerializer<EventInfo> recordSerializer = new RecordSerializer<>(1024 * 8,
+                TaxiRideBuilder.toBytes(), TaxiRideBuilder::fromBytes, e -> e.getEventTime().toString());
+        StoreOptions options = StoreOptions.defaults().withBackgroundFlush(10).withPageCompression(codec);
+        return new PersistentSSTable<>(new InMemorySSTable<>(PAGE_SIZE), new StoreLocation(root, "taxi_events"), recordSerializer, options);
+    }
+
+    private static TimeSeriesStore database(PersistentSSTable<EventInfo> store) {
+        TimeSeriesStore db = TimeSeriesStore.persistence(store);
+        db.register(TaxiRide.class, () -> TaxiRideBuilder.toEventInfo(new SystemTimeIdGenerator(10_000)));
+        return db;
+    }
+
+    private static long dataBytes(File root) {
+        return Arrays.stream(root.listFiles((dir, name) -> name.endsWith(".data"))).mapToLong(File::length).sum();
+    }
+
+    private static List<TaxiRide> readRides(Path path, int records) {
+        try (Stream<String> lines = Files.lines(path)) {
+            Map<String, Integer> fields = TaxiRideBuilder.fields(path);
+            return lines
+                    .skip(1)
+                    .limit(records)
+                    .map(r -> r.split(","))
+                    .map(values -> TaxiRideBuilder.createTaxiRide(fields, values))
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static List<TaxiRide> syntheticRides(int records) {
+        Random random = new Random(42);
+        long start = TimeUnit.DAYS.toMillis(18262); // 2020-01-01
+        return IntStream.range(0, records).mapToObj(index -> {
+            long pickup = start + index * 2_000L + random.nextInt(1_000);
+            float fare = 2.5f + random.nextInt(60) / 2f;
+            float tip = random.nextInt(4) == 0 ? 0 : random.nextInt(10);
+            return TaxiRide.newBuilder()
+                    .setVendorId(String.valueOf(1 + random.nextInt(2)))
+                    .setPickupTime(pickup)
+                    .setDropOffTime(pickup + TimeUnit.MINUTES.toMillis(2 + random.nextInt(40)))
+                    .setPassengerCount(1 + random.nextInt(4))
+                    .setTripDistance(random.nextInt(200) / 10f)
+                    .setFareAmount(fare)
+                    .setExtraAmount(random.nextInt(3) / 2f)
+                    .setTaxAmount(0.5f)
+                    .setTipAmount(tip)
+                    .setTollsAmount(0)
+                    .setImprovementSurcharge(0.3f)
+                    .setTotalAmount(fare + tip + 0.8f)
+                    .setCongestionSurcharge(2.5f)
+                    .build();
+        }).collect(Collectors.toList());
+    }
+}
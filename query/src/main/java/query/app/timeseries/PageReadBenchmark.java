@@ -0,0 +1,114 @@
+package query.app.timeseries;
+
+import query.page.allocator.DiskPageAllocator;
+import query.page.allocator.PageAllocator;
+import query.page.allocator.PageCodec;
+import query.page.buffer.BufferPool;
+import query.page.read.ReadPage;
+import query.page.write.WritePage;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Random page reads of one allocator from 1 up to 2 * cores threads.
+ * <p>
+ * How to Run
+ * java query.app.timeseries.PageReadBenchmark 20000
+ * <p>
+ * Allocator has no buffer pool, so every read goes to the file. File fits in OS page cache after the warm up,
+ * so time is spent on read calls and not on the device. Every thread count is run with positional reads
+ * and again with all reads behind one lock, which is how seek and read on a shared file behaved.
+ * <p>
+ * Pooled reads go through a buffer pool that holds every page after the warm up, so they measure pin and unpin of cached pages.
+ */
+public class PageReadBenchmark {
+
+    public static final int PAGE_SIZE = 8 * 1024;
+    public static final int PAGES = 20_000;
+    public static final int READS_PER_THREAD = 200_000;
+
+    public static void main(String[] args) throws Exception {
+
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : PAGES;
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        File root = new File(System.getProperty("java.io.tmpdir"), "page-read");
+        root.mkdirs();
+        File dataFile = new File(root, "pages.data");
+        dataFile.delete();
+
+        PageAllocator allocator = new DiskPageAllocator((byte) 1, PAGE_SIZE, dataFile.toPath());
+        byte[] record = new byte[PAGE_SIZE / 2];
+        for (int page = 0; page < pages; page++) {
+            WritePage writePage = allocator.newPage();
+            writePage.write(record);
+            allocator.commit(writePage);
+        }
+        allocator.sync();
+        System.out.println(String.format("Pages %s, File %s MB, Cores %s", pages, dataFile.length() / (1024 * 1024), cores));
+
+        BufferPool pool = new BufferPool(pages, PAGE_SIZE);
+        PageAllocator pooledAllocator = new DiskPageAllocator((byte) 1, PAGE_SIZE, dataFile.toPath(), PageCodec.NONE, pool);
+
+        read(allocator, pages, cores, null); // Warm up JIT and page cache
+        read(pooledAllocator, pages, cores, null); // Fill the pool
+        long single = 0;
+        long pooledSingle = 0;
+        for (int threads = 1; threads <= cores * 2; threads *= 2) {
+            long positional = read(allocator, pages, threads, null);
+            long locked = read(allocator, pages, threads, new Object());
+            long pooled = read(pooledAllocator, pages, threads, null);
+            single = threads == 1 ? positional : single;
+            pooledSingle = threads == 1 ? pooled : pooledSingle;
+            System.out.println(String.format("Threads %s Positional %s pages/sec (%.2fx of 1 thread) Locked %s pages/sec Pooled %s pages/sec (%.2fx of 1 thread)",
+                    threads, positional, (double) positional / single, locked, pooled, (double) pooled / pooledSingle));
+        }
+        System.out.println(pool);
+        pooledAllocator.close();
+        allocator.close();
+        dataFile.delete();
+    }
+
+    // Pages read per second by all threads, every read goes through lock when one is given
+    private static long read(PageAllocator allocator, int pages, int threads, Object lock) throws InterruptedException, ExecutionException {
+        ExecutorService es = Executors.newFixedThreadPool(threads);
+        List<Future<Integer>> readers = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int thread = 0; thread < threads; thread++) {
+            readers.add(es.submit(() -> {
+                int records = 0;
+                for (int read = 0; read < READS_PER_THREAD; read++) {
+                    int pageId = ThreadLocalRandom.current().nextInt(pages) + 1;
+                    if (lock == null) {
+                        records += readPage(allocator, pageId);
+                    } else {
+                        synchronized (lock) {
+                            records += readPage(allocator, pageId);
+                        }
+                    }
+                }
+                return records;
+            }));
+        }
+        for (Future<Integer> reader : readers) {
+            reader.get();
+        }
+        long elapsed = Math.max(1, System.nanoTime() - start);
+        es.shutdown();
+        return (long) threads * READS_PER_THREAD * TimeUnit.SECONDS.toNanos(1) / elapsed;
+    }
+
+    private static int readPage(PageAllocator allocator, int pageId) {
+        try (ReadPage page = allocator.readByPageId(pageId)) {
+            return page.totalRecords();
+        }
+    }
+}
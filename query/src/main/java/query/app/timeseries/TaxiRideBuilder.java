@@ -3,6 +3,7 @@ package query.app.timeseries;
 import model.avro.EventInfo;
 import model.avro.TaxiRide;
 import query.timeseries.id.EventIdGenerator;
+import query.timeseries.sst.disk.ColumnSchema;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
@@ -11,9 +12,11 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
 import java.util.stream.Collector;
@@ -22,6 +25,11 @@ import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 public class TaxiRideBuilder {
+
+    public static final List<String> TAG_COLUMNS = Arrays.asList("total_amount", "date", "hour");
+    public static final List<String> RIDE_COLUMNS = Arrays.asList("passenger_count", "trip_distance", "fare_amount", "extra_amount",
+            "tax_amount", "tip_amount", "tolls_amount", "improvement_surcharge", "total_amount", "congestion_surcharge");
+
     static TaxiRide createTaxiRide(Map<String, Integer> fields, String[] values) {
         try {
             return toTaxiRide(fields, values);
@@ -98,10 +106,11 @@ public class TaxiRideBuilder {
         return row -> {
             TaxiRide value = (TaxiRide) row;
             String eventId = generator.next(value.getPickupTime());
+            LocalDateTime time = generator.keys().time(eventId);
             Map<CharSequence, Integer> tags = new HashMap<CharSequence, Integer>() {{
                 put("total_amount", (int) value.getTotalAmount());
-                put("date", Integer.parseInt(eventId.substring(0, 8)));
-                put("hour", Integer.parseInt(eventId.substring(8, 10)));
+                put("date", time.getYear() * 10_000 + time.getMonthValue() * 100 + time.getDayOfMonth());
+                put("hour", time.getHour());
             }};
             return EventInfo
                     .newBuilder()
@@ -115,6 +124,51 @@ public class TaxiRideBuilder {
         };
     }
 
+    /*
+        Tags are stored as "tag.{name}" and numeric ride fields by their name. Ride is decoded once per event.
+        Missing tag is stored as 0.
+     */
+    public static ColumnSchema<EventInfo> columns() {
+        List<String> names = new ArrayList<>();
+        TAG_COLUMNS.forEach(tag -> names.add("tag." + tag));
+        names.addAll(RIDE_COLUMNS);
+        return new ColumnSchema<>(names, (event, values) -> {
+            int column = 0;
+            for (String tag : TAG_COLUMNS) {
+                values[column++] = tag(event, tag);
+            }
+            TaxiRide ride = toTaxiRide(event);
+            values[column++] = ride.getPassengerCount();
+            values[column++] = ride.getTripDistance();
+            values[column++] = ride.getFareAmount();
+            values[column++] = ride.getExtraAmount();
+            values[column++] = ride.getTaxAmount();
+            values[column++] = ride.getTipAmount();
+            values[column++] = ride.getTollsAmount();
+            values[column++] = ride.getImprovementSurcharge();
+            values[column++] = ride.getTotalAmount();
+            values[column] = ride.getCongestionSurcharge();
+        });
+    }
+
+    // Keys of decoded tags are not String, so they are compared by content
+    public static int tag(EventInfo event, String name) {
+        for (Map.Entry<CharSequence, Integer> tag : event.getTags().entrySet()) {
+            if (name.contentEquals(tag.getKey())) {
+                return tag.getValue();
+            }
+        }
+        return 0;
+    }
+
+    public static TaxiRide toTaxiRide(EventInfo event) {
+        try {
+            return TaxiRide.fromByteBuffer(event.getEventBody().duplicate());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     public static ByteBuffer getByteBuffer(TaxiRide value) {
         try {
             return value.toByteBuffer();
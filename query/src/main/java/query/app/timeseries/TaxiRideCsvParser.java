@@ -0,0 +1,214 @@
+package query.app.timeseries;
+
+import model.avro.TaxiRide;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Parses rows of yellow taxi trip csv straight from bytes, fields are located by scanning for separators
+ * and numbers are read from their digits, so no String is made per field. Pickup and drop off times of a file
+ * fall on few days, so epoch ms of last day seen is kept and only time of day is parsed.
+ * Quoted fields are not supported, trip files have none.
+ * <p>
+ * Instance keeps parse state, so every worker has its own parser.
+ */
+public class TaxiRideCsvParser {
+
+    private static final double[] POW10 = {1, 10, 100, 1_000, 10_000, 100_000, 1_000_000, 10_000_000, 100_000_000, 1_000_000_000};
+
+    private final int vendor, pickup, dropOff, passengers, distance, total, fare, extra, tax, tip, tolls, improvement, congestion;
+    private final int[] starts;
+    private final int[] ends;
+    private int fieldCount;
+
+    private final byte[] cachedDay = new byte[10];
+    private long cachedDayMs = Long.MIN_VALUE;
+    private long rejected;
+
+    public TaxiRideCsvParser(Map<String, Integer> fields) {
+        this.vendor = field(fields, "vendorid");
+        this.pickup = field(fields, "tpep_pickup_datetime");
+        this.dropOff = field(fields, "tpep_dropoff_datetime");
+        this.passengers = field(fields, "passenger_count");
+        this.distance = field(fields, "trip_distance");
+        this.total = field(fields, "total_amount");
+        this.fare = field(fields, "fare_amount");
+        this.extra = field(fields, "extra");
+        this.tax = field(fields, "mta_tax");
+        this.tip = field(fields, "tip_amount");
+        this.tolls = field(fields, "tolls_amount");
+        this.improvement = field(fields, "improvement_surcharge");
+        this.congestion = field(fields, "congestion_surcharge");
+        this.starts = new int[fields.size()];
+        this.ends = new int[fields.size()];
+    }
+
+    private static int field(Map<String, Integer> fields, String name) {
+        Integer index = fields.get(name);
+        if (index == null) {
+            throw new IllegalArgumentException("Missing column " + name);
+        }
+        return index;
+    }
+
+    /*
+        Rides of lines in bytes [from, to). Empty lines are skipped, line with missing fields or bad number is rejected.
+        Returns number of rides parsed.
+     */
+    public int parse(byte[] bytes, int from, int to, Consumer<TaxiRide> consumer) {
+        int rides = 0;
+        int lineStart = from;
+        for (int position = from; position <= to; position++) {
+            if (position < to && bytes[position] != '\n') {
+                continue;
+            }
+            int lineEnd = position > lineStart && bytes[position - 1] == '\r' ? position - 1 : position;
+            if (lineEnd > lineStart) {
+                TaxiRide ride = parseLine(bytes, lineStart, lineEnd);
+                if (ride != null) {
+                    consumer.accept(ride);
+                    rides++;
+                }
+            }
+            lineStart = position + 1;
+        }
+        return rides;
+    }
+
+    private TaxiRide parseLine(byte[] bytes, int from, int to) {
+        fieldCount = 0;
+        int start = from;
+        for (int position = from; position <= to && fieldCount < starts.length; position++) {
+            if (position == to || bytes[position] == ',') {
+                starts[fieldCount] = start;
+                ends[fieldCount++] = position;
+                start = position + 1;
+            }
+        }
+        if (fieldCount < starts.length) {
+            return reject(bytes, from, to);
+        }
+        try {
+            return new TaxiRide(
+                    new String(bytes, starts[vendor], ends[vendor] - starts[vendor], StandardCharsets.ISO_8859_1),
+                    toMilliSeconds(bytes, starts[pickup], ends[pickup]),
+                    toMilliSeconds(bytes, starts[dropOff], ends[dropOff]),
+                    toInt(bytes, starts[passengers], ends[passengers]),
+                    toFloat(bytes, distance),
+                    toFloat(bytes, total),
+                    toFloat(bytes, fare),
+                    toFloat(bytes, extra),
+                    toFloat(bytes, tax),
+                    toFloat(bytes, tip),
+                    toFloat(bytes, tolls),
+                    toFloat(bytes, improvement),
+                    toFloat(bytes, congestion));
+        } catch (RuntimeException e) {
+            return reject(bytes, from, to);
+        }
+    }
+
+    private TaxiRide reject(byte[] bytes, int from, int to) {
+        if (rejected++ < 10) {
+            System.out.println("Rejected " + new String(bytes, from, to - from, StandardCharsets.ISO_8859_1));
+        }
+        return null;
+    }
+
+    /*
+        "yyyy-MM-dd HH:mm:ss" as UTC epoch ms, same as TaxiRideBuilder.toMilliSeconds
+     */
+    long toMilliSeconds(byte[] bytes, int from, int to) {
+        if (to - from != 19) {
+            throw new IllegalArgumentException("Invalid date time");
+        }
+        if (!sameDay(bytes, from)) {
+            LocalDate day = LocalDate.of(digits(bytes, from, 4), digits(bytes, from + 5, 2), digits(bytes, from + 8, 2));
+            System.arraycopy(bytes, from, cachedDay, 0, cachedDay.length);
+            cachedDayMs = day.toEpochDay() * 86_400_000L;
+        }
+        int seconds = digits(bytes, from + 11, 2) * 3600 + digits(bytes, from + 14, 2) * 60 + digits(bytes, from + 17, 2);
+        return cachedDayMs + seconds * 1000L;
+    }
+
+    private boolean sameDay(byte[] bytes, int from) {
+        if (cachedDayMs == Long.MIN_VALUE) {
+            return false;
+        }
+        for (int index = 0; index < cachedDay.length; index++) {
+            if (bytes[from + index] != cachedDay[index]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int digits(byte[] bytes, int from, int length) {
+        int value = 0;
+        for (int index = from; index < from + length; index++) {
+            int digit = bytes[index] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new IllegalArgumentException("Invalid digit");
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    // Empty field is 0, same as TaxiRideBuilder.toInt
+    static int toInt(byte[] bytes, int from, int to) {
+        boolean negative = from < to && bytes[from] == '-';
+        int value = digits(bytes, negative ? from + 1 : from, to - (negative ? from + 1 : from));
+        return negative ? -value : value;
+    }
+
+    private float toFloat(byte[] bytes, int field) {
+        return toFloat(bytes, starts[field], ends[field]);
+    }
+
+    /*
+        Plain decimals are read from digits, anything else (exponent, long fraction) goes to Float.parseFloat.
+     */
+    static float toFloat(byte[] bytes, int from, int to) {
+        int position = from;
+        boolean negative = position < to && bytes[position] == '-';
+        if (negative) {
+            position++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fraction = -1;
+        for (; position < to; position++) {
+            byte value = bytes[position];
+            if (value == '.' && fraction < 0) {
+                fraction = 0;
+            } else if (value >= '0' && value <= '9' && digits < 15) {
+                mantissa = mantissa * 10 + value - '0';
+                digits++;
+                if (fraction >= 0) {
+                    fraction++;
+                }
+            } else {
+                return Float.parseFloat(new String(bytes, from, to - from, StandardCharsets.ISO_8859_1));
+            }
+        }
+        if (digits == 0) {
+            if (to > from) {
+                throw new IllegalArgumentException("Invalid number");
+            }
+            return 0;
+        }
+        if (fraction >= POW10.length) {
+            return Float.parseFloat(new String(bytes, from, to - from, StandardCharsets.ISO_8859_1));
+        }
+        double value = fraction > 0 ? mantissa / POW10[fraction] : mantissa;
+        return (float) (negative ? -value : value);
+    }
+
+    public long rejected() {
+        return rejected;
+    }
+}
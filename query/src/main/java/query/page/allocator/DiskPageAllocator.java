@@ -1,27 +1,75 @@
 package query.page.allocator;
 
+import query.page.buffer.BufferPool;
 import query.page.io.BlockRandomAccessFile;
 import query.page.io.SafeIO;
 import query.page.read.ReadPage;
 import query.page.write.WritableSlotPage;
 import query.page.write.WritePage;
 
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import static query.page.ApplicationClock.now;
 
+/**
+ * Pages are stored at fixed offsets when codec is NONE.
+ * <p>
+ * With a codec every page is compressed on commit and appended as a frame {Version}{Codec}{Page No}{Length}{Payload},
+ * header keeps end of last frame. Offset of every page is rebuilt by walking the frames when file is opened.
+ * <p>
+ * Commits are forced to disk as per durability policy. Header is written only when pages are synced and after them,
+ * so header on disk never counts a page that is not on disk.
+ * <p>
+ * Pages are read through a buffer pool when one is given. Compressed file without a pool gets a small pool of its own,
+ * so page that is read again is not decompressed again.
+ */
 public class DiskPageAllocator implements PageAllocator {
 
+    public static final int FRAME_HEADER = 1 + 1 + 4 + 4;
+    public static final int PAGE_CACHE_SIZE = 64;
+
     private final Header header = new Header();
     private final BlockRandomAccessFile rafBlock;
     private final Path dataLocation;
+    private final PageCodec codec;
+    private final List<Long> frameOffsets = new ArrayList<>();
+    private final BufferPool bufferPool;
+    private final int poolOwner;
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder syncs = new LongAdder();
+    private final DurabilityPolicy durabilityPolicy;
+    private final byte version;
+
+    private int unsyncedPages;
+    private boolean headerDirty;
+    private long lastSyncMs = System.currentTimeMillis();
 
     public DiskPageAllocator(byte version, int pageSize, Path dataLocation) {
-        header.version = version;
+        this(version, pageSize, dataLocation, PageCodec.NONE);
+    }
+
+    public DiskPageAllocator(byte version, int pageSize, Path dataLocation, PageCodec codec) {
+        this(version, pageSize, dataLocation, codec, null);
+    }
+
+    public DiskPageAllocator(byte version, int pageSize, Path dataLocation, PageCodec codec, BufferPool bufferPool) {
+        this(version, pageSize, dataLocation, codec, bufferPool, DurabilityPolicy.perPage());
+    }
+
+    public DiskPageAllocator(byte version, int pageSize, Path dataLocation, PageCodec codec, BufferPool bufferPool, DurabilityPolicy durabilityPolicy) {
+        this.durabilityPolicy = durabilityPolicy;
+        this.version = version;
         header.pageSize = pageSize;
+        header.codec = codec.id();
+        header.writePosition = Header.SIZE;
         this.dataLocation = dataLocation;
         if (dataLocation.toFile().exists()) {
             this.rafBlock = new BlockRandomAccessFile(SafeIO.open(dataLocation));
@@ -31,6 +79,28 @@ public class DiskPageAllocator implements PageAllocator {
             this.rafBlock = new BlockRandomAccessFile(SafeIO.open(dataLocation));
             writeHeader();
         }
+        this.codec = PageCodec.of(header.codec); // Codec of existing file wins
+        this.bufferPool = bufferPool == null && isCompressed() ? new BufferPool(PAGE_CACHE_SIZE, header.pageSize) : bufferPool;
+        this.poolOwner = this.bufferPool == null ? 0 : this.bufferPool.newOwner();
+        if (isCompressed()) {
+            loadFrameOffsets();
+        }
+    }
+
+    /*
+        Codec recorded in header of existing file, NONE when file is not created yet.
+     */
+    public static PageCodec codecOf(Path dataLocation) {
+        if (!dataLocation.toFile().exists() || dataLocation.toFile().length() < Header.LEGACY_SIZE) {
+            return PageCodec.NONE;
+        }
+        try (RandomAccessFile raf = SafeIO.open(dataLocation)) {
+            Header header = new Header();
+            raf.read(header.dataBuffer);
+            return PageCodec.of(header.fromBytes(header.dataBuffer).codec);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     public void writeHeader() {
@@ -42,30 +112,145 @@ public class DiskPageAllocator implements PageAllocator {
         header.fromBytes(header.dataBuffer);
     }
 
+    private boolean isCompressed() {
+        return codec != PageCodec.NONE;
+    }
+
+    private void loadFrameOffsets() {
+        byte[] frameHeader = new byte[FRAME_HEADER];
+        long position = header.size();
+        while (position < header.writePosition) {
+            rafBlock.read(position, frameHeader);
+            ByteBuffer buffer = ByteBuffer.wrap(frameHeader);
+            int pageNo = buffer.getInt(2);
+            int length = buffer.getInt(6);
+            setFrameOffset(pageNo, position);
+            position += FRAME_HEADER + length;
+        }
+    }
+
+    private void setFrameOffset(int pageNo, long position) {
+        while (frameOffsets.size() < pageNo) {
+            frameOffsets.add(null);
+        }
+        frameOffsets.set(pageNo - 1, position);
+    }
+
     @Override
-    public WritePage newPage() {
+    public synchronized WritePage newPage() {
         WritePage page = newPage(nextPage(), now());
-        writeHeader();
+        headerDirty = true;
         return page;
     }
 
     @Override
     public long commit(WritePage page) {
+        if (isCompressed()) {
+            return commitFrame(page);
+        }
         long writePosition = header.pageOffSet(page.pageNumber());
         rafBlock.write(writePosition, page.commit());
-        rafBlock.commit();
+        if (bufferPool != null) {
+            bufferPool.invalidate(poolOwner, page.pageNumber());
+        }
+        pageWritten();
         return writePosition;
     }
 
+    /*
+        Frame is written after last frame. End of frames in header is written by sync after frame is forced,
+        so frame is visible after restart only when complete.
+     */
+    private synchronized long commitFrame(WritePage page) {
+        byte[] pageBytes = page.commit();
+        byte[] payload = new byte[pageBytes.length - 1];
+        int length = codec.compress(pageBytes, payload);
+        PageCodec pageCodec = codec;
+        if (length < 0) {
+            pageCodec = PageCodec.NONE; // Page did not shrink
+            payload = pageBytes;
+            length = pageBytes.length;
+        }
+
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER + length);
+        frame.put(version).put(pageCodec.id()).putInt(page.pageNumber()).putInt(length).put(payload, 0, length);
+
+        long writePosition = header.writePosition;
+        rafBlock.write(writePosition, frame.array());
+        header.writePosition = writePosition + frame.capacity();
+        setFrameOffset(page.pageNumber(), writePosition);
+        pageWritten();
+        return writePosition;
+    }
+
+    private synchronized void pageWritten() {
+        unsyncedPages++;
+        headerDirty = true;
+        if (durabilityPolicy.shouldSync(unsyncedPages, lastSyncMs, System.currentTimeMillis())) {
+            sync();
+        }
+    }
+
+    /*
+        Pages are forced first and header after them.
+     */
+    @Override
+    public synchronized void sync() {
+        if (!headerDirty && unsyncedPages == 0) {
+            return;
+        }
+        if (unsyncedPages > 0) {
+            rafBlock.commit();
+        }
+        writeHeader();
+        rafBlock.commit();
+        syncs.increment();
+        unsyncedPages = 0;
+        headerDirty = false;
+        lastSyncMs = System.currentTimeMillis();
+    }
+
     @Override
     public ReadPage readByPageId(int pageId) {
         header.checkPageNumber(pageId);
+        if (isCompressed()) {
+            return readFrame(frameOffset(pageId));
+        }
         long readPosition = header.pageOffSet(pageId);
+        if (bufferPool != null) {
+            return bufferPool.pin(poolOwner, pageId, header.pageSize, (buffer, length) -> readFully(readPosition, buffer, length));
+        }
         byte[] pageBuffer = header.allocatePageBuffer();
-        rafBlock.read(readPosition, pageBuffer);
+        readFully(readPosition, pageBuffer, pageBuffer.length);
         return ReadPage.create(pageBuffer);
     }
 
+    private void readFully(long position, byte[] buffer, int length) {
+        rafBlock.read(position, buffer, 0, length);
+        bytesRead.add(length);
+    }
+
+    private synchronized long frameOffset(int pageId) {
+        Long offset = pageId > 0 && pageId <= frameOffsets.size() ? frameOffsets.get(pageId - 1) : null;
+        if (offset == null) {
+            throw new IllegalArgumentException(String.format("Page %s is not committed", pageId));
+        }
+        return offset;
+    }
+
+    private ReadPage readFrame(long offSet) {
+        return bufferPool.pin(poolOwner, offSet, header.pageSize, (page, pageLength) -> {
+            long available = header.writePosition - offSet;
+            byte[] frame = new byte[(int) Math.min(FRAME_HEADER + header.pageSize, available)];
+            readFully(offSet, frame, frame.length);
+
+            ByteBuffer buffer = ByteBuffer.wrap(frame);
+            PageCodec pageCodec = PageCodec.of(buffer.get(1));
+            int length = buffer.getInt(6);
+            pageCodec.decompress(frame, FRAME_HEADER, length, page);
+        });
+    }
+
 
     @Override
     public int noOfPages() {
@@ -79,12 +264,20 @@ public class DiskPageAllocator implements PageAllocator {
 
     @Override
     public byte version() {
-        return header.version;
+        return version;
     }
 
     @Override
     public List<PageInfo> pages() {
-        readHeader();
+        if (isCompressed()) {
+            synchronized (this) {
+                return IntStream
+                        .range(0, frameOffsets.size())
+                        .filter(index -> frameOffsets.get(index) != null)
+                        .mapToObj(index -> new PageInfo(index + 1, frameOffsets.get(index)))
+                        .collect(Collectors.toList());
+            }
+        }
         return IntStream
                 .range(0, header.currentPageNo)
                 .mapToObj(index -> new PageInfo(index + 1, header.pageOffSet(index + 1)))
@@ -94,10 +287,14 @@ public class DiskPageAllocator implements PageAllocator {
     @Override
     public ReadPage readByPageOffset(long offSet) {
 
+        if (isCompressed()) {
+            if (offSet < header.size() || offSet >= header.writePosition) {
+                throw new IllegalArgumentException(String.format("Page Offset %s is outside of %s", offSet, header.writePosition));
+            }
+            return readFrame(offSet);
+        }
         header.checkPageOffset(offSet);
-        byte[] pageBuffer = header.allocatePageBuffer();
-        rafBlock.read(offSet, pageBuffer);
-        return ReadPage.create(pageBuffer);
+        return readByPageId((int) ((offSet - header.size()) / header.pageSize) + 1);
     }
 
     @Override
@@ -105,9 +302,33 @@ public class DiskPageAllocator implements PageAllocator {
         return "file:" + dataLocation;
     }
 
+    @Override
+    public void close() {
+        sync();
+        if (bufferPool != null) {
+            bufferPool.invalidateAll(poolOwner);
+        }
+        rafBlock.close();
+    }
+
+    public PageCodec codec() {
+        return codec;
+    }
+
+    public long bytesRead() {
+        return bytesRead.sum();
+    }
+
+    public long syncs() {
+        return syncs.sum();
+    }
+
+    public BufferPool bufferPool() {
+        return bufferPool;
+    }
 
     private WritePage newPage(int page, long createdTs) {
-        return new WritableSlotPage(header.pageSize, header.version, page, createdTs);
+        return new WritableSlotPage(header.pageSize, version, page, createdTs);
     }
 
     private int nextPage() {
@@ -0,0 +1,66 @@
+package query.page.allocator;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when committed pages are forced to disk.
+ * <p>
+ * Pages are always forced before header, so after a crash header never points at a page that did not reach disk.
+ * Pages committed after last sync can be lost, sync() on allocator is a barrier that forces them regardless of policy.
+ * Time based policy is checked when a page is committed, it does not force an idle allocator.
+ */
+public class DurabilityPolicy {
+
+    private static final DurabilityPolicy PER_PAGE = new DurabilityPolicy(1, 0);
+    private static final DurabilityPolicy ON_BARRIER = new DurabilityPolicy(0, 0);
+
+    private final int pages;
+    private final long intervalMs;
+
+    private DurabilityPolicy(int pages, long intervalMs) {
+        this.pages = pages;
+        this.intervalMs = intervalMs;
+    }
+
+    // Every commit is forced before it returns
+    public static DurabilityPolicy perPage() {
+        return PER_PAGE;
+    }
+
+    public static DurabilityPolicy everyPages(int pages) {
+        if (pages <= 0) {
+            throw new IllegalArgumentException("Pages is not positive - " + pages);
+        }
+        return new DurabilityPolicy(pages, 0);
+    }
+
+    public static DurabilityPolicy every(long interval, TimeUnit unit) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Interval is not positive - " + interval);
+        }
+        return new DurabilityPolicy(0, unit.toMillis(interval));
+    }
+
+    // Pages are forced only by explicit sync
+    public static DurabilityPolicy onBarrier() {
+        return ON_BARRIER;
+    }
+
+    public boolean shouldSync(int unsyncedPages, long lastSyncMs, long nowMs) {
+        if (pages > 0 && unsyncedPages >= pages) {
+            return true;
+        }
+        return intervalMs > 0 && unsyncedPages > 0 && nowMs - lastSyncMs >= intervalMs;
+    }
+
+    @Override
+    public String toString() {
+        if (pages == 0 && intervalMs == 0) {
+            return "DurabilityPolicy (Barrier)";
+        }
+        if (pages == 1) {
+            return "DurabilityPolicy (Per page)";
+        }
+        return pages > 0 ? String.format("DurabilityPolicy (Every %s pages)", pages) : String.format("DurabilityPolicy (Every %s ms)", intervalMs);
+    }
+}
@@ -1,38 +1,76 @@
 package query.page.allocator;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
+/**
+ * File header of page allocators, version is the layout of header and decides where pages start.
+ * <p>
+ * Version 1 is the baseline layout of version, page size and page count, pages are uncompressed and fixed size.
+ * Version 2 adds codec and end of written frames. File keeps the version it was created with, unknown version is rejected.
+ */
 public class Header {
-    public byte version;
+    public static final byte LEGACY_VERSION = 1;
+    public static final byte VERSION = 2;
+    public static final int LEGACY_SIZE = 1 + 4 + 4;
+
+    public byte version = VERSION;
     public int pageSize;
     public int currentPageNo;
-    public static int SIZE = 1 + 4 + 4; // Make sure to update this when field is added/removed
+    public byte codec;
+    public long writePosition; // End of last page, used when pages are compressed and have variable length
+    public static int SIZE = 1 + 4 + 4 + 1 + 8; // Make sure to update this when field is added/removed
 
     public byte[] dataBuffer = new byte[SIZE];
 
     public byte[] toBytes() {
-        ByteBuffer buffer = ByteBuffer.wrap(dataBuffer);
+        ByteBuffer buffer = ByteBuffer.wrap(dataBuffer, 0, size());
         buffer.put(version);
         buffer.putInt(pageSize);
         buffer.putInt(currentPageNo);
-        return buffer.array();
+        if (version != LEGACY_VERSION) {
+            buffer.put(codec);
+            buffer.putLong(writePosition);
+        }
+        return Arrays.copyOf(dataBuffer, size());
     }
 
+    // Data may be longer than header of its version, bytes after header are ignored
     public Header fromBytes(byte[] data) {
         ByteBuffer buffer = ByteBuffer.wrap(data);
-        this.version = buffer.get();
+        byte version = buffer.get();
+        checkVersion(version);
+        this.version = version;
         this.pageSize = buffer.getInt();
         this.currentPageNo = buffer.getInt();
+        if (version == LEGACY_VERSION) {
+            this.codec = PageCodec.NONE.id();
+            this.writePosition = LEGACY_SIZE + (long) currentPageNo * pageSize;
+        } else {
+            this.codec = buffer.get();
+            this.writePosition = buffer.getLong();
+        }
         return this;
     }
 
+    private static void checkVersion(byte version) {
+        if (version != LEGACY_VERSION && version != VERSION) {
+            throw new IllegalStateException(String.format("Unsupported header version %s", version));
+        }
+    }
+
+    // Bytes before first page
+    public int size() {
+        return version == LEGACY_VERSION ? LEGACY_SIZE : SIZE;
+    }
+
     public int nextPage() {
         return ++currentPageNo;
     }
 
     public long pageOffSet(int pageId) {
         long pageOffset = (pageId - 1) * 1L * pageSize;
-        return Header.SIZE + pageOffset;
+        return size() + pageOffset;
     }
 
     public byte[] allocatePageBuffer() {
@@ -54,7 +92,7 @@ public class Header {
             throw new IllegalArgumentException("Offset  is not positive - " + offSet);
         }
 
-        long pageOffset = offSet - SIZE;
+        long pageOffset = offSet - size();
         long misalignedBytes = pageOffset % pageSize;
         if (misalignedBytes != 0) {
             throw new IllegalArgumentException(String.format("Page Offset is invalid by %s", misalignedBytes));
@@ -0,0 +1,254 @@
+package query.page.allocator;
+
+import query.page.io.SafeIO;
+import query.page.read.ReadPage;
+import query.page.write.WritableSlotPage;
+import query.page.write.WritePage;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static query.page.ApplicationClock.now;
+
+/**
+ * Page allocator over memory mapped file, file layout is same as DiskPageAllocator without codec, so either can open the file.
+ * <p>
+ * File is mapped in regions, region k holds INITIAL_REGION_PAGES * 2^k pages up to MAX_REGION_PAGES and a page never spans regions.
+ * New region is mapped when a page is allocated past the last region, mapping beyond end of file grows the file.
+ * Read returns page over the mapped region, so reading a page needs no system call and no copy.
+ * <p>
+ * Dirty regions are forced as per durability policy, header is copied into its mapping only after pages are forced.
+ */
+public class MappedPageAllocator implements PageAllocator {
+
+    public static final int INITIAL_REGION_PAGES = 64;
+    public static final int MAX_REGION_PAGES = 16 * 1024;
+
+    private final Header header = new Header();
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final Path dataLocation;
+    private final MappedByteBuffer headerBuffer;
+
+    private final DurabilityPolicy durabilityPolicy;
+    private final byte version;
+    private final Set<Region> dirtyRegions = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private volatile Region[] regions = new Region[0];
+    private boolean headerDirty;
+    private int unsyncedPages; // Policy counts pages, a region holds many of them
+    private long lastSyncMs = System.currentTimeMillis();
+    private final LongAdder syncs = new LongAdder();
+
+    public MappedPageAllocator(byte version, int pageSize, Path dataLocation) {
+        this(version, pageSize, dataLocation, DurabilityPolicy.perPage());
+    }
+
+    public MappedPageAllocator(byte version, int pageSize, Path dataLocation, DurabilityPolicy durabilityPolicy) {
+        this.durabilityPolicy = durabilityPolicy;
+        this.version = version;
+        header.pageSize = pageSize;
+        header.codec = PageCodec.NONE.id();
+        header.writePosition = Header.SIZE;
+        this.dataLocation = dataLocation;
+        boolean exists = dataLocation.toFile().exists() && dataLocation.toFile().length() >= Header.LEGACY_SIZE;
+        this.raf = SafeIO.open(dataLocation);
+        this.channel = raf.getChannel();
+        this.headerBuffer = map(0, Header.SIZE);
+        if (exists) {
+            readHeader();
+            if (header.codec != PageCodec.NONE.id()) {
+                throw new IllegalArgumentException("Not supported");
+            }
+        } else {
+            writeHeader();
+        }
+        mapUpTo(header.currentPageNo);
+    }
+
+    public void writeHeader() {
+        headerBuffer.duplicate().put(header.toBytes());
+    }
+
+    private void readHeader() {
+        headerBuffer.duplicate().get(header.dataBuffer);
+        header.fromBytes(header.dataBuffer);
+    }
+
+    private MappedByteBuffer map(long position, long size) {
+        try {
+            return channel.map(FileChannel.MapMode.READ_WRITE, position, size);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /*
+        Regions are only added, readers work on the array they saw and never see a region being replaced.
+     */
+    private synchronized void mapUpTo(int pageNo) {
+        Region[] current = this.regions;
+        int mappedPages = current.length == 0 ? 0 : current[current.length - 1].lastPage();
+        while (mappedPages < pageNo) {
+            int pages = Math.min(INITIAL_REGION_PAGES << Math.min(current.length, 20), MAX_REGION_PAGES);
+            Region region = new Region(mappedPages + 1, pages, map(header.pageOffSet(mappedPages + 1), (long) pages * header.pageSize));
+            current = Arrays.copyOf(current, current.length + 1);
+            current[current.length - 1] = region;
+            mappedPages = region.lastPage();
+        }
+        this.regions = current;
+    }
+
+    @Override
+    public synchronized WritePage newPage() {
+        WritePage page = new WritableSlotPage(header.pageSize, version, header.nextPage(), now());
+        mapUpTo(header.currentPageNo);
+        headerDirty = true;
+        return page;
+    }
+
+    @Override
+    public synchronized long commit(WritePage page) {
+        Region region = region(page.pageNumber());
+        ByteBuffer target = region.page(page.pageNumber(), header.pageSize);
+        target.put(page.commit());
+        dirtyRegions.add(region);
+        headerDirty = true;
+        unsyncedPages++;
+        if (durabilityPolicy.shouldSync(unsyncedPages, lastSyncMs, System.currentTimeMillis())) {
+            sync();
+        }
+        return header.pageOffSet(page.pageNumber());
+    }
+
+    @Override
+    public synchronized void sync() {
+        if (!headerDirty && unsyncedPages == 0) {
+            return;
+        }
+        dirtyRegions.forEach(region -> region.buffer.force());
+        dirtyRegions.clear();
+        if (headerDirty) {
+            writeHeader();
+            headerBuffer.force();
+            headerDirty = false;
+        }
+        syncs.increment();
+        unsyncedPages = 0;
+        lastSyncMs = System.currentTimeMillis();
+    }
+
+    public long syncs() {
+        return syncs.sum();
+    }
+
+    @Override
+    public ReadPage readByPageId(int pageId) {
+        header.checkPageNumber(pageId);
+        return ReadPage.create(region(pageId).page(pageId, header.pageSize));
+    }
+
+    @Override
+    public ReadPage readByPageOffset(long offSet) {
+        header.checkPageOffset(offSet);
+        int pageId = (int) ((offSet - header.size()) / header.pageSize) + 1;
+        return readByPageId(pageId);
+    }
+
+    // Binary search on first page of regions
+    private Region region(int pageId) {
+        Region[] current = this.regions;
+        int low = 0, high = current.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (current[mid].firstPage <= pageId) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (current.length == 0 || pageId < current[low].firstPage || pageId > current[low].lastPage()) {
+            throw new IllegalArgumentException(String.format("Page %s is not mapped", pageId));
+        }
+        return current[low];
+    }
+
+    @Override
+    public int noOfPages() {
+        return header.currentPageNo;
+    }
+
+    @Override
+    public int pageSize() {
+        return header.pageSize;
+    }
+
+    @Override
+    public byte version() {
+        return version;
+    }
+
+    @Override
+    public List<PageInfo> pages() {
+        return IntStream
+                .range(0, header.currentPageNo)
+                .mapToObj(index -> new PageInfo(index + 1, header.pageOffSet(index + 1)))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public String dataLocation() {
+        return "mmap:" + dataLocation;
+    }
+
+    /*
+        Mapping is released when buffers are garbage collected, pages read before close stay readable.
+     */
+    @Override
+    public void close() {
+        sync();
+        try {
+            raf.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public int noOfRegions() {
+        return regions.length;
+    }
+
+    private static class Region {
+        final int firstPage;
+        final int pages;
+        final MappedByteBuffer buffer;
+
+        Region(int firstPage, int pages, MappedByteBuffer buffer) {
+            this.firstPage = firstPage;
+            this.pages = pages;
+            this.buffer = buffer;
+        }
+
+        int lastPage() {
+            return firstPage + pages - 1;
+        }
+
+        // View of single page, duplicate keeps position and limit private to caller
+        ByteBuffer page(int pageId, int pageSize) {
+            ByteBuffer view = buffer.duplicate();
+            int start = (pageId - firstPage) * pageSize;
+            view.position(start);
+            view.limit(start + pageSize);
+            return view.slice();
+        }
+    }
+}
@@ -28,4 +28,11 @@ public interface PageAllocator {
 
     String dataLocation();
 
+    // Barrier, committed pages are on disk when it returns
+    default void sync() {
+    }
+
+    default void close() {
+    }
+
 }
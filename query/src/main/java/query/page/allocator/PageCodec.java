@@ -0,0 +1,76 @@
+package query.page.allocator;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression applied to whole page when it is committed to disk.
+ * Id of the codec is stored in file header and in front of every page, so page that does not shrink is kept as it is.
+ */
+public enum PageCodec {
+    NONE((byte) 0) {
+        @Override
+        public int compress(byte[] page, byte[] target) {
+            return -1;
+        }
+
+        @Override
+        public void decompress(byte[] source, int offset, int length, byte[] page) {
+            System.arraycopy(source, offset, page, 0, length);
+        }
+    },
+    DEFLATE((byte) 1) {
+        @Override
+        public int compress(byte[] page, byte[] target) {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                deflater.setInput(page);
+                deflater.finish();
+                int length = deflater.deflate(target);
+                return deflater.finished() ? length : -1;
+            } finally {
+                deflater.end();
+            }
+        }
+
+        @Override
+        public void decompress(byte[] source, int offset, int length, byte[] page) {
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(source, offset, length);
+                inflater.inflate(page);
+            } catch (DataFormatException e) {
+                throw new IllegalStateException("Corrupted page", e);
+            } finally {
+                inflater.end();
+            }
+        }
+    };
+
+    private final byte id;
+
+    PageCodec(byte id) {
+        this.id = id;
+    }
+
+    /*
+        Returns compressed length, -1 when page does not fit in target i.e. it does not shrink.
+     */
+    public abstract int compress(byte[] page, byte[] target);
+
+    public abstract void decompress(byte[] source, int offset, int length, byte[] page);
+
+    public byte id() {
+        return id;
+    }
+
+    public static PageCodec of(byte id) {
+        for (PageCodec codec : values()) {
+            if (codec.id == id) {
+                return codec;
+            }
+        }
+        throw new IllegalArgumentException("Unknown page codec " + id);
+    }
+}
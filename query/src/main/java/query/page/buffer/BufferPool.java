@@ -0,0 +1,363 @@
+package query.page.buffer;
+
+import query.page.read.PageIterator;
+import query.page.read.ReadPage;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed number of page frames shared by page allocators and page directories.
+ * <p>
+ * Page is looked up by (owner, page key). Reader pins the frame while it uses the page and unpins it by closing the page.
+ * When page is not in pool a free frame is picked using CLOCK, hand skips pinned frames and gives recently used frame a second chance.
+ * When every frame is pinned, or page does not fit in a frame, page is read into its own buffer and is not cached.
+ * <p>
+ * Lookup and pin of a cached page take no lock, pin count of frame is changed by CAS and reader checks the frame still holds
+ * its page after pinning it. Only a miss takes the pool lock to pick a victim, victim is claimed by CAS of its pin count
+ * from 0 to EVICTING, so a frame is never reused while it is pinned. Page is loaded outside the lock, readers of the page wait for the load.
+ * <p>
+ * Frames are allocated on first use, so heap held by the pool is bounded by frames * frameSize.
+ */
+public class BufferPool {
+
+    public static final int SHARED_FRAMES = 2048;
+    public static final int SHARED_FRAME_SIZE = 8 * 1024;
+
+    private static final int EVICTING = -1;
+
+    private static volatile BufferPool shared;
+
+    private final int frameSize;
+    private final Frame[] frames;
+    private final Map<PageKey, Frame> table = new ConcurrentHashMap<>();
+    private final AtomicInteger owners = new AtomicInteger();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder bypass = new LongAdder();
+
+    private int clockHand; // Guarded by pool lock
+
+    public BufferPool(int noOfFrames, int frameSize) {
+        if (noOfFrames <= 0 || frameSize <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid frames %s or frame size %s", noOfFrames, frameSize));
+        }
+        this.frameSize = frameSize;
+        this.frames = new Frame[noOfFrames];
+        for (int index = 0; index < noOfFrames; index++) {
+            frames[index] = new Frame();
+        }
+    }
+
+    public static BufferPool shared() {
+        if (shared == null) {
+            synchronized (BufferPool.class) {
+                if (shared == null) {
+                    shared = new BufferPool(SHARED_FRAMES, SHARED_FRAME_SIZE);
+                }
+            }
+        }
+        return shared;
+    }
+
+    /*
+        Every file gets its own owner id, pages of different files never share a key.
+     */
+    public int newOwner() {
+        return owners.incrementAndGet();
+    }
+
+    /*
+        Returns pinned page, loader is called only when page is not in pool. Page must be closed to unpin the frame.
+     */
+    public ReadPage pin(int owner, long pageKey, int pageSize, PageLoader loader) {
+        if (pageSize > frameSize) {
+            return unpooled(pageSize, loader);
+        }
+        PageKey key = new PageKey(owner, pageKey);
+        while (true) {
+            Frame frame = table.get(key);
+            if (frame != null) {
+                if (frame.pin(key)) {
+                    hits.increment();
+                    return new PooledPage(frame, pageSize);
+                }
+                continue; // Frame was evicted or failed to load, look up again
+            }
+            synchronized (this) {
+                if (table.containsKey(key)) {
+                    continue;
+                }
+                misses.increment();
+                frame = victim();
+                if (frame == null) {
+                    bypass.increment();
+                    break;
+                }
+                frame.key = key;
+                frame.loaded = new CountDownLatch(1);
+                frame.referenced = true;
+                frame.pins.set(1);
+                table.put(key, frame);
+            }
+            return load(frame, pageSize, loader);
+        }
+        return unpooled(pageSize, loader);
+    }
+
+    private ReadPage load(Frame frame, int pageSize, PageLoader loader) {
+        try {
+            if (frame.data == null) {
+                frame.data = new byte[frameSize];
+            }
+            loader.load(frame.data, pageSize);
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                table.remove(frame.key, frame);
+                frame.key = null;
+            }
+            frame.loaded.countDown();
+            frame.pins.decrementAndGet();
+            throw e;
+        }
+        frame.loaded.countDown();
+        return new PooledPage(frame, pageSize);
+    }
+
+    private ReadPage unpooled(int pageSize, PageLoader loader) {
+        byte[] buffer = new byte[pageSize];
+        loader.load(buffer, pageSize);
+        return ReadPage.create(buffer);
+    }
+
+    // CLOCK, two full turns clear every reference bit, so a victim is found unless every frame is pinned.
+    private Frame victim() {
+        for (int step = 0; step < frames.length * 2; step++) {
+            Frame frame = frames[clockHand];
+            clockHand = (clockHand + 1) % frames.length;
+            if (frame.pins.get() != 0) {
+                continue;
+            }
+            if (frame.referenced) {
+                frame.referenced = false;
+                continue;
+            }
+            if (!frame.pins.compareAndSet(0, EVICTING)) {
+                continue; // Pinned by a reader since the check
+            }
+            if (frame.key != null) {
+                table.remove(frame.key, frame);
+                frame.key = null;
+                evictions.increment();
+            }
+            return frame;
+        }
+        return null;
+    }
+
+    /*
+        Page is rewritten, cached copy is dropped. Pinned frame is reused once its readers are done.
+        Key is cleared before the frame leaves the table, so a reader pinning it after this fails its key check.
+     */
+    public synchronized void invalidate(int owner, long pageKey) {
+        PageKey key = new PageKey(owner, pageKey);
+        Frame frame = table.get(key);
+        if (frame != null) {
+            frame.key = null;
+            frame.referenced = false;
+            table.remove(key, frame);
+        }
+    }
+
+    /*
+        File is closed or deleted.
+     */
+    public synchronized void invalidateAll(int owner) {
+        table.entrySet().removeIf(entry -> {
+            if (entry.getKey().owner != owner) {
+                return false;
+            }
+            entry.getValue().key = null;
+            entry.getValue().referenced = false;
+            return true;
+        });
+    }
+
+    private void unpin(Frame frame) {
+        frame.pins.decrementAndGet();
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    public int cachedPages() {
+        return table.size();
+    }
+
+    // Frames held by readers that did not close their page yet
+    public int pinnedPages() {
+        int pinned = 0;
+        for (Frame frame : frames) {
+            pinned += frame.pins.get() > 0 ? 1 : 0;
+        }
+        return pinned;
+    }
+
+    public int frameSize() {
+        return frameSize;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BufferPool (Frames: %s;Frame Size: %s;Cached: %s;Hits: %s;Misses: %s;Evictions: %s;Bypass: %s)",
+                frames.length, frameSize, table.size(), hits, misses, evictions, bypass);
+    }
+
+    @FunctionalInterface
+    public interface PageLoader {
+        // Read page into first length bytes of buffer
+        void load(byte[] buffer, int length);
+    }
+
+    private static class Frame {
+        final AtomicInteger pins = new AtomicInteger(); // EVICTING while frame is given to another page
+        volatile PageKey key;
+        volatile CountDownLatch loaded = new CountDownLatch(0);
+        volatile boolean referenced;
+        byte[] data; // Published to readers by loaded
+
+        // False when frame does not hold page of key, pin is not kept then
+        boolean pin(PageKey expected) {
+            for (; ; ) {
+                int current = pins.get();
+                if (current == EVICTING) {
+                    return false;
+                }
+                if (pins.compareAndSet(current, current + 1)) {
+                    break;
+                }
+            }
+            awaitLoad();
+            if (!expected.equals(key)) {
+                pins.decrementAndGet();
+                return false;
+            }
+            referenced = true;
+            return true;
+        }
+
+        private void awaitLoad() {
+            try {
+                loaded.await();
+            } catch (InterruptedException e) {
+                pins.decrementAndGet();
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static class PageKey {
+        final int owner;
+        final long pageKey;
+
+        PageKey(int owner, long pageKey) {
+            this.owner = owner;
+            this.pageKey = pageKey;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            PageKey other = (PageKey) o;
+            return owner == other.owner && pageKey == other.pageKey;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(owner, pageKey);
+        }
+    }
+
+    private class PooledPage implements ReadPage {
+        private final Frame frame;
+        private final ReadPage page;
+        private boolean closed;
+
+        PooledPage(Frame frame, int pageSize) {
+            this.frame = frame;
+            this.page = ReadPage.create(ByteBuffer.wrap(frame.data, 0, pageSize));
+        }
+
+        @Override
+        public short version() {
+            return page.version();
+        }
+
+        @Override
+        public int pageNumber() {
+            return page.pageNumber();
+        }
+
+        @Override
+        public int totalRecords() {
+            return page.totalRecords();
+        }
+
+        @Override
+        public LocalDateTime createdTime() {
+            return page.createdTime();
+        }
+
+        @Override
+        public PageIterator newIterator() {
+            return page.newIterator();
+        }
+
+        @Override
+        public int record(int index, byte[] buffer) {
+            return page.record(index, buffer);
+        }
+
+        @Override
+        public ByteBuffer view() {
+            return page.view();
+        }
+
+        @Override
+        public ByteBuffer record(int index, ByteBuffer view) {
+            return page.record(index, view);
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                unpin(frame);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return page.toString();
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package query.page.index;
 
+import query.page.allocator.DurabilityPolicy;
+import query.page.buffer.BufferPool;
+import query.page.io.BlockRandomAccessFile;
 import query.page.read.ReadPage;
-import query.page.read.ReadableSlottedPage;
 
 import java.io.File;
 import java.io.IOException;
@@ -10,6 +12,12 @@ import java.io.UncheckedIOException;
 import java.nio.file.Path;
 import java.util.*;
 
+/**
+ * Pages are appended to .data file and their offsets to .index file.
+ * <p>
+ * Inserts are forced to disk as per durability policy. Page count in headers is written only after data and index are forced,
+ * so a page that is counted after restart is always complete.
+ */
 public class DiskPageDirectory implements PageDirectory {
 
     private final int pageSize;
@@ -17,23 +25,30 @@ public class DiskPageDirectory implements PageDirectory {
     private final File dataFileLocation;
     private final RandomAccessFile index;
     private final RandomAccessFile data;
-    private final byte[] pageBuffer;
+    private final BlockRandomAccessFile dataBlock;
     private final TreeMap<Integer, PageRecord> pages = new TreeMap<>();
+    private final BufferPool bufferPool;
+    private final int poolOwner;
+    private final DurabilityPolicy durabilityPolicy;
 
     private boolean indexPageDirty = true;
     private int noOfPage = 0;
+    private int unsyncedPages;
+    private long lastSyncMs = System.currentTimeMillis();
 
-    private static final int MAX_PAGES = 100;
+    public DiskPageDirectory(int pageSize, Path indexFile, boolean isNew) {
+        this(pageSize, indexFile, isNew, BufferPool.shared());
+    }
 
-    private Map<Integer, ReadPage> recentPages = new LinkedHashMap<Integer, ReadPage>() {
-        @Override
-        protected boolean removeEldestEntry(Map.Entry<Integer, ReadPage> eldest) {
-            return size() > MAX_PAGES;
-        }
-    };
+    public DiskPageDirectory(int pageSize, Path indexFile, boolean isNew, BufferPool bufferPool) {
+        this(pageSize, indexFile, isNew, bufferPool, DurabilityPolicy.perPage());
+    }
 
-    public DiskPageDirectory(int pageSize, Path indexFile, boolean isNew) {
+    public DiskPageDirectory(int pageSize, Path indexFile, boolean isNew, BufferPool bufferPool, DurabilityPolicy durabilityPolicy) {
 
+        this.bufferPool = bufferPool;
+        this.durabilityPolicy = durabilityPolicy;
+        this.poolOwner = bufferPool.newOwner();
         try {
             this.indexFileLocation = new File(indexFile.toFile().getAbsolutePath() + ".index");
             this.dataFileLocation = new File(indexFile.toFile().getAbsolutePath() + ".data");
@@ -43,11 +58,13 @@ public class DiskPageDirectory implements PageDirectory {
 
             this.index = new RandomAccessFile(indexFileLocation, "rw");
             this.data = new RandomAccessFile(dataFileLocation, "rw");
+            this.dataBlock = new BlockRandomAccessFile(data);
 
             if (isNew) {
                 this.pageSize = pageSize;
                 writeDataHeader(pageSize);
                 writeIndexHeader(pageSize);
+                this.indexPageDirty = false; // Pages are tracked in memory as they are inserted
             } else {
 
                 this.index.seek(0);
@@ -56,8 +73,6 @@ public class DiskPageDirectory implements PageDirectory {
                 this.noOfPage = this.index.readInt();
                 seekToWriteLocation();
             }
-
-            this.pageBuffer = new byte[this.pageSize];
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
@@ -87,17 +102,20 @@ public class DiskPageDirectory implements PageDirectory {
     }
 
     @Override
-    public void insert(int pageNumber, byte[] rawBytes) {
+    public synchronized void insert(int pageNumber, byte[] rawBytes) {
+        bufferPool.invalidate(poolOwner, pageNumber);
         noOfPage++;
         try {
             long recordOffset = writeData(rawBytes);
             writeIndex(pageNumber, recordOffset);
-            commitRecord();
-            commitIndex();
-            flush();
+            pages.put(pageNumber, new PageRecord(pageNumber, pageSize, recordOffset));
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
+        unsyncedPages++;
+        if (durabilityPolicy.shouldSync(unsyncedPages, lastSyncMs, System.currentTimeMillis())) {
+            sync();
+        }
     }
 
     public void writeIndex(int pageNumber, long offSet) throws IOException {
@@ -125,46 +143,59 @@ public class DiskPageDirectory implements PageDirectory {
         this.index.seek(indexWritePosition);
     }
 
+    /*
+        Data and index entries are forced first and page count after them.
+     */
+    public synchronized void sync() {
+        if (unsyncedPages == 0) {
+            return;
+        }
+        try {
+            flush();
+            commitRecord();
+            commitIndex();
+            flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        unsyncedPages = 0;
+        lastSyncMs = System.currentTimeMillis();
+    }
+
     public void flush() throws IOException {
         this.data.getFD().sync();
         this.index.getFD().sync();
-        markIndexDirty();
-    }
-
-    private void markIndexDirty() {
-        this.indexPageDirty = true;
     }
 
     private boolean isNotDirty() {
         return !indexPageDirty;
     }
 
+    /*
+        Page is pinned only while the record is copied out.
+     */
     @Override
     public int at(int pageNo, int record, byte[] writeBuffer) {
-        readPagesInfo();
-        ReadPage page = recentPages.computeIfAbsent(pageNo, this::readPage);
-        return page.record(record, writeBuffer);
+        PageRecord pageRecord = pageRecord(pageNo);
+        try (ReadPage page = bufferPool.pin(poolOwner, pageNo, pageRecord.pageSize, (buffer, length) -> readPage(pageRecord, buffer, length))) {
+            return page.record(record, writeBuffer);
+        }
     }
 
-    private ReadPage readPage(int pageNo) {
-
-        try {
-            PageRecord pageRecord = pages.get(pageNo);
-            long start = this.data.getFilePointer();
-
-            this.data.seek(pageRecord.pageOffSet);
-            this.data.read(pageBuffer, 0, pageRecord.pageSize);
-
-            this.data.seek(start);
+    private synchronized PageRecord pageRecord(int pageNo) {
+        readPagesInfo();
+        return pages.get(pageNo);
+    }
 
-            return new ReadableSlottedPage(pageBuffer);
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
-        }
+    /*
+        Positional read, file pointer used by inserts is not moved, so pages are read without the lock of the directory.
+     */
+    private void readPage(PageRecord pageRecord, byte[] buffer, int length) {
+        dataBlock.read(pageRecord.pageOffSet, buffer, 0, length);
     }
 
     @Override
-    public Collection<PageRecord> pages() {
+    public synchronized Collection<PageRecord> pages() {
         readPagesInfo();
         return pages.values();
     }
@@ -3,18 +3,31 @@ package query.page.io;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
+/**
+ * Reads and writes blocks at absolute positions of a file.
+ * <p>
+ * Every call is a positional read or write on the file channel, the shared file pointer is never moved,
+ * so scans, flush and compaction threads read the same file at once without a lock.
+ * Thread interrupted in the middle of a call closes the channel for every user, so reader threads must not be interrupted.
+ */
 public class BlockRandomAccessFile {
     private final RandomAccessFile raf;
+    private final FileChannel channel;
 
     public BlockRandomAccessFile(RandomAccessFile raf) {
         this.raf = raf;
+        this.channel = raf.getChannel();
     }
 
     public void write(long position, byte[] data) {
         try {
-            raf.seek(position);
-            raf.write(data);
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, position + buffer.position());
+            }
         } catch (IOException e) {
             throw asUnChecked(e);
         }
@@ -34,9 +47,31 @@ public class BlockRandomAccessFile {
 
 
     public int read(long position, byte[] data) {
+        return read(position, data, 0, data.length);
+    }
+
+    /*
+        Reads until length bytes are read or end of file. Returns bytes read, -1 when position is at end of file.
+     */
+    public int read(long position, byte[] data, int offset, int length) {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(data, offset, length);
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position + buffer.position() - offset);
+                if (read < 0) {
+                    break;
+                }
+            }
+            int total = buffer.position() - offset;
+            return total == 0 && length > 0 ? -1 : total;
+        } catch (IOException e) {
+            throw asUnChecked(e);
+        }
+    }
+
+    public void close() {
         try {
-            raf.seek(position);
-            return raf.read(data);
+            raf.close();
         } catch (IOException e) {
             throw asUnChecked(e);
         }
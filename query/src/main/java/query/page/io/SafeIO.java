@@ -24,13 +24,9 @@ public class SafeIO {
         }
     }
 
+    // Positional write, file pointer of raf is not moved
     public static void write(RandomAccessFile raf, long position, byte[] data) {
-        try {
-            raf.seek(position);
-            raf.write(data);
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
-        }
+        new BlockRandomAccessFile(raf).write(position, data);
     }
 
     public static void commit(RandomAccessFile raf) {
@@ -42,13 +38,9 @@ public class SafeIO {
     }
 
 
+    // Positional read, file pointer of raf is not moved
     public static int read(RandomAccessFile raf, long position, byte[] data) {
-        try {
-            raf.seek(position);
-            return raf.read(data);
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
-        }
+        return new BlockRandomAccessFile(raf).read(position, data);
     }
 
 }
@@ -1,7 +1,12 @@
 package query.page.read;
 
+import java.nio.ByteBuffer;
+
 public interface PageIterator {
     int next(byte[] buffer);
 
+    // View of next record over page buffer, see ReadPage.view. Returns null when there are no more records
+    ByteBuffer next(ByteBuffer view);
+
     boolean hasNext();
 }
@@ -1,8 +1,12 @@
 package query.page.read;
 
+import java.nio.ByteBuffer;
 import java.time.LocalDateTime;
 
-public interface ReadPage {
+/**
+ * Page read from an allocator. Page served by a buffer pool stays pinned until it is closed.
+ */
+public interface ReadPage extends AutoCloseable {
     short version();
 
     int pageNumber();
@@ -15,7 +19,23 @@ public interface ReadPage {
 
     int record(int index, byte[] buffer);
 
+    /*
+        Read only duplicate of page buffer, record(index, view) moves it onto a record without copy.
+        View is valid only while page is open.
+     */
+    ByteBuffer view();
+
+    ByteBuffer record(int index, ByteBuffer view);
+
+    @Override
+    default void close() {
+    }
+
     static ReadPage create(byte[] buffer) {
         return new ReadableSlottedPage(buffer);
     }
+
+    static ReadPage create(ByteBuffer buffer) {
+        return new ReadableSlottedPage(buffer);
+    }
 }
@@ -21,7 +21,14 @@ public class ReadableSlottedPage implements ReadPage {
     private int totalTuple;
 
     public ReadableSlottedPage(byte[] readData) {
-        this.readBuffer = ByteBuffer.wrap(readData).asReadOnlyBuffer();
+        this(ByteBuffer.wrap(readData));
+    }
+
+    /*
+        Page is read in place from position to limit of the buffer, records are copied only when they are read into a byte array.
+     */
+    public ReadableSlottedPage(ByteBuffer page) {
+        this.readBuffer = page.slice().asReadOnlyBuffer();
         this.recordReaderBy4ByteOffset = new RecordReaderBy4ByteOffset(DATA_OFFSET, readBuffer, readBuffer.limit());
         readHeaders();
 
@@ -66,6 +73,14 @@ public class ReadableSlottedPage implements ReadPage {
                 return bytesToRead;
             }
 
+            @Override
+            public ByteBuffer next(ByteBuffer view) {
+                if (!hasNext()) {
+                    return null;
+                }
+                return recordReaderBy4ByteOffset.view(view, this.current++);
+            }
+
             @Override
             public boolean hasNext() {
                 return current < total;
@@ -78,6 +93,16 @@ public class ReadableSlottedPage implements ReadPage {
         return recordReaderBy4ByteOffset.read(writeBuffer, index);
     }
 
+    @Override
+    public ByteBuffer view() {
+        return readBuffer.duplicate();
+    }
+
+    @Override
+    public ByteBuffer record(int index, ByteBuffer view) {
+        return recordReaderBy4ByteOffset.view(view, index);
+    }
+
     @Override
     public String toString() {
         return String.format("SlotPage (CreatedAt: %s;Page: %s;Version: %s;Tuple Count: %s)", createdTime(), pageNumber, version, totalTuple);
@@ -23,6 +23,19 @@ public class RecordReaderBy4ByteOffset {
         return readTuple(writeBuffer, startPosition, recordSize, readBuffer);
     }
 
+    /*
+        Moves view, a duplicate of the page buffer, onto record: position is first byte and limit is end of record.
+     */
+    public ByteBuffer view(ByteBuffer view, int recordIndex) {
+        int slotIndex = slotIndex(recordIndex);
+        int startPosition = startPosition(recordIndex, slotIndex);
+        int recordSize = recordSize(slotIndex, startPosition);
+        view.clear();
+        view.position(startPosition);
+        view.limit(startPosition + recordSize);
+        return view;
+    }
+
     private int readTuple(byte[] writeBuffer, int startPos, int bytesToRead, ByteBuffer readBuffer) {
         for (int start = 0; start < bytesToRead; start++) {
             writeBuffer[start] = readBuffer.get(startPos + start);
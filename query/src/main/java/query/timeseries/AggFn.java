@@ -0,0 +1,26 @@
+package query.timeseries;
+
+import query.timeseries.sst.TagAggregate;
+
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Aggregate functions over numeric tag of events.
+ */
+public enum AggFn {
+    COUNT(TagAggregate::count),
+    SUM(TagAggregate::sum),
+    MIN(TagAggregate::min),
+    MAX(TagAggregate::max),
+    AVG(TagAggregate::avg);
+
+    private final ToDoubleFunction<TagAggregate> value;
+
+    AggFn(ToDoubleFunction<TagAggregate> value) {
+        this.value = value;
+    }
+
+    public double apply(TagAggregate aggregate) {
+        return value.applyAsDouble(aggregate);
+    }
+}
@@ -1,11 +1,16 @@
 package query.timeseries;
 
 import model.avro.EventInfo;
+import model.avro.RollupPartial;
+import query.timeseries.id.KeyMode;
 import query.timeseries.impl.DefaultTimeSeriesDatabase;
+import query.timeseries.sst.ScanOrder;
 import query.timeseries.sst.SortedStringTable;
 import query.timeseries.sst.memory.InMemorySSTable;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.Map;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
@@ -15,12 +20,39 @@ public interface TimeSeriesStore {
 
     <T> EventInfo insert(T row);
 
+    // Lookup by event time id, returns null when event is not found
+    EventInfo get(String eventId);
+
     void gt(LocalDateTime fromTime, Function<EventInfo, Boolean> consumer);
 
     void lt(LocalDateTime toTime, Function<EventInfo, Boolean> consumer);
 
     void between(LocalDateTime startTime, LocalDateTime endTime, Function<EventInfo, Boolean> consumer);
 
+    // Events in event time order, consumer returns false to stop as soon as it has seen enough
+    void gt(LocalDateTime fromTime, ScanOrder order, Function<EventInfo, Boolean> consumer);
+
+    void lt(LocalDateTime toTime, ScanOrder order, Function<EventInfo, Boolean> consumer);
+
+    void between(LocalDateTime startTime, LocalDateTime endTime, ScanOrder order, Function<EventInfo, Boolean> consumer);
+
+    // Events of [startTime, endTime] that have every tag value of tags, not in time order
+    void between(LocalDateTime startTime, LocalDateTime endTime, Map<String, Integer> tags, Function<EventInfo, Boolean> consumer);
+
+    // Aggregates of numeric tag over events of [startTime, endTime) in whole seconds, event without the tag is not counted
+    Map<AggFn, Double> aggregate(LocalDateTime startTime, LocalDateTime endTime, String tag, AggFn... fns);
+
+    /*
+        Keeps count, sum, min and max of every tag per bucket of events inserted from now on. Aggregate reads
+        buckets that fit in its range from the coarsest rollup, edges from finer rollups and then from events.
+        Buckets up to the newest event stored before the rollup was added are always read from events.
+     */
+    void addRollup(Duration bucket, SortedStringTable<RollupPartial> table);
+
+    default void addRollup(Duration bucket) {
+        addRollup(bucket, new InMemorySSTable<>(Integer.MAX_VALUE));
+    }
+
     default void flush() {
     }
 
@@ -35,4 +67,8 @@ public interface TimeSeriesStore {
     static TimeSeriesStore persistence(SortedStringTable<EventInfo> store) {
         return new DefaultTimeSeriesDatabase(store);
     }
+
+    static TimeSeriesStore persistence(SortedStringTable<EventInfo> store, KeyMode keys) {
+        return new DefaultTimeSeriesDatabase(store, keys);
+    }
 }
@@ -4,4 +4,9 @@ public interface EventIdGenerator {
     String next();
 
     String next(long ms);
+
+    // Mode of generated ids, store must be queried with the same mode
+    default KeyMode keys() {
+        return KeyMode.FORMATTED;
+    }
 }
@@ -0,0 +1,110 @@
+package query.timeseries.id;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * How event time is turned into a key, queries must use mode of generator that made the keys.
+ * <p>
+ * FORMATTED key is "yyyyMMddHHmmss/seq" in system time zone, it is readable but formatted on every insert and query.
+ * PACKED key is (epoch ms << 20 | seq) written as 11 characters of 6 bits each. Alphabet is in ASCII order, so
+ * key order is order of the long and a key is compared and stored as a fixed 11 byte string, without formatter calls.
+ */
+public enum KeyMode {
+
+    FORMATTED {
+        @Override
+        public String from(LocalDateTime time) {
+            return time.format(FORMAT);
+        }
+
+        @Override
+        public String to(LocalDateTime time) {
+            return time.format(FORMAT);
+        }
+
+        @Override
+        public LocalDateTime time(String key) {
+            return LocalDateTime.of(digits(key, 0, 4), digits(key, 4, 6), digits(key, 6, 8),
+                    digits(key, 8, 10), digits(key, 10, 12), digits(key, 12, 14));
+        }
+    },
+
+    PACKED {
+        @Override
+        public String from(LocalDateTime time) {
+            return encode(millis(time) << SEQUENCE_BITS);
+        }
+
+        @Override
+        public String to(LocalDateTime time) {
+            return encode((millis(time) << SEQUENCE_BITS) - 1);
+        }
+
+        @Override
+        public LocalDateTime time(String key) {
+            return LocalDateTime.ofInstant(Instant.ofEpochMilli(decode(key) >> SEQUENCE_BITS), ZoneId.systemDefault());
+        }
+    };
+
+    public static final int SEQUENCE_BITS = 20;
+    public static final int PACKED_LENGTH = 11;
+
+    private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+    private static final char[] ALPHABET = "-0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ_abcdefghijklmnopqrstuvwxyz".toCharArray();
+    private static final byte[] INDEX = new byte[128];
+
+    static {
+        for (int value = 0; value < ALPHABET.length; value++) {
+            INDEX[ALPHABET[value]] = (byte) value;
+        }
+    }
+
+    // Lowest key of events at time, every event of time and later is >= it
+    public abstract String from(LocalDateTime time);
+
+    // Highest key of events before time, events of time are > it
+    public abstract String to(LocalDateTime time);
+
+    // Event time of key, truncated to second for FORMATTED
+    public abstract LocalDateTime time(String key);
+
+    public static String packed(long ms, long sequence) {
+        return encode(ms << SEQUENCE_BITS | (sequence & ((1L << SEQUENCE_BITS) - 1)));
+    }
+
+    /*
+        Sign bit is flipped so negative values sort before positive ones.
+     */
+    public static String encode(long value) {
+        long bits = value ^ Long.MIN_VALUE;
+        char[] chars = new char[PACKED_LENGTH];
+        for (int position = PACKED_LENGTH - 1; position >= 0; position--) {
+            chars[position] = ALPHABET[(int) (bits & 63)];
+            bits >>>= 6;
+        }
+        return new String(chars);
+    }
+
+    public static long decode(String key) {
+        long bits = 0;
+        for (int position = 0; position < PACKED_LENGTH; position++) {
+            bits = bits << 6 | INDEX[key.charAt(position)];
+        }
+        return bits ^ Long.MIN_VALUE;
+    }
+
+    private static long millis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static int digits(String key, int start, int end) {
+        int value = 0;
+        for (int position = start; position < end; position++) {
+            value = value * 10 + key.charAt(position) - '0';
+        }
+        return value;
+    }
+}
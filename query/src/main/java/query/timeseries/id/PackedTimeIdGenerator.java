@@ -0,0 +1,25 @@
+package query.timeseries.id;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Event id of KeyMode.PACKED, event time in ms and sequence packed into one fixed width key.
+ */
+public class PackedTimeIdGenerator implements EventIdGenerator {
+    private final AtomicLong counter = new AtomicLong();
+
+    @Override
+    public String next() {
+        return next(System.currentTimeMillis());
+    }
+
+    @Override
+    public String next(long ms) {
+        return KeyMode.packed(ms, counter.incrementAndGet());
+    }
+
+    @Override
+    public KeyMode keys() {
+        return KeyMode.PACKED;
+    }
+}
@@ -1,14 +1,24 @@
 package query.timeseries.impl;
 
 import model.avro.EventInfo;
+import model.avro.RollupPartial;
+import query.timeseries.id.KeyMode;
+import query.timeseries.sst.ScanOrder;
 import query.timeseries.sst.memory.InMemorySSTable;
 import query.timeseries.sst.SortedStringTable;
+import query.timeseries.AggFn;
 import query.timeseries.TimeSeriesStore;
+import query.timeseries.sst.TagAggregate;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
@@ -22,11 +32,18 @@ public class DefaultTimeSeriesDatabase implements TimeSeriesStore {
         }
     };
 
-    private final DateTimeFormatter f = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+    private final KeyMode keys;
     private final SortedStringTable<EventInfo> ssTable;
+    private final List<Rollup> rollups = new CopyOnWriteArrayList<>(); // Coarsest bucket first
 
     public DefaultTimeSeriesDatabase(SortedStringTable<EventInfo> ssTable) {
+        this(ssTable, KeyMode.FORMATTED);
+    }
+
+    // Events must get their ids from a generator of the same key mode
+    public DefaultTimeSeriesDatabase(SortedStringTable<EventInfo> ssTable, KeyMode keys) {
         this.ssTable = ssTable;
+        this.keys = keys;
     }
 
     public DefaultTimeSeriesDatabase() {
@@ -42,31 +59,122 @@ public class DefaultTimeSeriesDatabase implements TimeSeriesStore {
     public <T> EventInfo insert(T row) {
         Function<Object, EventInfo> fn = classValue.get(row.getClass());
         EventInfo event = fn.apply(row);
-        ssTable.append(event.getEventTime().toString(), event);
+        String key = event.getEventTime().toString();
+        ssTable.append(key, event);
+        for (Rollup rollup : rollups) {
+            rollup.add(key, event.getTags());
+        }
         return event;
     }
 
+    @Override
+    public void addRollup(Duration bucket, SortedStringTable<RollupPartial> table) {
+        Rollup rollup = new Rollup(bucket, table, keys);
+        rollups.add(rollup);
+        rollups.sort(Comparator.comparing(Rollup::bucket).reversed());
+        // Event stored before this lookup is found by it, event stored after it is added to rollup
+        rollup.cover(newestKey());
+    }
+
+    private String newestKey() {
+        String[] newest = {null};
+        ssTable.iterate(null, null, ScanOrder.DESC, event -> {
+            newest[0] = event.getEventTime().toString();
+            return false;
+        });
+        return newest[0];
+    }
+
+    @Override
+    public EventInfo get(String eventId) {
+        return ssTable.get(eventId);
+    }
+
     @Override
     public void gt(LocalDateTime fromTime, Function<EventInfo, Boolean> consumer) {
-        ssTable.iterate(fromTime.format(f), null, consumer);
+        ssTable.iterate(keys.from(fromTime), null, consumer);
     }
 
     @Override
     public void lt(LocalDateTime toTime, Function<EventInfo, Boolean> consumer) {
-        ssTable.iterate(null, toTime.format(f), consumer);
+        ssTable.iterate(null, keys.to(toTime), consumer);
     }
 
     @Override
     public void between(LocalDateTime startTime, LocalDateTime endTime, Function<EventInfo, Boolean> consumer) {
 
-        String startKey = startTime.format(f);
-        String endKey = endTime.format(f);
+        String startKey = keys.from(startTime);
+        String endKey = keys.to(endTime);
         ssTable.iterate(startKey, endKey, consumer);
     }
 
+    @Override
+    public void gt(LocalDateTime fromTime, ScanOrder order, Function<EventInfo, Boolean> consumer) {
+        ssTable.iterate(keys.from(fromTime), null, order, consumer);
+    }
+
+    @Override
+    public void lt(LocalDateTime toTime, ScanOrder order, Function<EventInfo, Boolean> consumer) {
+        ssTable.iterate(null, keys.to(toTime), order, consumer);
+    }
+
+    @Override
+    public void between(LocalDateTime startTime, LocalDateTime endTime, ScanOrder order, Function<EventInfo, Boolean> consumer) {
+        ssTable.iterate(keys.from(startTime), keys.to(endTime), order, consumer);
+    }
+
+    @Override
+    public void between(LocalDateTime startTime, LocalDateTime endTime, Map<String, Integer> tags, Function<EventInfo, Boolean> consumer) {
+        ssTable.filter(keys.from(startTime), keys.to(endTime), EventInfo::getTags, tags, consumer);
+    }
+
+    @Override
+    public Map<AggFn, Double> aggregate(LocalDateTime startTime, LocalDateTime endTime, String tag, AggFn... fns) {
+        TagAggregate aggregate = new TagAggregate();
+        aggregate(startTime.truncatedTo(ChronoUnit.SECONDS), endTime.truncatedTo(ChronoUnit.SECONDS), tag, 0, aggregate);
+        Map<AggFn, Double> values = new EnumMap<>(AggFn.class);
+        for (AggFn fn : fns) {
+            values.put(fn, fn.apply(aggregate));
+        }
+        return values;
+    }
+
+    /*
+        Buckets of rollup at level that fit in [from, to) and are covered by it are read from rollup, edges and buckets
+        older than its coverage go to next finer rollup and what no rollup covers is aggregated from events.
+     */
+    private void aggregate(LocalDateTime from, LocalDateTime to, String tag, int level, TagAggregate into) {
+        if (!from.isBefore(to)) {
+            return;
+        }
+        if (level == rollups.size()) {
+            into.merge(ssTable.aggregate(keys.from(from), keys.to(to), EventInfo::getTags, tag));
+            return;
+        }
+        Rollup rollup = rollups.get(level);
+        LocalDateTime start = rollup.ceil(from);
+        if (start.isBefore(rollup.coveredFrom())) {
+            start = rollup.coveredFrom();
+        }
+        LocalDateTime end = rollup.floor(to);
+        if (!start.isBefore(end)) {
+            aggregate(from, to, tag, level + 1, into);
+            return;
+        }
+        rollup.aggregate(start, end, tag, into);
+        aggregate(from, start, tag, level + 1, into);
+        aggregate(end, to, tag, level + 1, into);
+    }
+
     @Override
     public void flush() {
         this.ssTable.flush();
+        rollups.forEach(Rollup::flush);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s [%s] %s", this.getClass().getSimpleName(), ssTable, rollups);
     }
 
 }
@@ -0,0 +1,209 @@
+package query.timeseries.impl;
+
+import model.avro.RollupPartial;
+import query.timeseries.id.KeyMode;
+import query.timeseries.sst.SortedStringTable;
+import query.timeseries.sst.TagAggregate;
+import query.timeseries.sst.disk.RecordSerializer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Count, sum, min and max of every tag per time bucket of events. Partials of buckets are merged in memory
+ * and appended to the rollup table on drain, bucket drained more than once has one partial per drain.
+ * Partial key is "{bucket start}/{tag}/{drain}" so partials are never replaced, aggregate merges all of them.
+ * <p>
+ * Rollup only sees events inserted after it was added, so it covers buckets from the one after newest event already stored.
+ * Coverage is kept as metadata of the table, not as a partial, "{covered from}/{newest event seen}" as ISO times,
+ * so a reopened rollup keeps covering its buckets as long as no event was stored after its last drain.
+ */
+public class Rollup {
+
+    public static final int MAX_PENDING = 4096;
+    public static final String COVERAGE = "rollup.coverage";
+
+    private static final DateTimeFormatter f = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+
+    private final Duration bucket;
+    private final long width;
+    private final SortedStringTable<RollupPartial> table;
+    private final KeyMode keys;
+    private final Map<String, TagAggregate> pending = new ConcurrentHashMap<>();
+    // Queries share the lock, drain takes it exclusively so a partial is seen either pending or in table
+    private final ReadWriteLock drainLock = new ReentrantReadWriteLock();
+    private final AtomicLong drains = new AtomicLong(System.currentTimeMillis());
+    private volatile String[] lastBucket = {"", "", ""}; // Start key, end key and bucket key of last event
+    private volatile LocalDateTime coveredFrom = LocalDateTime.MAX; // Start of first bucket that has every event
+    private final AtomicReference<String> newestKey = new AtomicReference<>();
+
+    public Rollup(Duration bucket, SortedStringTable<RollupPartial> table, KeyMode keys) {
+        if (bucket.getSeconds() <= 0 || bucket.getNano() != 0) {
+            throw new IllegalArgumentException("Bucket must be whole seconds " + bucket);
+        }
+        this.bucket = bucket;
+        this.width = bucket.getSeconds();
+        this.table = table;
+        this.keys = keys;
+    }
+
+    public Duration bucket() {
+        return bucket;
+    }
+
+    public void add(String eventKey, Map<CharSequence, Integer> tags) {
+        String newest = newestKey.get();
+        if (newest == null || eventKey.compareTo(newest) > 0) {
+            newestKey.accumulateAndGet(eventKey, (current, key) -> current == null || key.compareTo(current) > 0 ? key : current);
+        }
+        if (tags.isEmpty()) {
+            return;
+        }
+        String bucketKey = bucketKey(eventKey);
+        for (Map.Entry<CharSequence, Integer> tag : tags.entrySet()) {
+            double value = tag.getValue();
+            pending.compute(bucketKey + "/" + tag.getKey(), (k, aggregate) -> {
+                TagAggregate current = aggregate == null ? new TagAggregate() : aggregate;
+                current.add(value);
+                return current;
+            });
+        }
+        if (pending.size() > MAX_PENDING) {
+            drain();
+        }
+    }
+
+    /*
+        Called once rollup receives every inserted event. Stored coverage is kept when newest stored event was seen by rollup,
+        otherwise rollup covers buckets after it. Null key means store was empty and rollup covers every bucket.
+     */
+    public void cover(String newestStoredKey) {
+        LocalDateTime newest = newestStoredKey == null ? null : keys.time(newestStoredKey);
+        String stored = table.metadata(COVERAGE);
+        String[] coverage = stored == null ? null : stored.split("/");
+        if (coverage != null && (newest == null || !newest.isAfter(LocalDateTime.parse(coverage[1])))) {
+            coveredFrom = LocalDateTime.parse(coverage[0]);
+        } else {
+            coveredFrom = newest == null ? LocalDateTime.MIN : floor(newest).plusSeconds(width);
+        }
+    }
+
+    // Buckets from here on are answered by rollup, earlier ones by finer rollups or events
+    public LocalDateTime coveredFrom() {
+        return coveredFrom;
+    }
+
+    /*
+        Partials of buckets of [from, to) are merged into aggregate, both bounds must be aligned to bucket.
+     */
+    public void aggregate(LocalDateTime from, LocalDateTime to, String tag, TagAggregate into) {
+        String fromKey = from.format(f);
+        String toKey = to.format(f);
+        drainLock.readLock().lock();
+        try {
+            table.iterate(fromKey, toKey, partial -> {
+                String key = partial.getKey().toString();
+                if (tag.equals(key.substring(fromKey.length() + 1, key.lastIndexOf('/')))) {
+                    into.merge(partial.getCount(), partial.getSum(), partial.getMin(), partial.getMax());
+                }
+                return true;
+            });
+            for (String key : pending.keySet()) {
+                String bucketKey = key.substring(0, fromKey.length());
+                if (bucketKey.compareTo(fromKey) >= 0 && bucketKey.compareTo(toKey) < 0 && tag.equals(key.substring(fromKey.length() + 1))) {
+                    pending.computeIfPresent(key, (k, aggregate) -> {
+                        into.merge(aggregate);
+                        return aggregate;
+                    });
+                }
+            }
+        } finally {
+            drainLock.readLock().unlock();
+        }
+    }
+
+    // Moves partials of memory to rollup table
+    public void drain() {
+        drainLock.writeLock().lock();
+        try {
+            if (pending.isEmpty()) {
+                return;
+            }
+            long drain = drains.updateAndGet(last -> Math.max(last + 1, System.currentTimeMillis()));
+            for (String key : pending.keySet()) {
+                TagAggregate aggregate = pending.remove(key);
+                if (aggregate != null) {
+                    String partialKey = key + "/" + drain;
+                    table.append(partialKey, new RollupPartial(partialKey, aggregate.count(), aggregate.sum(), aggregate.min(), aggregate.max()));
+                }
+            }
+            String newest = newestKey.get();
+            if (!coveredFrom.equals(LocalDateTime.MAX) && newest != null) {
+                table.metadata(COVERAGE, coveredFrom + "/" + keys.time(newest));
+            }
+        } finally {
+            drainLock.writeLock().unlock();
+        }
+    }
+
+    public void flush() {
+        drain();
+        table.flush();
+    }
+
+    public LocalDateTime floor(LocalDateTime time) {
+        long seconds = time.toEpochSecond(ZoneOffset.UTC);
+        return LocalDateTime.ofEpochSecond(seconds - Math.floorMod(seconds, width), 0, ZoneOffset.UTC);
+    }
+
+    public LocalDateTime ceil(LocalDateTime time) {
+        LocalDateTime start = floor(time);
+        return start.equals(time) ? start : start.plusSeconds(width);
+    }
+
+    /*
+        Events arrive mostly in time order, so bucket of last event is checked before parsing event time.
+     */
+    private String bucketKey(String eventKey) {
+        String[] last = lastBucket;
+        if (eventKey.compareTo(last[0]) >= 0 && eventKey.compareTo(last[1]) < 0) {
+            return last[2];
+        }
+        LocalDateTime start = floor(keys.time(eventKey));
+        String startKey = start.format(f);
+        lastBucket = new String[]{keys.from(start), keys.from(start.plusSeconds(width)), startKey};
+        return startKey;
+    }
+
+    // Serializer of persistent rollup table, partials are small so a page holds many buckets
+    public static RecordSerializer<RollupPartial> recordSerializer(int pageSize) {
+        return new RecordSerializer<>(pageSize, partial -> {
+            try {
+                return partial.toByteBuffer().array();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, buffer -> {
+            try {
+                return RollupPartial.fromByteBuffer(buffer);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, partial -> partial.getKey().toString());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Rollup (Bucket: %s;Covered from: %s;Pending: %s;Table: %s)", bucket, coveredFrom, pending.size(), table);
+    }
+}
@@ -0,0 +1,85 @@
+package query.timeseries.sst;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bloom filter for String keys.
+ * Uses 64 bit FNV-1a hash of key and derives all probes from its two halves (Kirsch-Mitzenmacher double hashing).
+ * <p>
+ * Layout {No Of Hash(Int)}{Bits(Long)...}
+ */
+public class BloomFilter {
+
+    private final long[] bits;
+    private final int noOfHash;
+
+    private BloomFilter(long[] bits, int noOfHash) {
+        this.bits = bits;
+        this.noOfHash = noOfHash;
+    }
+
+    public static BloomFilter create(int expectedKeys, int bitsPerKey) {
+        int noOfBits = Math.max(64, expectedKeys * bitsPerKey);
+        int noOfHash = Math.max(1, Math.min(30, (int) Math.round(bitsPerKey * Math.log(2))));
+        return new BloomFilter(new long[(noOfBits + 63) / 64], noOfHash);
+    }
+
+    public static BloomFilter fromBytes(ByteBuffer buffer) {
+        ByteBuffer data = buffer.duplicate();
+        int noOfHash = data.getInt();
+        long[] bits = new long[data.remaining() / 8];
+        for (int index = 0; index < bits.length; index++) {
+            bits[index] = data.getLong();
+        }
+        return new BloomFilter(bits, noOfHash);
+    }
+
+    public ByteBuffer toBytes() {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + bits.length * 8);
+        buffer.putInt(noOfHash);
+        for (long value : bits) {
+            buffer.putLong(value);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    public void add(String key) {
+        long hash = hash(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long noOfBits = bits.length * 64L;
+        for (int probe = 0; probe < noOfHash; probe++) {
+            long bit = ((h1 + probe * h2) & Integer.MAX_VALUE) % noOfBits;
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    public boolean mightContain(String key) {
+        long hash = hash(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long noOfBits = bits.length * 64L;
+        for (int probe = 0; probe < noOfHash; probe++) {
+            long bit = ((h1 + probe * h2) & Integer.MAX_VALUE) % noOfBits;
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int index = 0; index < key.length(); index++) {
+            hash ^= key.charAt(index);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BloomFilter (Bits: %s;Hash: %s)", bits.length * 64, noOfHash);
+    }
+}
@@ -0,0 +1,12 @@
+package query.timeseries.sst;
+
+import java.util.Iterator;
+
+/**
+ * Iterator that holds resources, like a pinned page, until it is exhausted or closed.
+ */
+public interface CloseableIterator<T> extends Iterator<T>, AutoCloseable {
+
+    @Override
+    void close();
+}
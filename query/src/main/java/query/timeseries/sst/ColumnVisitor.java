@@ -0,0 +1,21 @@
+package query.timeseries.sst;
+
+/**
+ * Receives numeric columns of a range scan in batches.
+ * <p>
+ * values[c] holds c-th requested column, rows of the batch are [start, end). Arrays are reused after visit returns.
+ */
+@FunctionalInterface
+public interface ColumnVisitor {
+
+    // Returns false to stop the scan
+    boolean visit(double[][] values, int start, int end);
+
+    /*
+        Min and max of every requested column of a chunk, called before chunk is read.
+        Returning true skips the chunk, so columns of a chunk that cannot match are never read.
+     */
+    default boolean skip(double[] min, double[] max) {
+        return false;
+    }
+}
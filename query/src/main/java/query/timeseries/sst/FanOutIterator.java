@@ -0,0 +1,115 @@
+package query.timeseries.sst;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs ordered list of tasks on a ForkJoin pool and returns their results in task order.
+ * At most window tasks are submitted ahead of the result being consumed, so memory held is bounded by window results.
+ * <p>
+ * Closing the iterator cancels tasks that are not started and waits for running ones, so no task outlives the scan.
+ * Task is claimed before it runs, either by the pool or by close, so a running task is never just marked cancelled.
+ */
+public class FanOutIterator<T> implements CloseableIterator<T> {
+
+    private final Iterator<Callable<List<T>>> tasks;
+    private final ForkJoinPool pool;
+    private final int window;
+    private final Deque<Slot<T>> submitted = new ArrayDeque<>();
+    private Iterator<T> current = Collections.emptyIterator();
+
+    public FanOutIterator(List<Callable<List<T>>> tasks, ForkJoinPool pool, int window) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("Window is not positive - " + window);
+        }
+        this.tasks = tasks.iterator();
+        this.pool = pool;
+        this.window = window;
+        submit();
+    }
+
+    private void submit() {
+        while (submitted.size() < window && tasks.hasNext()) {
+            Slot<T> slot = new Slot<>(tasks.next());
+            slot.future = pool.submit(slot::run);
+            submitted.add(slot);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!current.hasNext()) {
+            Slot<T> next = submitted.poll();
+            if (next == null) {
+                return false;
+            }
+            submit(); // Keep window full while this result is consumed
+            current = next.future.join().iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    @Override
+    public void close() {
+        for (Slot<T> slot : submitted) {
+            slot.cancel();
+        }
+        submitted.clear();
+        current = Collections.emptyIterator();
+    }
+
+    private static class Slot<T> {
+        private final Callable<List<T>> task;
+        private final AtomicBoolean started = new AtomicBoolean();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private ForkJoinTask<List<T>> future;
+
+        Slot(Callable<List<T>> task) {
+            this.task = task;
+        }
+
+        // Task claimed by close returns nothing
+        List<T> run() throws Exception {
+            if (!started.compareAndSet(false, true)) {
+                return Collections.emptyList();
+            }
+            try {
+                return task.call();
+            } finally {
+                done.countDown();
+            }
+        }
+
+        // Not started task never runs, started one is waited for until it returns
+        void cancel() {
+            if (started.compareAndSet(false, true)) {
+                future.cancel(false);
+                return;
+            }
+            boolean interrupted = false;
+            for (; ; ) {
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
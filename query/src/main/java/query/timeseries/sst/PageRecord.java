@@ -3,6 +3,8 @@ package query.timeseries.sst;
 
 import model.avro.page.SSTablePage;
 
+import java.util.Iterator;
+import java.util.Map;
 import java.util.NavigableMap;
 
 public interface PageRecord<V> {
@@ -11,4 +13,9 @@ public interface PageRecord<V> {
 
     SSTablePage getPageInfo();
 
+    // Records of page in key order, flush reads pages through it
+    default Iterator<Map.Entry<String, V>> entries() {
+        return getPageData().entrySet().iterator();
+    }
+
 }
@@ -0,0 +1,13 @@
+package query.timeseries.sst;
+
+/**
+ * Order in which range scan returns records, by key.
+ */
+public enum ScanOrder {
+    ASC,
+    DESC;
+
+    public int compare(String key, String other) {
+        return this == ASC ? key.compareTo(other) : other.compareTo(key);
+    }
+}
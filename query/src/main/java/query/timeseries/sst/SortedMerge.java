@@ -0,0 +1,85 @@
+package query.timeseries.sst;
+
+import java.util.*;
+
+/**
+ * Merge already sorted sources into single key ordered iterator using k-way merge.
+ * Only head of every source is held in memory. Equal keys are returned in the order of sources,
+ * distinct merge returns only the entry of the first source.
+ * <p>
+ * Sources must be sorted in merge order, descending merge takes sources sorted in descending key order.
+ */
+public class SortedMerge<V> implements Iterator<Map.Entry<String, V>> {
+
+    private final PriorityQueue<Source<V>> heads;
+    private final boolean distinct;
+
+    public SortedMerge(List<Iterator<Map.Entry<String, V>>> sources) {
+        this(sources, false);
+    }
+
+    public SortedMerge(List<Iterator<Map.Entry<String, V>>> sources, boolean distinct) {
+        this(sources, distinct, ScanOrder.ASC);
+    }
+
+    public SortedMerge(List<Iterator<Map.Entry<String, V>>> sources, boolean distinct, ScanOrder order) {
+        this.distinct = distinct;
+        this.heads = new PriorityQueue<>(Math.max(1, sources.size()), (source, other) -> {
+            int result = order.compare(source.current.getKey(), other.current.getKey());
+            return result != 0 ? result : Integer.compare(source.order, other.order);
+        });
+        for (int index = 0; index < sources.size(); index++) {
+            Source<V> source = new Source<>(index, sources.get(index));
+            if (source.advance()) {
+                heads.add(source);
+            }
+        }
+    }
+
+    public static <V> SortedMerge<V> of(Collection<PageRecord<V>> pages) {
+        List<Iterator<Map.Entry<String, V>>> sources = new ArrayList<>();
+        pages.forEach(page -> sources.add(page.entries()));
+        return new SortedMerge<>(sources);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !heads.isEmpty();
+    }
+
+    @Override
+    public Map.Entry<String, V> next() {
+        Source<V> source = heads.poll();
+        if (source == null) {
+            throw new NoSuchElementException();
+        }
+        Map.Entry<String, V> value = source.current;
+        advance(source);
+        while (distinct && !heads.isEmpty() && heads.peek().current.getKey().equals(value.getKey())) {
+            advance(heads.poll());
+        }
+        return value;
+    }
+
+    private void advance(Source<V> source) {
+        if (source.advance()) {
+            heads.add(source);
+        }
+    }
+
+    private static class Source<V> {
+        private final int order;
+        private final Iterator<Map.Entry<String, V>> itr;
+        private Map.Entry<String, V> current;
+
+        Source(int order, Iterator<Map.Entry<String, V>> itr) {
+            this.order = order;
+            this.itr = itr;
+        }
+
+        boolean advance() {
+            current = itr.hasNext() ? itr.next() : null;
+            return current != null;
+        }
+    }
+}
@@ -1,18 +1,86 @@
 package query.timeseries.sst;
 
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.IntPredicate;
 
-public interface SortedStringTable<V> {
+public interface SortedStringTable<V> extends AutoCloseable {
 
     void append(String key, V value);
 
+    // Returns null when key is not found
+    V get(String key);
+
     void iterate(String from, String to, Function<V, Boolean> consumer);
 
+    /*
+        Records of [from, to] in key order across all pages, consumer returns false to stop.
+        Key found in more than one page is returned once, from newest page.
+     */
+    default void iterate(String from, String to, ScanOrder order, Function<V, Boolean> consumer) {
+        SortedMerge<V> merge = new SortedMerge<>(sortedSources(from, to, order), true, order);
+        while (merge.hasNext()) {
+            if (!consumer.apply(merge.next().getValue())) {
+                return;
+            }
+        }
+    }
+
+    /*
+        Count, sum, min and max of tag of records in [from, to]. Records are read one by one, store that keeps
+        page stats answers pages from stats.
+     */
+    default TagAggregate aggregate(String from, String to, Function<V, Map<CharSequence, Integer>> tags, String tag) {
+        TagAggregate aggregate = new TagAggregate();
+        iterate(from, to, row -> {
+            aggregate.addTag(row, tags, tag);
+            return true;
+        });
+        return aggregate;
+    }
+
+    /*
+        Records of [from, to] that have every tag value of match, consumer returns false to stop. Records are read one by one,
+        store that keeps a tag index reads only matching records.
+     */
+    default void filter(String from, String to, Function<V, Map<CharSequence, Integer>> tags, Map<String, Integer> match, Function<V, Boolean> consumer) {
+        iterate(from, to, row -> !TagFilter.matches(tags.apply(row), match) || consumer.apply(row));
+    }
+
+    // Entries of [from, to] of every buffer page in scan order, newest page first. Null bound is open ended.
+    default List<Iterator<Map.Entry<String, V>>> sortedSources(String from, String to, ScanOrder order) {
+        throw new IllegalArgumentException("Not supported");
+    }
+
+    // Same as sortedSources, sealed pages whose id is rejected by pages are left out
+    default List<Iterator<Map.Entry<String, V>>> sortedSources(String from, String to, ScanOrder order, IntPredicate pages) {
+        throw new IllegalArgumentException("Not supported");
+    }
+
     // API for saving SST table for persistence storage
     Collection<PageRecord<V>> buffers();
 
     void remove(int pageId);
 
     void flush();
+
+    /*
+        Named value kept with the table, it is not one of its records and is never returned by iterate. Null when name was never set.
+        Persistent table writes it with its manifest, so it is kept across reopen once a flush or close wrote it.
+     */
+    String metadata(String name);
+
+    void metadata(String name, String value);
+
+    // Called with every buffer page as soon as it becomes read only
+    default void onSeal(Consumer<PageRecord<V>> listener) {
+    }
+
+    @Override
+    default void close() {
+    }
 }
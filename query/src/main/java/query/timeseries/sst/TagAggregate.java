@@ -0,0 +1,77 @@
+package query.timeseries.sst;
+
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Count, sum, min and max of values of a tag. Partial aggregates of pages are merged into it,
+ * so a page whose stats are in the index is added without reading the page.
+ */
+public class TagAggregate {
+
+    private long count;
+    private double sum;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    public void add(double value) {
+        count++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    public void merge(long count, double sum, double min, double max) {
+        if (count == 0) {
+            return;
+        }
+        this.count += count;
+        this.sum += sum;
+        this.min = Math.min(this.min, min);
+        this.max = Math.max(this.max, max);
+    }
+
+    public void merge(TagAggregate other) {
+        merge(other.count, other.sum, other.min, other.max);
+    }
+
+    /*
+        Adds value of tag of the record, record without the tag is not counted.
+     */
+    public <V> boolean addTag(V row, Function<V, Map<CharSequence, Integer>> tags, String tag) {
+        Map<CharSequence, Integer> values = tags.apply(row);
+        for (Map.Entry<CharSequence, Integer> value : values.entrySet()) {
+            if (tag.contentEquals(value.getKey())) {
+                add(value.getValue());
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public double sum() {
+        return sum;
+    }
+
+    // NaN when nothing is aggregated, same for max and avg
+    public double min() {
+        return count == 0 ? Double.NaN : min;
+    }
+
+    public double max() {
+        return count == 0 ? Double.NaN : max;
+    }
+
+    public double avg() {
+        return count == 0 ? Double.NaN : sum / count;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TagAggregate (Count: %s;Sum: %s;Min: %s;Max: %s)", count, sum, min(), max());
+    }
+}
@@ -0,0 +1,30 @@
+package query.timeseries.sst;
+
+import java.util.Map;
+
+/**
+ * Equality match on numeric tags of a record, record must have every tag of match with the same value.
+ */
+public final class TagFilter {
+
+    private TagFilter() {
+    }
+
+    public static boolean matches(Map<CharSequence, Integer> tags, Map<String, Integer> match) {
+        for (Map.Entry<String, Integer> expected : match.entrySet()) {
+            if (!matches(tags, expected.getKey(), expected.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matches(Map<CharSequence, Integer> tags, String tag, Integer value) {
+        for (Map.Entry<CharSequence, Integer> actual : tags.entrySet()) {
+            if (tag.contentEquals(actual.getKey())) {
+                return value.equals(actual.getValue());
+            }
+        }
+        return false;
+    }
+}
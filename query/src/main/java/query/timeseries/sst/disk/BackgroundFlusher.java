@@ -0,0 +1,126 @@
+package query.timeseries.sst.disk;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Dedicated thread that flushes sealed buffer pages as soon as they are handed over.
+ * <p>
+ * Writers call awaitCapacity before append, it blocks while more than maxUnflushedPages pages are waiting,
+ * so heap used by read only buffers stays bounded and ingest slows down to the speed of disk.
+ */
+public class BackgroundFlusher implements AutoCloseable {
+
+    private final Runnable flush;
+    private final IntSupplier unflushedPages;
+    private final int maxUnflushedPages;
+    private final Thread thread;
+    private final Object lock = new Object();
+    private final LongAdder stalls = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+
+    private boolean flushRequested;
+    private volatile boolean running = true;
+    private volatile RuntimeException failure;
+
+    public BackgroundFlusher(String name, Runnable flush, IntSupplier unflushedPages, int maxUnflushedPages) {
+        this.flush = flush;
+        this.unflushedPages = unflushedPages;
+        this.maxUnflushedPages = maxUnflushedPages;
+        this.thread = new Thread(this::run, "flusher-" + name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    public void pageSealed() {
+        synchronized (lock) {
+            flushRequested = true;
+            lock.notifyAll();
+        }
+    }
+
+    public void awaitCapacity() {
+        if (unflushedPages.getAsInt() <= maxUnflushedPages) {
+            return;
+        }
+        stalls.increment();
+        synchronized (lock) {
+            while (running && unflushedPages.getAsInt() > maxUnflushedPages) {
+                checkFailure();
+                flushRequested = true;
+                lock.notifyAll();
+                waitOnLock();
+            }
+        }
+    }
+
+    private void run() {
+        while (running) {
+            synchronized (lock) {
+                while (running && !flushRequested) {
+                    waitOnLock();
+                }
+                flushRequested = false;
+            }
+            flushPages();
+        }
+    }
+
+    private void flushPages() {
+        try {
+            flush.run();
+            flushes.increment();
+            failure = null;
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            failure = e;
+        }
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+
+    private void checkFailure() {
+        RuntimeException e = failure;
+        if (e != null) {
+            throw new IllegalStateException("Background flush failed", e);
+        }
+    }
+
+    private void waitOnLock() {
+        try {
+            lock.wait(TimeUnit.SECONDS.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public long stalls() {
+        return stalls.sum();
+    }
+
+    public long flushes() {
+        return flushes.sum();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        checkFailure();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BackgroundFlusher (Pending: %s;Max: %s;Flushes: %s;Stalls: %s)", unflushedPages.getAsInt(), maxUnflushedPages, flushes(), stalls());
+    }
+}
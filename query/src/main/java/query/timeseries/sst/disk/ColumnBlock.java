@@ -0,0 +1,233 @@
+package query.timeseries.sst.disk;
+
+import query.page.io.BlockRandomAccessFile;
+import query.page.io.SafeIO;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Column chunks of a generation, stored as {storeName}.{id}.columns
+ * <p>
+ * Every data page has one chunk per column, chunk is a fixed width array of doubles in record order of the page.
+ * Layout is {Version}{Columns}{Name}* then chunks, then footer with row count of every page and offset, min and max
+ * of every chunk. Last 8 bytes point at footer. Footer is resident, so a chunk is read with one positional read
+ * and a chunk whose min/max cannot match is not read at all.
+ */
+public class ColumnBlock {
+
+    public static final byte VERSION = 1;
+
+    private final BlockRandomAccessFile file;
+    private final List<String> names;
+
+    // Writer state
+    private long writePosition;
+    private double[][] pageValues;
+    private int pageRows;
+    private final ByteArrayOutputStream footerBytes = new ByteArrayOutputStream();
+    private int footerPages;
+
+    // Resident footer, page of chunk is pageId - 1
+    private volatile Footer footer = new Footer(0, 0);
+
+    private ColumnBlock(BlockRandomAccessFile file, List<String> names) {
+        this.file = file;
+        this.names = names;
+    }
+
+    public static ColumnBlock create(File location, List<String> names) {
+        ColumnBlock block = new ColumnBlock(new BlockRandomAccessFile(SafeIO.open(location.toPath())), new ArrayList<>(names));
+        block.writeHeader();
+        block.pageValues = new double[names.size()][64];
+        return block;
+    }
+
+    public static ColumnBlock open(File location) {
+        BlockRandomAccessFile file = new BlockRandomAccessFile(SafeIO.open(location.toPath()));
+        byte[] trailer = new byte[8];
+        long length = location.length();
+        file.read(length - trailer.length, trailer);
+        long footerOffset = ByteBuffer.wrap(trailer).getLong();
+
+        byte[] header = new byte[(int) footerOffset];
+        file.read(0, header);
+        ByteBuffer buffer = ByteBuffer.wrap(header);
+        buffer.get(); // Version
+        int columns = buffer.getInt();
+        List<String> names = new ArrayList<>();
+        for (int column = 0; column < columns; column++) {
+            byte[] name = new byte[buffer.getShort()];
+            buffer.get(name);
+            names.add(new String(name, StandardCharsets.UTF_8));
+        }
+
+        ColumnBlock block = new ColumnBlock(file, names);
+        byte[] footer = new byte[(int) (length - trailer.length - footerOffset)];
+        file.read(footerOffset, footer);
+        block.footer = Footer.read(ByteBuffer.wrap(footer), columns);
+        return block;
+    }
+
+    private void writeHeader() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(VERSION);
+            out.writeInt(names.size());
+            for (String name : names) {
+                byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+                out.writeShort(nameBytes.length);
+                out.write(nameBytes);
+            }
+            file.write(0, bytes.toByteArray());
+            writePosition = bytes.size();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /*
+        Values of next record of current page, in column order.
+     */
+    public void append(double[] values) {
+        if (pageRows == pageValues[0].length) {
+            for (int column = 0; column < pageValues.length; column++) {
+                pageValues[column] = Arrays.copyOf(pageValues[column], pageRows * 2);
+            }
+        }
+        for (int column = 0; column < pageValues.length; column++) {
+            pageValues[column][pageRows] = values[column];
+        }
+        pageRows++;
+    }
+
+    /*
+        Writes chunks of current page. Pages must be committed in page id order starting from 1.
+     */
+    public void commitPage(int pageId) {
+        if (pageId != footerPages + 1) {
+            throw new IllegalArgumentException(String.format("Page %s is out of order, expected %s", pageId, footerPages + 1));
+        }
+        try {
+            DataOutputStream out = new DataOutputStream(footerBytes);
+            out.writeInt(pageRows);
+            for (double[] values : pageValues) {
+                ByteBuffer chunk = ByteBuffer.allocate(pageRows * Double.BYTES);
+                double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+                for (int row = 0; row < pageRows; row++) {
+                    chunk.putDouble(values[row]);
+                    min = Math.min(min, values[row]);
+                    max = Math.max(max, values[row]);
+                }
+                file.write(writePosition, chunk.array());
+                out.writeLong(writePosition);
+                out.writeDouble(min);
+                out.writeDouble(max);
+                writePosition += chunk.capacity();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        footerPages++;
+        pageRows = 0;
+    }
+
+    /*
+        Footer is written after all chunks and file is forced, block is readable after this.
+     */
+    public void finish() {
+        byte[] footer = footerBytes.toByteArray();
+        file.write(writePosition, footer);
+        file.write(writePosition + footer.length, ByteBuffer.allocate(8).putLong(writePosition).array());
+        file.commit();
+        this.footer = Footer.read(ByteBuffer.wrap(footer), names.size());
+        this.pageValues = null;
+    }
+
+    public List<String> names() {
+        return names;
+    }
+
+    public int noOfPages() {
+        return footer.pages;
+    }
+
+    public int rows(int pageId) {
+        return footer.rows[pageId - 1];
+    }
+
+    public double min(int pageId, int column) {
+        return footer.min[footer.chunk(pageId, column)];
+    }
+
+    public double max(int pageId, int column) {
+        return footer.max[footer.chunk(pageId, column)];
+    }
+
+    /*
+        Reads chunk into target, returns row count.
+     */
+    public int read(int pageId, int column, double[] target) {
+        Footer current = this.footer;
+        int rows = current.rows[pageId - 1];
+        byte[] chunk = new byte[rows * Double.BYTES];
+        file.read(current.offsets[current.chunk(pageId, column)], chunk, 0, chunk.length);
+        ByteBuffer.wrap(chunk).asDoubleBuffer().get(target, 0, rows);
+        return rows;
+    }
+
+    public void close() {
+        file.close();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ColumnBlock (Columns: %s;Pages: %s)", names, footer.pages);
+    }
+
+    private static class Footer {
+        final int pages;
+        final int columns;
+        final int[] rows;
+        final long[] offsets;
+        final double[] min;
+        final double[] max;
+
+        Footer(int pages, int columns) {
+            this.pages = pages;
+            this.columns = columns;
+            this.rows = new int[pages];
+            this.offsets = new long[pages * columns];
+            this.min = new double[pages * columns];
+            this.max = new double[pages * columns];
+        }
+
+        static Footer read(ByteBuffer buffer, int columns) {
+            int entry = Integer.BYTES + columns * (Long.BYTES + Double.BYTES * 2);
+            Footer footer = new Footer(buffer.remaining() / entry, columns);
+            for (int page = 0; page < footer.pages; page++) {
+                footer.rows[page] = buffer.getInt();
+                for (int column = 0; column < columns; column++) {
+                    int chunk = page * columns + column;
+                    footer.offsets[chunk] = buffer.getLong();
+                    footer.min[chunk] = buffer.getDouble();
+                    footer.max[chunk] = buffer.getDouble();
+                }
+            }
+            return footer;
+        }
+
+        int chunk(int pageId, int column) {
+            return (pageId - 1) * columns + column;
+        }
+    }
+}
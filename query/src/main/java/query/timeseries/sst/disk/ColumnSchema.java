@@ -0,0 +1,87 @@
+package query.timeseries.sst.disk;
+
+import query.timeseries.sst.ColumnVisitor;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Numeric columns of a record that are stored column wise next to data pages.
+ * <p>
+ * Extractor fills value of every column of a record in one call, so a record with nested body is decoded once
+ * and not once per column.
+ */
+public class ColumnSchema<V> {
+
+    public static final int BATCH_ROWS = 1024;
+
+    private final List<String> names;
+    private final BiConsumer<V, double[]> extractor;
+
+    public ColumnSchema(List<String> names, BiConsumer<V, double[]> extractor) {
+        if (new HashSet<>(names).size() != names.size()) {
+            throw new IllegalArgumentException("Duplicate column in " + names);
+        }
+        this.names = Collections.unmodifiableList(new ArrayList<>(names));
+        this.extractor = extractor;
+    }
+
+    // Column per function, in insertion order of the map
+    public static <V> ColumnSchema<V> of(LinkedHashMap<String, ToDoubleFunction<V>> columns) {
+        List<ToDoubleFunction<V>> functions = new ArrayList<>(columns.values());
+        return new ColumnSchema<>(new ArrayList<>(columns.keySet()), (row, values) -> {
+            for (int index = 0; index < values.length; index++) {
+                values[index] = functions.get(index).applyAsDouble(row);
+            }
+        });
+    }
+
+    public List<String> names() {
+        return names;
+    }
+
+    public int size() {
+        return names.size();
+    }
+
+    public int indexOf(String column) {
+        int index = names.indexOf(column);
+        if (index < 0) {
+            throw new IllegalArgumentException("Unknown column " + column);
+        }
+        return index;
+    }
+
+    public void extract(V row, double[] values) {
+        extractor.accept(row, values);
+    }
+
+    /*
+        Requested columns of rows are extracted into batches of BATCH_ROWS and given to visitor.
+        Used for records that are not stored column wise, like memory pages. Returns false when visitor asked to stop.
+     */
+    public boolean scan(Iterator<Map.Entry<String, V>> rows, int[] columns, ColumnVisitor visitor) {
+        double[] row = new double[names.size()];
+        double[][] values = new double[columns.length][BATCH_ROWS];
+        int size = 0;
+        while (rows.hasNext()) {
+            extract(rows.next().getValue(), row);
+            for (int column = 0; column < columns.length; column++) {
+                values[column][size] = row[columns[column]];
+            }
+            if (++size == BATCH_ROWS) {
+                if (!visitor.visit(values, 0, size)) {
+                    return false;
+                }
+                size = 0;
+            }
+        }
+        return size == 0 || visitor.visit(values, 0, size);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ColumnSchema %s", names);
+    }
+}
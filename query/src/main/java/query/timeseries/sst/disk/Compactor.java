@@ -0,0 +1,126 @@
+package query.timeseries.sst.disk;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Size tiered compaction running on a dedicated thread.
+ * <p>
+ * Generations are grouped into tiers by number of pages, tier of a generation is floor(log4(pages)).
+ * When minRuns generations of a tier are next to each other in sequence order they are merged into one sorted run,
+ * which moves up to the next tier once enough of them are collected. A generation of another tier in between would
+ * end up older than the merged run, so such generations are left until the run around them is complete. Every record is rewritten log4(n) times and a scan touches at most
+ * (minRuns - 1) runs per tier.
+ */
+public class Compactor implements AutoCloseable {
+
+    public static final int TIER_FACTOR = 4;
+
+    private final BooleanSupplier compactOnce;
+    private final ExecutorService executor;
+    private final AtomicBoolean requested = new AtomicBoolean();
+    private final LongAdder compactions = new LongAdder();
+    private volatile RuntimeException failure;
+
+    /*
+        compactOnce merges one tier and returns false when nothing is left to compact.
+     */
+    public Compactor(String name, BooleanSupplier compactOnce) {
+        this.compactOnce = compactOnce;
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "compactor-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /*
+        Requests are coalesced, one run keeps merging until no tier is full.
+        Failure of a previous run is thrown here, so it is not lost while generations pile up.
+     */
+    public void generationAdded() {
+        checkFailure();
+        if (requested.compareAndSet(false, true)) {
+            executor.execute(this::run);
+        }
+    }
+
+    private void run() {
+        requested.set(false);
+        try {
+            while (compactOnce.getAsBoolean()) {
+                compactions.increment();
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            failure = e;
+        }
+    }
+
+    private void checkFailure() {
+        RuntimeException e = failure;
+        if (e != null) {
+            throw new IllegalStateException("Background compaction failed", e);
+        }
+    }
+
+    /*
+        Longest run of adjacent generations of one tier, lowest tier first, that has at least minRuns generations.
+        Generations are in sequence order. Empty list when no tier is full.
+     */
+    public static <V> List<Generation<V>> pick(List<Generation<V>> generations, int minRuns) {
+        Map<Integer, List<Generation<V>>> tiers = new TreeMap<>();
+        List<Generation<V>> run = new ArrayList<>();
+        int runTier = -1;
+        for (Generation<V> generation : generations) {
+            int tier = tier(generation.noOfPages());
+            if (tier != runTier) {
+                keepLonger(tiers, runTier, run, minRuns);
+                run = new ArrayList<>();
+                runTier = tier;
+            }
+            run.add(generation);
+        }
+        keepLonger(tiers, runTier, run, minRuns);
+        return tiers.isEmpty() ? Collections.emptyList() : tiers.values().iterator().next();
+    }
+
+    private static <V> void keepLonger(Map<Integer, List<Generation<V>>> tiers, int tier, List<Generation<V>> run, int minRuns) {
+        if (run.size() >= minRuns && run.size() > tiers.getOrDefault(tier, Collections.emptyList()).size()) {
+            tiers.put(tier, run);
+        }
+    }
+
+    static int tier(int pages) {
+        int tier = 0;
+        for (int size = Math.max(pages, 1); size >= TIER_FACTOR; size /= TIER_FACTOR) {
+            tier++;
+        }
+        return tier;
+    }
+
+    public long compactions() {
+        return compactions.sum();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        checkFailure();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Compactor (Compactions: %s)", compactions());
+    }
+}
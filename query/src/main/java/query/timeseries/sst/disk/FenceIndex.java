@@ -0,0 +1,213 @@
+package query.timeseries.sst.disk;
+
+import model.avro.page.SSTablePage;
+import model.avro.page.TagStats;
+import query.timeseries.sst.BloomFilter;
+
+import java.util.*;
+import java.util.function.IntPredicate;
+
+/**
+ * Resident copy of the index block of one generation.
+ * <p>
+ * Every data page is described by a fence pointer (minKey, maxKey, pageId, offset) and pointers are kept sorted by minKey.
+ * Generation is written once in key order, so its pages do not overlap. Running max of maxKey is still kept next to it,
+ * it is ordered even when pages given to add overlap, and is used to binary search the first page that can hold a key >= from.
+ * Bloom filter of the page is kept next to pointer, when it is present point lookup can skip the page without reading it.
+ * Tag stats of the page are kept too, aggregate over a page that is inside the range needs no page read.
+ * <p>
+ * Instance is immutable, generation builds it once from its index block.
+ */
+public class FenceIndex {
+
+    private static final FenceIndex EMPTY = new FenceIndex(new String[0], new String[0], new int[0], new long[0], new BloomFilter[0], statsArray(0));
+
+    private final String[] minKeys;
+    private final String[] maxKeys;
+    private final String[] runningMax;
+    private final int[] pageIds;
+    private final long[] offsets;
+    private final BloomFilter[] filters;
+    private final Map<String, TagStats>[] stats;
+
+    private FenceIndex(String[] minKeys, String[] maxKeys, int[] pageIds, long[] offsets, BloomFilter[] filters, Map<String, TagStats>[] stats) {
+        this.minKeys = minKeys;
+        this.maxKeys = maxKeys;
+        this.pageIds = pageIds;
+        this.offsets = offsets;
+        this.filters = filters;
+        this.stats = stats;
+        this.runningMax = runningMax(maxKeys);
+    }
+
+    public static FenceIndex empty() {
+        return EMPTY;
+    }
+
+    public static FenceIndex of(List<SSTablePage> pages) {
+        return EMPTY.add(pages);
+    }
+
+    /*
+        Merge new pages with existing pointers. New pages are sorted first and then merged, so cost is linear in the size of index.
+     */
+    public FenceIndex add(List<SSTablePage> pages) {
+        if (pages.isEmpty()) {
+            return this;
+        }
+        List<SSTablePage> newPages = new ArrayList<>(pages);
+        newPages.sort(Comparator.comparing(p -> p.getMinValue().toString()));
+
+        int total = size() + newPages.size();
+        String[] mins = new String[total];
+        String[] maxs = new String[total];
+        int[] ids = new int[total];
+        long[] offs = new long[total];
+        BloomFilter[] blooms = new BloomFilter[total];
+        Map<String, TagStats>[] tagStats = statsArray(total);
+
+        int existing = 0, added = 0;
+        for (int index = 0; index < total; index++) {
+            boolean takeExisting = added == newPages.size()
+                    || (existing < size() && minKeys[existing].compareTo(newPages.get(added).getMinValue().toString()) <= 0);
+            if (takeExisting) {
+                mins[index] = minKeys[existing];
+                maxs[index] = maxKeys[existing];
+                ids[index] = pageIds[existing];
+                offs[index] = offsets[existing];
+                blooms[index] = filters[existing];
+                tagStats[index] = stats[existing];
+                existing++;
+            } else {
+                SSTablePage page = newPages.get(added);
+                mins[index] = page.getMinValue().toString();
+                maxs[index] = page.getMaxValue().toString();
+                ids[index] = page.getPageId();
+                offs[index] = page.getOffSet();
+                blooms[index] = page.getBloomFilter().remaining() == 0 ? null : BloomFilter.fromBytes(page.getBloomFilter());
+                tagStats[index] = tagStats(page);
+                added++;
+            }
+        }
+        return new FenceIndex(mins, maxs, ids, offs, blooms, tagStats);
+    }
+
+    // Generic array can not be created directly, only cast here
+    @SuppressWarnings("unchecked")
+    private static Map<String, TagStats>[] statsArray(int size) {
+        return (Map<String, TagStats>[]) new Map<?, ?>[size];
+    }
+
+    // Null when page was written without stats
+    private static Map<String, TagStats> tagStats(SSTablePage page) {
+        if (page.getTagStats().isEmpty()) {
+            return null;
+        }
+        Map<String, TagStats> values = new HashMap<>();
+        page.getTagStats().forEach((tag, value) -> values.put(tag.toString(), value));
+        return values;
+    }
+
+    /*
+        Visit position of every page that overlaps [from , to] in minKey order. Null bound is open ended.
+        Visitor returns false to stop the scan.
+     */
+    public void scan(String from, String to, IntPredicate visitor) {
+        int start = from == null ? 0 : firstPossible(from);
+        int end = to == null ? size() : lastPossible(to);
+
+        for (int position = start; position < end; position++) {
+            if (from != null && maxKeys[position].compareTo(from) < 0) {
+                continue;
+            }
+            if (!visitor.test(position)) {
+                return;
+            }
+        }
+    }
+
+    /*
+        Page without bloom filter might contain any key of its range.
+     */
+    public boolean mightContain(int position, String key) {
+        BloomFilter filter = filters[position];
+        return filter == null || filter.mightContain(key);
+    }
+
+    /*
+        Stats of tag in the page, count of 0 when page has stats but not the tag. Null when page has no stats.
+     */
+    public TagStats stats(int position, String tag) {
+        Map<String, TagStats> values = stats[position];
+        if (values == null) {
+            return null;
+        }
+        TagStats value = values.get(tag);
+        return value == null ? new TagStats(0L, 0d, 0d, 0d) : value;
+    }
+
+    public int size() {
+        return minKeys.length;
+    }
+
+    public String minKey(int position) {
+        return minKeys[position];
+    }
+
+    public String maxKey(int position) {
+        return maxKeys[position];
+    }
+
+    public int pageId(int position) {
+        return pageIds[position];
+    }
+
+    public long offset(int position) {
+        return offsets[position];
+    }
+
+    // First position whose running max is >= from
+    private int firstPossible(String from) {
+        int low = 0, high = size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (runningMax[mid].compareTo(from) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // First position whose minKey is > to, scan stops there.
+    private int lastPossible(String to) {
+        int low = 0, high = size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (minKeys[mid].compareTo(to) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static String[] runningMax(String[] maxKeys) {
+        String[] values = new String[maxKeys.length];
+        String max = null;
+        for (int index = 0; index < maxKeys.length; index++) {
+            if (max == null || maxKeys[index].compareTo(max) > 0) {
+                max = maxKeys[index];
+            }
+            values[index] = max;
+        }
+        return values;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("FenceIndex (Pages: %s)", size());
+    }
+}
@@ -0,0 +1,790 @@
+package query.timeseries.sst.disk;
+
+import model.avro.page.GenerationInfo;
+import model.avro.page.SSTablePage;
+import model.avro.page.TagStats;
+import org.roaringbitmap.PeekableIntIterator;
+import org.roaringbitmap.RoaringBitmap;
+import query.page.allocator.PageAllocator;
+import query.page.read.ReadPage;
+import query.page.write.WritePage;
+import query.timeseries.sst.BloomFilter;
+import query.timeseries.sst.CloseableIterator;
+import query.timeseries.sst.ColumnVisitor;
+import query.timeseries.sst.ScanOrder;
+import query.timeseries.sst.TagAggregate;
+import query.timeseries.sst.TagFilter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable sorted run of records, stored as {storeName}.{id}.data and {storeName}.{id}.index
+ * <p>
+ * Generation is written once by flush or compaction from key ordered rows, so its data pages never overlap
+ * and fence index of the generation can binary search straight to the first page of a range.
+ * <p>
+ * When record serializer has columns, numeric columns of every data page are also written to {storeName}.{id}.columns,
+ * so a scan of few columns reads only their chunks.
+ * <p>
+ * When record serializer has tags, bitmaps of records of every tag value are written to {storeName}.{id}.tags,
+ * so a tag filter reads only pages and slots of matching records.
+ * <p>
+ * Newest record of a key is in the generation with highest sequence. Flush gives a generation its id as sequence,
+ * compaction output keeps the highest sequence of its inputs, so it does not overtake generations flushed after them.
+ * <p>
+ * Generation is reference counted. Store holds one reference and every scan holds one while it reads,
+ * files are closed and deleted when generation is retired by compaction and last reader is done.
+ */
+public class Generation<V> {
+
+    public static final int BUFFER_FULL = -1;
+
+    private static final String TEMPORARY = ".tmp";
+
+    private final int id;
+    private final int sequence;
+    private final File dataFile;
+    private final File indexFile;
+    private final File columnFile;
+    private final File tagFile;
+    private final PageAllocator dataBlock;
+    private final PageAllocator indexBlock;
+    private final ColumnBlock columnBlock; // Null when generation has no columns
+    private TagIndex tagIndex; // Null when generation has no tag index
+    private volatile boolean tagIndexLoaded;
+    private final RecordSerializer<V> recordSerializer;
+    private final LongAdder dataPagesRead;
+    private final AtomicInteger references = new AtomicInteger(1);
+    private volatile boolean retired;
+
+    private volatile FenceIndex fenceIndex; // Null until first query when generation is opened from manifest
+    private final GenerationInfo info; // Pages and key range from manifest, null when generation is opened from its index block
+
+    private WritePage dataPage;
+    private String dataPageMinKey;
+    private String dataPageMaxKey;
+    private final List<String> dataPageKeys = new ArrayList<>();
+    private final double[] columnValues;
+    private final Map<String, TagAggregate> dataPageStats = new HashMap<>();
+
+    private Generation(int id, int sequence, File dataFile, File indexFile, File columnFile, File tagFile, RecordSerializer<V> recordSerializer,
+                       Function<File, PageAllocator> allocator, LongAdder dataPagesRead, GenerationInfo info) {
+        this.id = id;
+        this.sequence = sequence;
+        this.recordSerializer = recordSerializer;
+        this.dataPagesRead = dataPagesRead;
+        this.dataFile = dataFile;
+        this.indexFile = indexFile;
+        this.columnFile = columnFile;
+        this.tagFile = tagFile;
+        this.dataBlock = allocator.apply(dataFile);
+        this.indexBlock = allocator.apply(indexFile);
+        this.columnBlock = columnBlock(columnFile, recordSerializer.columns);
+        this.columnValues = columnBlock == null ? null : new double[columnBlock.names().size()];
+        this.info = info;
+        if (info == null) {
+            this.tagIndex = tagIndex(tagFile, recordSerializer.tags);
+            this.tagIndexLoaded = true;
+            this.fenceIndex = loadFenceIndex();
+        }
+    }
+
+    // New generation gets columns of serializer, existing one keeps columns it was written with
+    private static ColumnBlock columnBlock(File columnFile, ColumnSchema<?> columns) {
+        if (columnFile.getName().endsWith(TEMPORARY)) {
+            return columns == null || columns.size() == 0 ? null : ColumnBlock.create(columnFile, columns.names());
+        }
+        return columnFile.exists() ? ColumnBlock.open(columnFile) : null;
+    }
+
+    private static TagIndex tagIndex(File tagFile, Function<?, ?> tags) {
+        if (tagFile.getName().endsWith(TEMPORARY)) {
+            return tags == null ? null : TagIndex.create();
+        }
+        return tagFile.exists() ? TagIndex.open(tagFile) : null;
+    }
+
+    public static <V> Generation<V> open(int id, StoreLocation location, RecordSerializer<V> recordSerializer,
+                                         Function<File, PageAllocator> allocator, LongAdder dataPagesRead) {
+        return open(id, location, recordSerializer, allocator, dataPagesRead, null);
+    }
+
+    /*
+        Generation listed in manifest, its index block and tag index are read when it is first queried.
+        Generation that is not listed, or listed before sequences were kept, orders by its id.
+     */
+    public static <V> Generation<V> open(int id, StoreLocation location, RecordSerializer<V> recordSerializer,
+                                         Function<File, PageAllocator> allocator, LongAdder dataPagesRead, GenerationInfo info) {
+        int sequence = info == null || info.getSequence() == null ? id : info.getSequence();
+        return new Generation<>(id, sequence, file(location, id, "data"), file(location, id, "index"), file(location, id, "columns"), file(location, id, "tags"),
+                recordSerializer, allocator, dataPagesRead, info);
+    }
+
+    /*
+        New generation is written to temporary files and renamed by write, so a half written generation is never opened.
+     */
+    public static <V> Generation<V> create(int id, StoreLocation location, RecordSerializer<V> recordSerializer,
+                                           Function<File, PageAllocator> allocator, LongAdder dataPagesRead) {
+        return create(id, id, location, recordSerializer, allocator, dataPagesRead);
+    }
+
+    public static <V> Generation<V> create(int id, int sequence, StoreLocation location, RecordSerializer<V> recordSerializer,
+                                           Function<File, PageAllocator> allocator, LongAdder dataPagesRead) {
+        return new Generation<>(id, sequence, temporary(file(location, id, "data")), temporary(file(location, id, "index")), temporary(file(location, id, "columns")),
+                temporary(file(location, id, "tags")), recordSerializer, allocator, dataPagesRead, null);
+    }
+
+    private static File file(StoreLocation location, int id, String type) {
+        return new File(location.getRoot(), location.getStoreName() + "." + id + "." + type);
+    }
+
+    private static File temporary(File file) {
+        return new File(file.getParentFile(), file.getName() + TEMPORARY);
+    }
+
+    /*
+        Id of generations found under store root in ascending order.
+        Temporary files left by interrupted flush or compaction are deleted.
+     */
+    public static List<Integer> existing(StoreLocation location) {
+        Pattern pattern = Pattern.compile(Pattern.quote(location.getStoreName()) + "\\.(\\d+)\\.(data|index|columns|tags)(\\.tmp)?");
+        File[] files = location.getRoot().listFiles();
+        List<Integer> ids = new ArrayList<>();
+        for (File file : files == null ? new File[0] : files) {
+            Matcher matcher = pattern.matcher(file.getName());
+            if (!matcher.matches()) {
+                continue;
+            }
+            if (matcher.group(3) != null) {
+                file.delete();
+            } else if (matcher.group(2).equals("data")) {
+                ids.add(Integer.parseInt(matcher.group(1)));
+            }
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    // Generation being written counts, so its id is kept in replaced list until it is published
+    public static boolean exists(StoreLocation location, int id) {
+        return file(location, id, "data").exists() || temporary(file(location, id, "data")).exists();
+    }
+
+    // Files of generation that was replaced before process stopped
+    public static void delete(StoreLocation location, int id) {
+        for (String type : new String[]{"data", "index", "columns", "tags"}) {
+            file(location, id, type).delete();
+        }
+    }
+
+    private FenceIndex loadFenceIndex() {
+        List<SSTablePage> pages = new ArrayList<>();
+        byte[] buffer = new byte[indexBlock.pageSize()];
+        for (int indexPageCounter = 1; indexPageCounter <= indexBlock.noOfPages(); indexPageCounter++) {
+            try (ReadPage indexPage = this.indexBlock.readByPageId(indexPageCounter)) {
+                for (int indexPageRecordCounter = 0; indexPageRecordCounter < indexPage.totalRecords(); indexPageRecordCounter++) {
+                    int bytesRead = indexPage.record(indexPageRecordCounter, buffer);
+                    pages.add(readIndexRecord(buffer, bytesRead));
+                }
+            }
+        }
+        return FenceIndex.of(pages);
+    }
+
+    /*
+        Rows must be in key order. Writes data block followed by index block.
+     */
+    public int write(Iterator<Map.Entry<String, V>> rows) {
+        int recordCount = 0;
+        List<SSTablePage> pageList = new ArrayList<>();
+
+        newDataPage();
+        while (rows.hasNext()) {
+            Map.Entry<String, V> row = rows.next();
+            byte[] recordBytes = recordSerializer.toBytes.apply(row.getValue());
+            recordCount++;
+            if (dataPage.write(recordBytes) == BUFFER_FULL) {
+                commitDataPage(pageList);
+                newDataPage();
+                dataPage.write(recordBytes);
+            }
+            trackKey(row.getKey());
+            trackTags(row.getValue(), pageList.size());
+            if (columnBlock != null) {
+                recordSerializer.columns.extract(row.getValue(), columnValues);
+                columnBlock.append(columnValues);
+            }
+        }
+        if (dataPage.noOfTuple() > 0) {
+            commitDataPage(pageList);
+        }
+        this.dataPage = null;
+
+        writeIndexBlock(pageList);
+        this.fenceIndex = FenceIndex.of(pageList);
+        // Barrier, generation is visible by name only after all its pages are on disk
+        dataBlock.sync();
+        indexBlock.sync();
+        if (columnBlock != null) {
+            columnBlock.finish();
+            rename(columnFile);
+        }
+        if (tagIndex != null) {
+            if (tagIndex.write(tagFile)) {
+                rename(tagFile);
+            } else {
+                tagIndex = null;
+            }
+        }
+        rename(dataFile);
+        rename(indexFile);
+        return recordCount;
+    }
+
+    private void rename(File file) {
+        if (!file.getName().endsWith(TEMPORARY)) {
+            return;
+        }
+        String name = file.getName();
+        try {
+            Files.move(file.toPath(), file.toPath().resolveSibling(name.substring(0, name.length() - TEMPORARY.length())), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeIndexBlock(List<SSTablePage> pageList) {
+        WritePage indexPage = indexBlock.newPage();
+        for (SSTablePage page : pageList) {
+            byte[] pageBytes = toPageRecord(page);
+            if (indexPage.write(pageBytes) == BUFFER_FULL) {
+                indexBlock.commit(indexPage);
+                indexPage = indexBlock.newPage();
+                indexPage.write(pageBytes);
+            }
+        }
+        indexBlock.commit(indexPage);
+    }
+
+    private void newDataPage() {
+        this.dataPage = dataBlock.newPage();
+        this.dataPageMinKey = null;
+        this.dataPageMaxKey = null;
+        this.dataPageKeys.clear();
+        this.dataPageStats.clear();
+    }
+
+    private void trackTags(V row, int position) {
+        if (recordSerializer.tags == null) {
+            return;
+        }
+        Map<CharSequence, Integer> tags = recordSerializer.tags.apply(row);
+        tags.forEach((tag, value) ->
+                dataPageStats.computeIfAbsent(tag.toString(), $ -> new TagAggregate()).add(value));
+        if (tagIndex != null) {
+            tagIndex.add(position, dataPage.noOfTuple() - 1, tags);
+        }
+    }
+
+    private Map<CharSequence, TagStats> dataPageTagStats() {
+        Map<CharSequence, TagStats> stats = new HashMap<>();
+        dataPageStats.forEach((tag, value) -> stats.put(tag, new TagStats(value.count(), value.sum(), value.min(), value.max())));
+        return stats;
+    }
+
+    private void trackKey(String key) {
+        if (dataPageMinKey == null) {
+            dataPageMinKey = key;
+        }
+        dataPageMaxKey = key;
+        if (recordSerializer.bloomBitsPerKey > 0) {
+            dataPageKeys.add(key);
+        }
+    }
+
+    private ByteBuffer dataPageFilter() {
+        if (dataPageKeys.isEmpty()) {
+            return ByteBuffer.allocate(0);
+        }
+        BloomFilter filter = BloomFilter.create(dataPageKeys.size(), recordSerializer.bloomBitsPerKey);
+        dataPageKeys.forEach(filter::add);
+        return filter.toBytes();
+    }
+
+    private void commitDataPage(List<SSTablePage> pageList) {
+        long pageOffset = dataBlock.commit(dataPage);
+        if (columnBlock != null) {
+            columnBlock.commitPage(dataPage.pageNumber());
+        }
+        SSTablePage indexPage = SSTablePage
+                .newBuilder()
+                .setPageId(dataPage.pageNumber())
+                .setMinValue(dataPageMinKey)
+                .setMaxValue(dataPageMaxKey)
+                .setOffSet(pageOffset)
+                .setBloomFilter(dataPageFilter())
+                .setTagStats(dataPageTagStats())
+                .build();
+        pageList.add(indexPage);
+    }
+
+    /*
+        Returns false when consumer asked to stop.
+     */
+    public boolean scan(String from, String to, SortedPageReader<V> reader, Function<V, Boolean> consumer) {
+        FenceIndex index = fenceIndex();
+        boolean[] completed = {true};
+        index.scan(from, to, position -> {
+            // Bound that covers whole page is dropped, page is then read without search or key check on that side.
+            String lower = from != null && from.compareTo(index.minKey(position)) > 0 ? from : null;
+            String upper = to != null && to.compareTo(index.maxKey(position)) < 0 ? to : null;
+            try (ReadPage page = readPage(index, position)) {
+                completed[0] = reader.scan(page, lower, upper, consumer);
+            }
+            return completed[0];
+        });
+        return completed[0];
+    }
+
+    /*
+        Same as scan, pages are read by readahead ahead of the decoder.
+     */
+    public boolean scan(String from, String to, SortedPageReader<V> reader, Readahead readahead, Function<V, Boolean> consumer) {
+        FenceIndex index = fenceIndex();
+        List<Integer> positions = new ArrayList<>();
+        index.scan(from, to, positions::add);
+        return readahead.scan(positions, position -> readPage(index, position), (position, page) -> {
+            String lower = from != null && from.compareTo(index.minKey(position)) > 0 ? from : null;
+            String upper = to != null && to.compareTo(index.maxKey(position)) < 0 ? to : null;
+            return reader.scan(page, lower, upper, consumer);
+        });
+    }
+
+    /*
+        One task per page that overlaps the range, in key order. Every task reads its page with its own reader,
+        so pages can be decoded in parallel. Generation must stay acquired until tasks are done.
+     */
+    public List<Callable<List<Map.Entry<String, V>>>> pageScans(String from, String to) {
+        FenceIndex index = fenceIndex();
+        List<Callable<List<Map.Entry<String, V>>>> tasks = new ArrayList<>();
+        index.scan(from, to, position -> {
+            String lower = from != null && from.compareTo(index.minKey(position)) > 0 ? from : null;
+            String upper = to != null && to.compareTo(index.maxKey(position)) < 0 ? to : null;
+            tasks.add(() -> {
+                List<Map.Entry<String, V>> rows = new ArrayList<>();
+                SortedPageReader<V> reader = new SortedPageReader<>(recordSerializer);
+                try (ReadPage page = readPage(index, position)) {
+                    reader.scan(page, lower, upper, row -> rows.add(new AbstractMap.SimpleImmutableEntry<>(recordSerializer.pk.apply(row), row)));
+                }
+                return rows;
+            });
+            return true;
+        });
+        return tasks;
+    }
+
+    /*
+        Requested columns of every record in range, page by page. Pages inside the range are read from column chunks only,
+        for a page cut by a bound its rows are found by binary search on keys of the data page.
+        Generation written without these columns is read row by row. Returns false when visitor asked to stop.
+     */
+    public boolean scanColumns(String from, String to, String[] columns, ColumnVisitor visitor) {
+        int[] chunkColumns = chunkColumns(columns);
+        if (chunkColumns == null) {
+            int[] rowColumns = Arrays.stream(columns).mapToInt(recordSerializer.columns::indexOf).toArray();
+            try (CloseableIterator<Map.Entry<String, V>> rows = iterator(from, to, ScanOrder.ASC)) {
+                return recordSerializer.columns.scan(rows, rowColumns, visitor);
+            }
+        }
+        FenceIndex index = fenceIndex();
+        SortedPageReader<V> reader = new SortedPageReader<>(recordSerializer);
+        double[][] values = new double[columns.length][0];
+        double[] min = new double[columns.length];
+        double[] max = new double[columns.length];
+        boolean[] completed = {true};
+        index.scan(from, to, position -> {
+            int pageId = index.pageId(position);
+            for (int column = 0; column < columns.length; column++) {
+                min[column] = columnBlock.min(pageId, chunkColumns[column]);
+                max[column] = columnBlock.max(pageId, chunkColumns[column]);
+            }
+            if (visitor.skip(min, max)) {
+                return true;
+            }
+            int rows = columnBlock.rows(pageId);
+            int start = 0, end = rows;
+            boolean lowerCut = from != null && from.compareTo(index.minKey(position)) > 0;
+            boolean upperCut = to != null && to.compareTo(index.maxKey(position)) < 0;
+            if (lowerCut || upperCut) {
+                try (ReadPage page = readPage(index, position)) {
+                    start = lowerCut ? reader.lowerBound(page, from) : 0;
+                    end = upperCut ? reader.upperBound(page, to) : rows;
+                }
+            }
+            if (start >= end) {
+                return true;
+            }
+            for (int column = 0; column < columns.length; column++) {
+                if (values[column].length < rows) {
+                    values[column] = new double[rows];
+                }
+                columnBlock.read(pageId, chunkColumns[column], values[column]);
+            }
+            completed[0] = visitor.visit(values, start, end);
+            return completed[0];
+        });
+        return completed[0];
+    }
+
+    /*
+        Adds tag of records in range to aggregate. Page inside the range is added from stats of its index entry,
+        only page cut by a bound, or written without stats, is read. Returns number of pages read.
+     */
+    public int aggregate(String from, String to, Function<V, Map<CharSequence, Integer>> tags, String tag, TagAggregate aggregate) {
+        FenceIndex index = fenceIndex();
+        SortedPageReader<V> reader = new SortedPageReader<>(recordSerializer);
+        int[] pagesRead = {0};
+        index.scan(from, to, position -> {
+            String lower = from != null && from.compareTo(index.minKey(position)) > 0 ? from : null;
+            String upper = to != null && to.compareTo(index.maxKey(position)) < 0 ? to : null;
+            TagStats stats = index.stats(position, tag);
+            if (lower == null && upper == null && stats != null) {
+                aggregate.merge(stats.getCount(), stats.getSum(), stats.getMin(), stats.getMax());
+                return true;
+            }
+            pagesRead[0]++;
+            try (ReadPage page = readPage(index, position)) {
+                reader.scan(page, lower, upper, row -> {
+                    aggregate.addTag(row, tags, tag);
+                    return true;
+                });
+            }
+            return true;
+        });
+        return pagesRead[0];
+    }
+
+    /*
+        Records in [from, to] that have every tag value of match, in key order. Matching slots are found from tag index,
+        so only pages with a match are read and only matching records are decoded. Generation written without tag index
+        is scanned with tags of every record. Returns false when consumer asked to stop.
+     */
+    public boolean filter(String from, String to, Map<String, Integer> match, Function<V, Map<CharSequence, Integer>> tags,
+                          SortedPageReader<V> reader, Function<V, Boolean> consumer) {
+        TagIndex tagIndex = tagIndex();
+        if (tagIndex == null || match.isEmpty()) {
+            return scan(from, to, reader, row -> !TagFilter.matches(tags.apply(row), match) || consumer.apply(row));
+        }
+        FenceIndex index = fenceIndex();
+        List<Integer> positions = new ArrayList<>();
+        index.scan(from, to, positions::add);
+        if (positions.isEmpty()) {
+            return true;
+        }
+        RoaringBitmap matched = tagIndex.match(match, positions.get(0), positions.get(positions.size() - 1));
+        PeekableIntIterator records = matched.getIntIterator();
+        ReadPage page = null;
+        int pagePosition = -1;
+        try {
+            while (records.hasNext()) {
+                int record = records.next();
+                int position = record >>> 16;
+                if (position != pagePosition) {
+                    if (page != null) {
+                        page.close();
+                    }
+                    page = readPage(index, position);
+                    pagePosition = position;
+                }
+                V row = reader.record(page, record & 0xFFFF);
+                String key = recordSerializer.pk.apply(row);
+                if (from != null && key.compareTo(from) < 0) {
+                    continue;
+                }
+                if (to != null && key.compareTo(to) > 0) {
+                    return true;
+                }
+                if (!consumer.apply(row)) {
+                    return false;
+                }
+            }
+        } finally {
+            if (page != null) {
+                page.close();
+            }
+        }
+        return true;
+    }
+
+    // Position of requested columns in column block, null when block is missing any of them
+    private int[] chunkColumns(String[] columns) {
+        if (columnBlock == null) {
+            return null;
+        }
+        int[] positions = new int[columns.length];
+        for (int column = 0; column < columns.length; column++) {
+            positions[column] = columnBlock.names().indexOf(columns[column]);
+            if (positions[column] < 0) {
+                return null;
+            }
+        }
+        return positions;
+    }
+
+    /*
+        Only page whose range covers the key and whose bloom filter might contain key is read.
+     */
+    public V get(String key, SortedPageReader<V> reader) {
+        FenceIndex index = fenceIndex();
+        List<V> found = new ArrayList<>(1);
+        index.scan(key, key, position -> {
+            if (!index.mightContain(position, key)) {
+                return true;
+            }
+            try (ReadPage page = readPage(index, position)) {
+                int slot = reader.lowerBound(page, key);
+                if (slot < page.totalRecords()) {
+                    V row = reader.record(page, slot);
+                    if (key.equals(recordSerializer.pk.apply(row))) {
+                        found.add(row);
+                        return false;
+                    }
+                }
+            }
+            return true;
+        });
+        return found.isEmpty() ? null : found.get(0);
+    }
+
+    /*
+        All records in key order, only one page is decoded at a time. Pages read are counted in pagesRead and not in
+        store counter, so compaction does not show up in scan statistics.
+     */
+    public CloseableIterator<Map.Entry<String, V>> iterator(LongAdder pagesRead) {
+        return iterator(null, null, ScanOrder.ASC, pagesRead);
+    }
+
+    /*
+        Records of [from, to] in scan order. Only one page is pinned at a time, it is unpinned when iterator moves past it,
+        is exhausted or is closed. Pages never overlap, so first record outside the range ends the iteration.
+     */
+    public CloseableIterator<Map.Entry<String, V>> iterator(String from, String to, ScanOrder order) {
+        return iterator(from, to, order, dataPagesRead);
+    }
+
+    private CloseableIterator<Map.Entry<String, V>> iterator(String from, String to, ScanOrder order, LongAdder pagesRead) {
+        FenceIndex index = fenceIndex();
+        List<Integer> positions = new ArrayList<>();
+        index.scan(from, to, positions::add);
+        if (order == ScanOrder.DESC) {
+            Collections.reverse(positions);
+        }
+        SortedPageReader<V> reader = new SortedPageReader<>(recordSerializer);
+        int step = order == ScanOrder.ASC ? 1 : -1;
+        return new CloseableIterator<Map.Entry<String, V>>() {
+            int next = 0;
+            ReadPage page;
+            int slot;
+            int end;
+            Map.Entry<String, V> current;
+            boolean done;
+
+            @Override
+            public boolean hasNext() {
+                while (current == null && !done) {
+                    if (page != null && slot != end) {
+                        V row = reader.record(page, slot);
+                        slot += step;
+                        String key = recordSerializer.pk.apply(row);
+                        if (order == ScanOrder.ASC ? to != null && key.compareTo(to) > 0 : from != null && key.compareTo(from) < 0) {
+                            close();
+                        } else {
+                            current = new AbstractMap.SimpleImmutableEntry<>(key, row);
+                        }
+                    } else if (next < positions.size()) {
+                        closePage();
+                        page = readPage(index, positions.get(next++), pagesRead);
+                        slot = order == ScanOrder.ASC ? reader.lowerBound(page, from) : reader.upperBound(page, to) - 1;
+                        end = order == ScanOrder.ASC ? page.totalRecords() : -1;
+                    } else {
+                        close();
+                    }
+                }
+                return current != null;
+            }
+
+            @Override
+            public Map.Entry<String, V> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Map.Entry<String, V> value = current;
+                current = null;
+                return value;
+            }
+
+            private void closePage() {
+                if (page != null) {
+                    page.close();
+                    page = null;
+                }
+            }
+
+            @Override
+            public void close() {
+                done = true;
+                closePage();
+            }
+        };
+    }
+
+    private ReadPage readPage(FenceIndex index, int position) {
+        return readPage(index, position, dataPagesRead);
+    }
+
+    private ReadPage readPage(FenceIndex index, int position, LongAdder pagesRead) {
+        pagesRead.increment();
+        return dataBlock.readByPageId(index.pageId(position));
+    }
+
+    public boolean acquire() {
+        for (; ; ) {
+            int current = references.get();
+            if (current == 0) {
+                return false;
+            }
+            if (references.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void release() {
+        if (references.decrementAndGet() == 0) {
+            dataBlock.close();
+            indexBlock.close();
+            if (columnBlock != null) {
+                columnBlock.close();
+            }
+            if (retired) {
+                delete(dataFile);
+                delete(indexFile);
+                delete(columnFile);
+                delete(tagFile);
+            }
+        }
+    }
+
+    /*
+        Generation is replaced by compaction. Reference held by store is dropped, files are deleted once running scans are done.
+     */
+    public void retire() {
+        retired = true;
+        release();
+    }
+
+    private void delete(File file) {
+        file.delete();
+        new File(file.getParentFile(), file.getName().replace(TEMPORARY, "")).delete();
+    }
+
+    public int id() {
+        return id;
+    }
+
+    public int sequence() {
+        return sequence;
+    }
+
+    public int noOfPages() {
+        FenceIndex index = fenceIndex;
+        return index == null ? info.getPages() : index.size();
+    }
+
+    public String minKey() {
+        FenceIndex index = fenceIndex;
+        if (index == null) {
+            return info.getMinKey() == null ? null : info.getMinKey().toString();
+        }
+        return index.size() == 0 ? null : index.minKey(0);
+    }
+
+    public String maxKey() {
+        FenceIndex index = fenceIndex;
+        if (index == null) {
+            return info.getMaxKey() == null ? null : info.getMaxKey().toString();
+        }
+        return index.size() == 0 ? null : index.maxKey(index.size() - 1);
+    }
+
+    // Null bound is open, empty generation overlaps nothing
+    public boolean overlaps(String from, String to) {
+        if (noOfPages() == 0) {
+            return false;
+        }
+        return (from == null || maxKey().compareTo(from) >= 0) && (to == null || minKey().compareTo(to) <= 0);
+    }
+
+    // Entry of generation in manifest
+    public GenerationInfo info() {
+        return new GenerationInfo(id, noOfPages(), minKey(), maxKey(), sequence);
+    }
+
+    private FenceIndex fenceIndex() {
+        FenceIndex index = fenceIndex;
+        if (index == null) {
+            synchronized (this) {
+                if (fenceIndex == null) {
+                    fenceIndex = loadFenceIndex();
+                }
+                index = fenceIndex;
+            }
+        }
+        return index;
+    }
+
+    private TagIndex tagIndex() {
+        if (!tagIndexLoaded) {
+            synchronized (this) {
+                if (!tagIndexLoaded) {
+                    tagIndex = tagIndex(tagFile, recordSerializer.tags);
+                    tagIndexLoaded = true;
+                }
+            }
+        }
+        return tagIndex;
+    }
+
+    private SSTablePage readIndexRecord(byte[] buffer, int bytesRead) {
+        try {
+            return SSTablePage.fromByteBuffer(ByteBuffer.wrap(buffer, 0, bytesRead));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private byte[] toPageRecord(SSTablePage pageInfo) {
+        try {
+            return pageInfo.toByteBuffer().array();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Generation (Id: %s;Sequence: %s;Pages: %s;Range: %s - %s)", id, sequence, noOfPages(), minKey(), maxKey());
+    }
+}
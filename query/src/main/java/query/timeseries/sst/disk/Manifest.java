@@ -0,0 +1,82 @@
+package query.timeseries.sst.disk;
+
+import model.avro.page.GenerationInfo;
+import model.avro.page.StoreManifest;
+import query.page.io.BlockRandomAccessFile;
+import query.page.io.SafeIO;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Generations of a store, stored as {storeName}.manifest
+ * <p>
+ * Every publish of generations rewrites the whole manifest to {storeName}.manifest.tmp, forces it and renames it over the old one,
+ * so manifest on disk is always a complete earlier or later version. Store is opened from manifest alone,
+ * index block of a generation is read only when it is first queried.
+ * <p>
+ * Generation file that is not listed was either renamed by a flush or compaction that did not reach the manifest,
+ * it is complete and is adopted, or replaced by one that did, then its id is in replaced list and it is deleted.
+ */
+public class Manifest {
+
+    public static final int VERSION = 1;
+
+    private final File file;
+    private final File temporary;
+
+    public Manifest(StoreLocation location) {
+        this.file = new File(location.getRoot(), location.getStoreName() + ".manifest");
+        this.temporary = new File(location.getRoot(), location.getStoreName() + ".manifest.tmp");
+    }
+
+    // Null when store was never published, or was written before manifests
+    public StoreManifest read() {
+        temporary.delete();
+        if (!file.exists()) {
+            return null;
+        }
+        byte[] bytes = new byte[(int) file.length()];
+        BlockRandomAccessFile raf = new BlockRandomAccessFile(SafeIO.open(file.toPath()));
+        try {
+            raf.read(0, bytes);
+        } finally {
+            raf.close();
+        }
+        try {
+            return StoreManifest.fromByteBuffer(ByteBuffer.wrap(bytes));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void write(int nextGeneration, String lastFlushedKey, List<GenerationInfo> generations, List<Integer> replaced, Map<String, String> metadata) {
+        try {
+            byte[] bytes = new StoreManifest(VERSION, nextGeneration, lastFlushedKey, new ArrayList<>(generations), new ArrayList<>(replaced), new HashMap<>(metadata))
+                    .toByteBuffer().array();
+            temporary.delete();
+            BlockRandomAccessFile raf = new BlockRandomAccessFile(SafeIO.open(temporary.toPath()));
+            try {
+                raf.write(0, bytes);
+                raf.commit();
+            } finally {
+                raf.close();
+            }
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public File file() {
+        return file;
+    }
+}
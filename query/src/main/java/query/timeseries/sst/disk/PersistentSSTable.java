@@ -1,143 +1,577 @@
 package query.timeseries.sst.disk;
 
-import model.avro.page.SSTablePage;
+import model.avro.page.GenerationInfo;
+import model.avro.page.StoreManifest;
 import org.jetbrains.annotations.NotNull;
 import query.page.allocator.DiskPageAllocator;
+import query.page.allocator.DurabilityPolicy;
+import query.page.allocator.MappedPageAllocator;
 import query.page.allocator.PageAllocator;
-import query.page.read.ReadPage;
-import query.page.write.WritePage;
+import query.page.allocator.PageCodec;
+import query.page.buffer.BufferPool;
+import query.timeseries.sst.CloseableIterator;
+import query.timeseries.sst.ColumnVisitor;
+import query.timeseries.sst.FanOutIterator;
 import query.timeseries.sst.PageRecord;
+import query.timeseries.sst.ScanOrder;
+import query.timeseries.sst.SortedMerge;
 import query.timeseries.sst.SortedStringTable;
+import query.timeseries.sst.TagAggregate;
+import query.timeseries.sst.TagFilter;
 
 import java.io.File;
-import java.io.IOException;
-import java.io.UncheckedIOException;
-import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
-import java.util.function.Predicate;
 
+/**
+ * Sorted string table backed by disk.
+ * <p>
+ * Every flush writes sealed buffer pages as a new immutable generation ({storeName}.{id}.data/.index),
+ * generations are never appended to. Compactor merges generations of similar size into one sorted run in background,
+ * so number of runs a scan has to visit grows with log of data size and not with number of flushes.
+ * <p>
+ * Queries read a pinned {@link ReadView}, flush publishes generation and drops its memory pages in one new view,
+ * so queries and flushes never wait for each other.
+ */
 public class PersistentSSTable<V> implements SortedStringTable<V> {
 
-    public static final int BUFFER_FULL = -1;
     private final SortedStringTable<V> underlyingStore;
-    private final PageAllocator dataBlock;
-    private final PageAllocator indexBlock;
+    private final StoreLocation location;
     private final RecordSerializer<V> recordSerializer;
-
-    private WritePage indexPage;
-    private WritePage dataPage;
+    private final BackgroundFlusher flusher;
+    private final WriteAheadLog wal;
+    private final Compactor compactor;
+    private final int compactionMinRuns;
+    private final PageCodec pageCodec;
+    private final boolean mappedPages;
+    private final BufferPool bufferPool;
+    private final DurabilityPolicy durabilityPolicy;
+    private final ForkJoinPool scanPool;
+    private final Readahead readahead;
+    private final TimePartitions timePartitions;
+    private final Duration retention;
+
+    private final Object generationLock = new Object();
+    private volatile List<Generation<V>> generations;
+    private final AtomicInteger nextGeneration;
+    private final Manifest manifest;
+    private final Set<Integer> replaced = new TreeSet<>(); // Retired generations whose files may still be on disk
+    private final Map<String, String> metadata = new ConcurrentHashMap<>();
+    private volatile String lastFlushedKey;
+    private volatile ReadView<V> view;
+    private final ConcurrentSkipListMap<Long, ReadView<V>> liveViews = new ConcurrentSkipListMap<>();
+    private final Map<Integer, Long> flushedPages = new ConcurrentHashMap<>(); // Memory page still in buffers to version that flushed it
+    private final LongAdder dataPagesRead = new LongAdder();
+    private final LongAdder compactionPagesRead = new LongAdder();
     private int recordsScanned = 0;
 
     public PersistentSSTable(SortedStringTable<V> underlyingStore, StoreLocation location, RecordSerializer<V> recordSerializer) {
+        this(underlyingStore, location, recordSerializer, StoreOptions.defaults());
+    }
+
+    public PersistentSSTable(SortedStringTable<V> underlyingStore, StoreLocation location, RecordSerializer<V> recordSerializer, StoreOptions options) {
         this.underlyingStore = underlyingStore;
+        this.location = location;
         this.recordSerializer = recordSerializer;
-        this.dataBlock = allocate(location, recordSerializer, location.getStoreName() + ".1.data");
-        this.indexBlock = allocate(location, recordSerializer, location.getStoreName() + ".1.index");
+        this.pageCodec = options.getPageCodec();
+        this.mappedPages = options.isMappedPages();
+        this.bufferPool = options.getBufferPool();
+        this.durabilityPolicy = options.getDurabilityPolicy();
+        this.scanPool = options.getScanPool();
+        this.timePartitions = options.getTimePartitions();
+        this.retention = options.getRetention();
+        if (retention != null && timePartitions == null) {
+            throw new IllegalArgumentException("Retention needs time partitions");
+        }
+        this.readahead = options.isReadahead() ? new Readahead(location.getStoreName(), options.getReadaheadPages()) : null;
+        this.manifest = new Manifest(location);
+        StoreManifest stored = manifest.read();
+        this.generations = openGenerations(stored);
+        int next = generations.stream().mapToInt(Generation::id).max().orElse(0) + 1;
+        this.nextGeneration = new AtomicInteger(stored == null ? next : Math.max(next, stored.getNextGeneration()));
+        this.lastFlushedKey = stored == null || stored.getLastFlushedKey() == null ? null : stored.getLastFlushedKey().toString();
+        if (stored != null) {
+            stored.getMetadata().forEach((name, value) -> metadata.put(name.toString(), value.toString()));
+        }
+        synchronized (generationLock) {
+            publishView();
+            writeManifest();
+        }
+        this.compactionMinRuns = options.getCompactionMinRuns();
+        this.compactor = createCompactor(options);
+        this.wal = createWriteAheadLog(location, options);
+        this.flusher = createFlusher(location, options);
+        replayWriteAheadLog();
+    }
+
+    /*
+        Generations listed in manifest are opened from their summary, index block is read when generation is first queried.
+        Generation that is not listed is adopted and its index block is read now, unless manifest says it was replaced.
+     */
+    private List<Generation<V>> openGenerations(StoreManifest stored) {
+        Map<Integer, GenerationInfo> listed = new HashMap<>();
+        Set<Integer> replacedIds = new HashSet<>();
+        if (stored != null) {
+            stored.getGenerations().forEach(info -> listed.put(info.getId(), info));
+            replacedIds.addAll(stored.getReplaced());
+        }
+        List<Generation<V>> opened = new ArrayList<>();
+        int adopted = 0;
+        for (int id : Generation.existing(location)) {
+            if (listed.containsKey(id)) {
+                opened.add(Generation.open(id, location, recordSerializer, allocator(), dataPagesRead, listed.get(id)));
+            } else if (replacedIds.contains(id)) {
+                Generation.delete(location, id);
+            } else {
+                opened.add(Generation.open(id, location, recordSerializer, allocator(), dataPagesRead));
+                adopted++;
+            }
+        }
+        if (stored != null && adopted > 0) {
+            System.out.println("Adopted " + adopted + " generations missing from " + manifest.file());
+        }
+        opened.sort(Comparator.comparingInt(Generation::sequence));
+        return Collections.unmodifiableList(opened);
+    }
+
+    /*
+        Called under generation lock, so manifests are written in the same order generations are published.
+     */
+    private void writeManifest() {
+        List<GenerationInfo> infos = new ArrayList<>();
+        for (Generation<V> generation : generations) {
+            infos.add(generation.info());
+        }
+        replaced.removeIf(id -> !Generation.exists(location, id));
+        manifest.write(nextGeneration.get(), lastFlushedKey, infos, new ArrayList<>(replaced), metadata);
+    }
+
+    // Compaction rebuilds keys from records, so it needs primary key function.
+    private Compactor createCompactor(StoreOptions options) {
+        if (!options.isCompaction() || recordSerializer.pk == null) {
+            return null;
+        }
+        return new Compactor(location.getStoreName(), this::compactOnce);
+    }
+
+    private WriteAheadLog createWriteAheadLog(StoreLocation location, StoreOptions options) {
+        if (!options.isWriteAheadLog()) {
+            return null;
+        }
+        WriteAheadLog log = new WriteAheadLog(location.getRoot(), location.getStoreName(), options.getWalSegmentSize(), options.getWalSyncIntervalMs());
+        underlyingStore.onSeal(page -> log.seal(page.getPageInfo().getPageId()));
+        return log;
+    }
+
+    /*
+        Records of previous process are logged again as they are appended. Record that made it to disk before crash,
+        but whose segment was not deleted yet, is skipped.
+     */
+    private void replayWriteAheadLog() {
+        if (wal == null) {
+            return;
+        }
+        int records = wal.replay((key, value) -> {
+            if (diskGet(key) == null) {
+                append(key, recordSerializer.fromBytes.apply(value));
+            }
+        });
+        System.out.println("WAL Replayed " + records + " " + wal);
+    }
+
+    private BackgroundFlusher createFlusher(StoreLocation location, StoreOptions options) {
+        if (!options.isBackgroundFlush()) {
+            return null;
+        }
+        BackgroundFlusher backgroundFlusher = new BackgroundFlusher(location.getStoreName(), this::flush,
+                () -> buffers().size(), options.getMaxUnflushedPages());
+        underlyingStore.onSeal(page -> backgroundFlusher.pageSealed());
+        return backgroundFlusher;
     }
 
     @NotNull
-    public DiskPageAllocator allocate(StoreLocation location, RecordSerializer<V> recordSerializer, String name) {
-        return new DiskPageAllocator((byte) 1, recordSerializer.getPageSize(), new File(location.getRoot(), name).toPath());
+    public PageAllocator allocate(StoreLocation location, RecordSerializer<V> recordSerializer, String name) {
+        return allocate(location, recordSerializer, name, PageCodec.NONE);
+    }
+
+    @NotNull
+    public PageAllocator allocate(StoreLocation location, RecordSerializer<V> recordSerializer, String name, PageCodec codec) {
+        Path path = new File(location.getRoot(), name).toPath();
+        if (mappedPages && codec == PageCodec.NONE && DiskPageAllocator.codecOf(path) == PageCodec.NONE) {
+            return new MappedPageAllocator((byte) 1, recordSerializer.getPageSize(), path, durabilityPolicy);
+        }
+        return new DiskPageAllocator((byte) 1, recordSerializer.getPageSize(), path, codec, bufferPool, durabilityPolicy);
+    }
+
+    // Only data blocks are compressed, index block is small and read once when generation is opened.
+    private Function<File, PageAllocator> allocator() {
+        return file -> allocate(location, recordSerializer, file.getName(), file.getName().contains(".data") ? pageCodec : PageCodec.NONE);
     }
 
     @Override
     public void append(String key, V value) {
-        underlyingStore.append(key, value);
+        if (flusher != null) {
+            flusher.awaitCapacity();
+        }
+        if (wal == null) {
+            underlyingStore.append(key, value);
+            return;
+        }
+        byte[] recordBytes = recordSerializer.toBytes.apply(value);
+        // Buffer is appended first, if it gets sealed log moves to new segment before this record is logged.
+        synchronized (wal) {
+            underlyingStore.append(key, value);
+            wal.append(key, recordBytes);
+        }
     }
 
+    /*
+        Memory pages are checked first, then generations from newest to oldest. In a generation only page whose range
+        covers the key and whose bloom filter might contain key is read, so lookup of missing key mostly reads no data page.
+     */
     @Override
-    public void iterate(String from, String to, Function<V, Boolean> consumer) {
-        iterateMemoryPages(from, to, consumer);
-        iterateDiskPages(from, to, consumer);
+    public V get(String key) {
+        V value = underlyingStore.get(key);
+        if (value != null) {
+            return value;
+        }
+        return diskGet(key);
     }
 
-    private void iterateMemoryPages(String from, String to, Function<V, Boolean> consumer) {
-        underlyingStore.iterate(from, to, consumer);
+    private V diskGet(String key) {
+        ReadView<V> view = pin();
+        try {
+            List<Generation<V>> snapshot = view.generations(key, key);
+            SortedPageReader<V> reader = new SortedPageReader<>(recordSerializer);
+            for (int index = snapshot.size() - 1; index >= 0; index--) {
+                V value = snapshot.get(index).get(key, reader);
+                if (value != null) {
+                    return value;
+                }
+            }
+            return null;
+        } finally {
+            unpin(view);
+        }
     }
 
-    private void iterateDiskPages(String from, String to, Function<V, Boolean> consumer) {
-
-        recordsScanned = 0;
-        int scannedPages = 0;
-        int skippedPages = 0;
-
-        Function<NavigableMap<String, V>, NavigableMap<String, V>> filter = predicate(from, to);
-        Predicate<SSTablePage> pageFilter = pagePredicate(from, to);
+    @Override
+    public void iterate(String from, String to, Function<V, Boolean> consumer) {
+        ReadView<V> view = pin();
+        try {
+            if (scanPool != null) {
+                parallelIterate(view, from, to, consumer);
+                return;
+            }
+            iterateMemoryPages(view, from, to, consumer);
+            iterateDiskPages(view, from, to, consumer);
+        } finally {
+            unpin(view);
+        }
+    }
 
-        int pageCount = this.indexBlock.noOfPages();
-        byte[] buffer = new byte[1024];
-        NavigableMap<String, V> pageData = new TreeMap<>();
+    /*
+        Memory pages and a cursor per generation are merged in key order, every cursor holds one page at a time.
+        Parallel scan decodes pages ahead of the merge, it is used for ascending order only.
+     */
+    @Override
+    public void iterate(String from, String to, ScanOrder order, Function<V, Boolean> consumer) {
+        ReadView<V> view = pin();
+        if (scanPool != null && order == ScanOrder.ASC) {
+            try {
+                parallelIterate(view, from, to, consumer);
+            } finally {
+                unpin(view);
+            }
+            return;
+        }
+        long pagesBefore = dataPagesRead.sum();
+        int scanned = 0;
+        List<Iterator<Map.Entry<String, V>>> sources = new ArrayList<>(memorySources(view, from, to, order));
+        List<CloseableIterator<Map.Entry<String, V>>> cursors = new ArrayList<>();
 
-        for (int indexPageCounter = 1; indexPageCounter <= pageCount; indexPageCounter++) {
-            ReadPage indexPage = this.indexBlock.readByPageId(indexPageCounter);
-            //System.out.println("Page:" + indexPage);
-            for (int indexPageRecordCounter = 0; indexPageRecordCounter < indexPage.totalRecords(); indexPageRecordCounter++) {
+        List<Generation<V>> snapshot = view.generations(from, to);
+        try {
+            for (int index = snapshot.size() - 1; index >= 0; index--) {
+                CloseableIterator<Map.Entry<String, V>> cursor = snapshot.get(index).iterator(from, to, order);
+                cursors.add(cursor);
+                sources.add(cursor);
+            }
+            scanned = merge(sources, order, consumer);
+        } finally {
+            cursors.forEach(CloseableIterator::close);
+            unpin(view);
+        }
+        System.out.println("Ordered Scan " + scanned + " Generations " + snapshot.size() + " Scanned pages " + (dataPagesRead.sum() - pagesBefore));
+    }
 
-                int bytesRead = indexPage.record(indexPageRecordCounter, buffer);
-                scannedPages++;
-                SSTablePage pageIndex = readIndexRecord(buffer, bytesRead);
+    /*
+        Memory pages are aggregated record by record, generations from page stats except for pages cut by a bound.
+     */
+    @Override
+    public TagAggregate aggregate(String from, String to, Function<V, Map<CharSequence, Integer>> tags, String tag) {
+        TagAggregate aggregate = new TagAggregate();
+        int pagesRead = 0;
+        ReadView<V> view = pin();
+        List<Generation<V>> snapshot = view.generations(from, to);
+        try {
+            for (Iterator<Map.Entry<String, V>> rows : memorySources(view, from, to, ScanOrder.ASC)) {
+                rows.forEachRemaining(row -> aggregate.addTag(row.getValue(), tags, tag));
+            }
+            for (Generation<V> generation : snapshot) {
+                pagesRead += generation.aggregate(from, to, recordSerializer.tags == null ? tags : recordSerializer.tags, tag, aggregate);
+            }
+        } finally {
+            unpin(view);
+        }
+        System.out.println("Aggregate " + tag + " " + aggregate + " Generations " + snapshot.size() + " Pages read " + pagesRead);
+        return aggregate;
+    }
 
-                if (pageFilter.test(pageIndex)) {
-                    loadPageData(buffer, pageData, this.dataBlock.readByPageId(pageIndex.getPageId()));
-                    if (!process(consumer, filter.apply(pageData))) {
+    /*
+        Records of [from, to] with every tag value of match, not in key order. Memory pages are filtered row by row,
+        generations read only matching records through their tag index.
+     */
+    @Override
+    public void filter(String from, String to, Function<V, Map<CharSequence, Integer>> tags, Map<String, Integer> match, Function<V, Boolean> consumer) {
+        long pagesBefore = dataPagesRead.sum();
+        SortedPageReader<V> reader = new SortedPageReader<>(recordSerializer);
+        ReadView<V> view = pin();
+        List<Generation<V>> snapshot = view.generations(from, to);
+        try {
+            for (Iterator<Map.Entry<String, V>> rows : memorySources(view, from, to, ScanOrder.ASC)) {
+                while (rows.hasNext()) {
+                    V row = rows.next().getValue();
+                    if (TagFilter.matches(tags.apply(row), match) && !consumer.apply(row)) {
                         return;
                     }
-                } else {
-                    skippedPages++;
                 }
             }
+            for (Generation<V> generation : snapshot) {
+                if (!generation.filter(from, to, match, recordSerializer.tags == null ? tags : recordSerializer.tags, reader, consumer)) {
+                    break;
+                }
+            }
+        } finally {
+            unpin(view);
         }
-        System.out.println("Disk Scan " + recordsScanned + " Scanned pages " + scannedPages + " Skip pages " + skippedPages);
+        System.out.println("Filter " + match + " Decoded " + reader.recordsDecoded() + " Generations " + snapshot.size() + " Pages read " + (dataPagesRead.sum() - pagesBefore));
     }
 
-    private boolean isInRange(SSTablePage pageIndex, String value) {
-        return value.compareTo(pageIndex.getMinValue().toString()) >= 0 && value.compareTo(pageIndex.getMaxValue().toString()) <= 0;
+    /*
+        Numeric columns of records in [from, to], batches are not in key order. Memory pages are extracted row by row,
+        generations are read from column chunks. Columns must be part of column schema of record serializer.
+     */
+    public void scanColumns(String from, String to, String[] columns, ColumnVisitor visitor) {
+        ColumnSchema<V> schema = recordSerializer.columns;
+        if (schema == null) {
+            throw new IllegalArgumentException("Not supported");
+        }
+        int[] rowColumns = Arrays.stream(columns).mapToInt(schema::indexOf).toArray();
+        long pagesBefore = dataPagesRead.sum();
+        ReadView<V> view = pin();
+        List<Generation<V>> snapshot = view.generations(from, to);
+        try {
+            for (Iterator<Map.Entry<String, V>> rows : memorySources(view, from, to, ScanOrder.ASC)) {
+                if (!schema.scan(rows, rowColumns, visitor)) {
+                    return;
+                }
+            }
+            for (Generation<V> generation : snapshot) {
+                if (!generation.scanColumns(from, to, columns, visitor)) {
+                    break;
+                }
+            }
+        } finally {
+            unpin(view);
+        }
+        System.out.println("Column Scan " + Arrays.toString(columns) + " Generations " + snapshot.size() + " Data pages read " + (dataPagesRead.sum() - pagesBefore));
     }
 
-    private void loadPageData(byte[] buffer, NavigableMap<String, V> pageData, ReadPage dataPage) {
-        pageData.clear();
-        for (int rows = 0; rows < dataPage.totalRecords(); rows++) {
-            int size = dataPage.record(rows, buffer);
-            V recordToSearch = recordSerializer.fromBytes.apply(ByteBuffer.wrap(buffer, 0, size));
-            pageData.put(recordSerializer.pk.apply(recordToSearch), recordToSearch);
+    // Returns number of records given to consumer
+    private int merge(List<Iterator<Map.Entry<String, V>>> sources, ScanOrder order, Function<V, Boolean> consumer) {
+        int scanned = 0;
+        SortedMerge<V> merge = new SortedMerge<>(sources, true, order);
+        while (merge.hasNext()) {
+            scanned++;
+            if (!consumer.apply(merge.next().getValue())) {
+                break;
+            }
         }
+        return scanned;
     }
 
-    private Function<NavigableMap<String, V>, NavigableMap<String, V>> predicate(String from, String to) {
-        if (from != null && to != null) {
-            return bt(from, to);
-        } else if (from != null) {
-            return gt(from);
-        } else if (to != null) {
-            return lt(to);
+    // Active page and sealed pages that are not part of generations of view, newest page first
+    private List<Iterator<Map.Entry<String, V>>> memorySources(ReadView<V> view, String from, String to, ScanOrder order) {
+        return underlyingStore.sortedSources(from, to, order, pageId -> !view.flushed(pageId));
+    }
+
+    private void iterateMemoryPages(ReadView<V> view, String from, String to, Function<V, Boolean> consumer) {
+        int scanned = 0;
+        for (Iterator<Map.Entry<String, V>> rows : memorySources(view, from, to, ScanOrder.ASC)) {
+            while (rows.hasNext()) {
+                scanned++;
+                if (!consumer.apply(rows.next().getValue())) {
+                    System.out.println("Memory Scanned " + scanned);
+                    return;
+                }
+            }
         }
-        throw new IllegalArgumentException("Not supported");
+        System.out.println("Memory Scanned " + scanned);
     }
 
+    private void iterateDiskPages(ReadView<V> view, String from, String to, Function<V, Boolean> consumer) {
 
-    private Predicate<SSTablePage> pagePredicate(String from, String to) {
-        if (from != null && to != null) {
-            return p -> isInRange(p, from) || isInRange(p, to);
-        } else if (from != null) {
-            return p -> p.getMinValue().toString().compareTo(from) >= 0;
-        } else if (to != null) {
-            return p -> p.getMaxValue().toString().compareTo(to) <= 0;
+        recordsScanned = 0;
+        long pagesBefore = dataPagesRead.sum();
+        SortedPageReader<V> reader = new SortedPageReader<>(recordSerializer);
+        Function<V, Boolean> counter = row -> {
+            recordsScanned++;
+            return consumer.apply(row);
+        };
+
+        List<Generation<V>> snapshot = view.generations(from, to);
+        for (Generation<V> generation : snapshot) {
+            boolean completed = readahead == null ? generation.scan(from, to, reader, counter) : generation.scan(from, to, reader, readahead, counter);
+            if (!completed) {
+                break;
+            }
         }
-        throw new IllegalArgumentException("Not supported");
+        long scannedPages = dataPagesRead.sum() - pagesBefore;
+        int totalPages = snapshot.stream().mapToInt(Generation::noOfPages).sum();
+        System.out.println("Disk Scan " + recordsScanned + " Decoded " + reader.recordsDecoded() + " Generations " + snapshot.size() + " Scanned pages " + scannedPages + " Skip pages " + (totalPages - scannedPages)
+                + (readahead == null ? "" : " " + readahead));
     }
 
-    private SSTablePage readIndexRecord(byte[] buffer, int bytesRead) {
+    /*
+        Pages of every generation are decoded on scan pool, a window of pages ahead of the merge per generation.
+        Memory pages and generations are merged in key order, when a key is in more than one of them newest record wins.
+     */
+    private void parallelIterate(ReadView<V> view, String from, String to, Function<V, Boolean> consumer) {
+        int window = scanPool.getParallelism() * 2;
+        long pagesBefore = dataPagesRead.sum();
+        int scanned = 0;
+        List<Iterator<Map.Entry<String, V>>> sources = new ArrayList<>(memorySources(view, from, to, ScanOrder.ASC));
+        List<FanOutIterator<Map.Entry<String, V>>> pageSources = new ArrayList<>();
+
+        List<Generation<V>> snapshot = view.generations(from, to);
         try {
-            return SSTablePage.fromByteBuffer(ByteBuffer.wrap(buffer, 0, bytesRead));
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
+            for (int index = snapshot.size() - 1; index >= 0; index--) {
+                FanOutIterator<Map.Entry<String, V>> pages = new FanOutIterator<>(snapshot.get(index).pageScans(from, to), scanPool, window);
+                pageSources.add(pages);
+                sources.add(pages);
+            }
+            scanned = merge(sources, ScanOrder.ASC, consumer);
+        } finally {
+            pageSources.forEach(FanOutIterator::close);
         }
+        System.out.println("Parallel Scan " + scanned + " Generations " + snapshot.size() + " Scanned pages " + (dataPagesRead.sum() - pagesBefore));
     }
 
+    /*
+        Current view with one more reference, retried when it is replaced and released meanwhile. Never blocks.
+        Generations of a pinned view are not deleted by compaction until it is unpinned.
+     */
+    private ReadView<V> pin() {
+        for (; ; ) {
+            ReadView<V> current = this.view;
+            if (current.acquire()) {
+                return current;
+            }
+        }
+    }
+
+    private void unpin(ReadView<V> view) {
+        if (view.release()) {
+            liveViews.remove(view.version());
+            removeFlushedPages();
+        }
+    }
+
+    /*
+        Memory page flushed in a version is dropped from buffers once every older view is released,
+        no query that reads it from memory instead of from its generation is running anymore.
+     */
+    private void removeFlushedPages() {
+        Map.Entry<Long, ReadView<V>> oldest = liveViews.firstEntry();
+        long oldestVersion = oldest == null ? Long.MAX_VALUE : oldest.getKey();
+        for (Map.Entry<Integer, Long> page : flushedPages.entrySet()) {
+            if (page.getValue() <= oldestVersion) {
+                underlyingStore.remove(page.getKey());
+                flushedPages.remove(page.getKey(), page.getValue());
+            }
+        }
+    }
+
+    // Called under generation lock, returns view that was replaced
+    private ReadView<V> publishView() {
+        ReadView<V> previous = this.view;
+        ReadView<V> next = new ReadView<>(previous == null ? 1 : previous.version() + 1, generations, new HashSet<>(flushedPages.keySet()));
+        liveViews.put(next.version(), next);
+        this.view = next;
+        return previous;
+    }
+
+    private void releaseGenerations(List<Generation<V>> snapshot) {
+        snapshot.forEach(Generation::release);
+    }
+
+    /*
+        Replaced generations are dropped, added ones and memory pages they were flushed from are published in a single view,
+        readers see either old or new runs. Returns false and publishes nothing when a replaced generation is gone already, retention dropped it while it was compacted.
+     */
+    private boolean publish(List<Generation<V>> replaced, Generation<V> added) {
+        return publish(replaced, Collections.singletonList(added));
+    }
+
+    private boolean publish(List<Generation<V>> replaced, List<Generation<V>> added) {
+        return publish(replaced, added, Collections.emptyList());
+    }
+
+    private boolean publish(List<Generation<V>> replaced, List<Generation<V>> added, List<PageRecord<V>> flushed) {
+        ReadView<V> previous;
+        synchronized (generationLock) {
+            if (!this.generations.containsAll(replaced)) {
+                return false;
+            }
+            List<Generation<V>> current = new ArrayList<>(this.generations);
+            current.removeAll(replaced);
+            current.addAll(added);
+            current.sort(Comparator.comparingInt(Generation::sequence));
+            this.generations = Collections.unmodifiableList(current);
+            long version = view.version() + 1;
+            flushed.forEach(page -> flushedPages.put(page.getPageInfo().getPageId(), version));
+            previous = publishView();
+            replaced.forEach(generation -> this.replaced.add(generation.id()));
+            added.forEach(generation -> this.replaced.remove(generation.id()));
+            writeManifest();
+        }
+        unpin(previous);
+        replaced.forEach(Generation::retire);
+        return true;
+    }
+
+    // Sealed pages not flushed yet, flushed pages still read by older views are left out
     @Override
     public Collection<PageRecord<V>> buffers() {
-        return underlyingStore.buffers();
+        if (flushedPages.isEmpty()) {
+            return underlyingStore.buffers();
+        }
+        List<PageRecord<V>> pages = new ArrayList<>();
+        for (PageRecord<V> page : underlyingStore.buffers()) {
+            if (!flushedPages.containsKey(page.getPageInfo().getPageId())) {
+                pages.add(page);
+            }
+        }
+        return pages;
     }
 
     @Override
@@ -145,129 +579,235 @@ public class PersistentSSTable<V> implements SortedStringTable<V> {
         throw new IllegalArgumentException("Not supported");
     }
 
+    /*
+        Sealed buffers are merged, so every data page is written in key order and can be binary searched.
+        Buffers leave memory when queries that pinned an older view are done.
+     */
     @Override
     public synchronized void flush() {
         List<PageRecord<V>> pages = new ArrayList<>(buffers());
         if (pages.isEmpty()) return;
 
-        List<SSTablePage> pageList = writeDataBlock(pages);
-        writeIndexBlock(pageList);
-        pages.forEach(page -> underlyingStore.remove(page.getPageInfo().getPageId()));
+        List<Generation<V>> written = new ArrayList<>();
+        int recordCount = 0;
+        if (timePartitions == null) {
+            written.add(Generation.create(nextGeneration.getAndIncrement(), location, recordSerializer, allocator(), dataPagesRead));
+            recordCount = written.get(0).write(SortedMerge.of(pages));
+        } else {
+            for (Iterator<Iterator<Map.Entry<String, V>>> partitions = timePartitions.split(SortedMerge.of(pages)); partitions.hasNext(); ) {
+                Generation<V> generation = Generation.create(nextGeneration.getAndIncrement(), location, recordSerializer, allocator(), dataPagesRead);
+                recordCount += generation.write(partitions.next());
+                written.add(generation);
+            }
+        }
+        lastFlushedKey = written.stream().map(Generation::maxKey).filter(Objects::nonNull).max(String::compareTo).orElse(lastFlushedKey);
+        publish(Collections.emptyList(), written, pages);
+        if (wal != null) {
+            pages.forEach(page -> wal.release(page.getPageInfo().getPageId()));
+        }
 
+        System.out.println("Records Written " + recordCount + " " + written);
+        applyRetention();
+        if (compactor != null) {
+            compactor.generationAdded();
+        }
     }
 
-    private void writeIndexBlock(List<SSTablePage> pageList) {
-        int indexPageCount = 0;
-        int indexRecordCount = 0;
-
-        newIndexPageIfRequired();
+    /*
+        Partitions that end more than retention before newest event on disk are dropped.
+     */
+    private void applyRetention() {
+        if (retention == null || generations.isEmpty()) {
+            return;
+        }
+        String newestKey = generations.stream().map(Generation::maxKey).filter(Objects::nonNull).max(String::compareTo).orElse(null);
+        if (newestKey != null) {
+            dropPartitionsBefore(timePartitions.time(newestKey).minus(retention));
+        }
+    }
 
-        for (SSTablePage page : pageList) {
-            byte[] pageBytes = toPageRecord(page);
-            indexRecordCount++;
-            if (this.indexPage.write(pageBytes) == BUFFER_FULL) {
-                indexBlock.commit(indexPage);
-                indexPageCount++;
-                this.indexPage = this.indexBlock.newPage();
-                this.indexPage.write(pageBytes);
+    /*
+        Generations of partitions that end at or before cutoff are retired, their files are deleted once running scans are done.
+        Nothing is rewritten, so cost depends on number of generations and not on their size. Returns number of generations dropped.
+     */
+    public int dropPartitionsBefore(LocalDateTime cutoff) {
+        if (timePartitions == null) {
+            throw new IllegalArgumentException("Not supported");
+        }
+        List<Generation<V>> expired = new ArrayList<>();
+        synchronized (generationLock) {
+            // Generation written before partitioning can span partitions, it expires only when its newest row does
+            for (Generation<V> generation : generations) {
+                String maxKey = generation.maxKey();
+                if (maxKey != null && !timePartitions.end(timePartitions.partition(maxKey)).isAfter(cutoff)) {
+                    expired.add(generation);
+                }
+            }
+            if (!expired.isEmpty()) {
+                publish(expired, Collections.emptyList());
             }
         }
-        indexBlock.commit(indexPage);
-        indexPageCount++;
-
-        System.out.println("Index Pages " + indexPageCount + " Index Record " + indexRecordCount + " Capacity " + indexPage.capacity());
+        if (!expired.isEmpty()) {
+            System.out.println("Retention dropped " + expired.size() + " generations before " + cutoff + " " + expired);
+        }
+        return expired.size();
     }
 
-    private void newIndexPageIfRequired() {
-        if (this.indexPage == null) {
-            this.indexPage = this.indexBlock.newPage();
+    /*
+        Merge adjacent generations of first full tier into one generation. Same key in more than one generation keeps newest record.
+        Output takes sequence of newest input, so generations flushed while it is written stay newer.
+        Output is listed as replaced until it is published, so it is deleted and not adopted when process stops before that.
+        Returns false when no tier is full.
+     */
+    private boolean compactOnce() {
+        List<Generation<V>> inputs = pickCompaction();
+        if (inputs.isEmpty()) {
+            return false;
+        }
+        // Inputs are held while they are read, retention may drop them meanwhile
+        List<Generation<V>> held = new ArrayList<>();
+        try {
+            for (Generation<V> input : inputs) {
+                if (!input.acquire()) {
+                    return true;
+                }
+                held.add(input);
+            }
+            List<Iterator<Map.Entry<String, V>>> sources = new ArrayList<>();
+            for (int index = inputs.size() - 1; index >= 0; index--) {
+                sources.add(inputs.get(index).iterator(compactionPagesRead));
+            }
+            Generation<V> output = Generation.create(nextGeneration.getAndIncrement(), inputs.get(inputs.size() - 1).sequence(), location, recordSerializer, allocator(), dataPagesRead);
+            synchronized (generationLock) {
+                replaced.add(output.id());
+                writeManifest();
+            }
+            int recordCount = output.write(new SortedMerge<>(sources, true));
+            if (!publish(inputs, output)) {
+                output.retire();
+                System.out.println("Compaction dropped, inputs expired " + inputs);
+                return true;
+            }
+            System.out.println("Compacted " + inputs.size() + " generations, Records " + recordCount + " " + output);
+            return true;
+        } finally {
+            releaseGenerations(held);
         }
     }
 
-    private List<SSTablePage> writeDataBlock(List<PageRecord<V>> buffers) {
-        int recordCount = 0;
-        List<SSTablePage> pageList = new ArrayList<>();
-
-        newDataPageIfRequired();
-
-        SSTablePage pageInfo = null;
+    // True while a tier still holds compaction min runs generations
+    public boolean compactionPending() {
+        return compactor != null && !pickCompaction().isEmpty();
+    }
 
-        for (PageRecord<V> buffer : buffers) {
-            pageInfo = buffer.getPageInfo();
-            NavigableMap<String, V> pageData = buffer.getPageData();
-            for (V row : pageData.values()) {
-                byte[] recordBytes = recordSerializer.toBytes.apply(row);
-                recordCount++;
-                if (dataPage.write(recordBytes) == BUFFER_FULL) {
-                    commitPageAndAllocateNew(pageList, pageInfo);
-                    dataPage.write(recordBytes);
-                }
+    // Generations of different partitions are never merged, so a partition can still be dropped as a whole
+    private List<Generation<V>> pickCompaction() {
+        if (timePartitions == null) {
+            return Compactor.pick(this.generations, compactionMinRuns);
+        }
+        Map<LocalDateTime, List<Generation<V>>> partitions = new TreeMap<>();
+        for (Generation<V> generation : this.generations) {
+            if (generation.minKey() != null) {
+                partitions.computeIfAbsent(timePartitions.partition(generation.minKey()), p -> new ArrayList<>()).add(generation);
+            }
+        }
+        for (List<Generation<V>> partition : partitions.values()) {
+            List<Generation<V>> inputs = Compactor.pick(partition, compactionMinRuns);
+            if (!inputs.isEmpty()) {
+                return inputs;
             }
         }
-        long pageOffset = dataBlock.commit(dataPage);
-        recordIndexPage(pageList, dataPage, pageInfo, pageOffset);
+        return Collections.emptyList();
+    }
 
-        System.out.println("Records Written " + recordCount);
+    @Override
+    public void close() {
+        try {
+            closeBackgroundWork();
+        } finally {
+            closeFiles();
+        }
+    }
 
-        return pageList;
+    // Failure of last flush or compaction is thrown after both threads are stopped
+    private void closeBackgroundWork() {
+        try {
+            if (flusher != null) {
+                flusher.close();
+            }
+        } finally {
+            if (compactor != null) {
+                compactor.close();
+            }
+        }
+    }
 
+    private void closeFiles() {
+        if (readahead != null) {
+            readahead.close();
+        }
+        if (wal != null) {
+            wal.close();
+        }
+        synchronized (generationLock) {
+            writeManifest();
+        }
+        unpin(this.view);
+        releaseGenerations(this.generations);
+        underlyingStore.close();
+    }
 
+    // Largest key written by last flush, kept across restarts in manifest
+    public String lastFlushedKey() {
+        return lastFlushedKey;
     }
 
-    private void newDataPageIfRequired() {
-        if (this.dataPage == null) {
-            this.dataPage = this.dataBlock.newPage();
-        }
+    @Override
+    public String metadata(String name) {
+        return metadata.get(name);
     }
 
-    private void commitPageAndAllocateNew(List<SSTablePage> pageList, SSTablePage pageInfo) {
-        long pageOffset = dataBlock.commit(dataPage);
-        recordIndexPage(pageList, dataPage, pageInfo, pageOffset);
-        this.dataPage = dataBlock.newPage();
+    // Written with next manifest, together with generations of records appended before it
+    @Override
+    public void metadata(String name, String value) {
+        metadata.put(name, value);
     }
 
-    private void recordIndexPage(List<SSTablePage> pageList, WritePage dataPage, SSTablePage pageInfo, long pageOffset) {
-        SSTablePage indexPage = SSTablePage
-                .newBuilder(pageInfo)
-                .setPageId(dataPage.pageNumber())
-                .setOffSet(pageOffset)
-                .build();
-        pageList.add(indexPage);
+    public File manifestFile() {
+        return manifest.file();
     }
 
-    private byte[] toPageRecord(SSTablePage pageInfo) {
-        try {
-            return pageInfo.toByteBuffer().array();
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
-        }
+    // Version of view new queries read, every publish of generations adds one
+    public long version() {
+        return view.version();
     }
 
-    @Override
-    public String toString() {
-        return String.format("%s [\n Index=%s \n Data=%s \n]", this.getClass().getSimpleName(), indexBlock.dataLocation(), dataBlock.dataLocation());
+    // Views pinned by running queries, and current view
+    public int liveViews() {
+        return liveViews.size();
     }
 
+    // Pages read by queries, compaction reads are counted apart
+    public long dataPagesRead() {
+        return dataPagesRead.sum();
+    }
 
-    private Function<NavigableMap<String, V>, NavigableMap<String, V>> bt(String from, String to) {
-        return i -> i.subMap(from, true, to, true);
+    public long compactionPagesRead() {
+        return compactionPagesRead.sum();
     }
 
-    private Function<NavigableMap<String, V>, NavigableMap<String, V>> lt(String to) {
-        return i -> i.headMap(to, true);
+    // Null when sequential scan reads pages itself
+    public Readahead readahead() {
+        return readahead;
     }
 
-    private Function<NavigableMap<String, V>, NavigableMap<String, V>> gt(String from) {
-        return i -> i.tailMap(from, true);
+    public int noOfGenerations() {
+        return generations.size();
     }
 
-    private boolean process(Function<V, Boolean> fn, NavigableMap<String, V> matched) {
-        for (Map.Entry<String, V> e : matched.entrySet()) {
-            recordsScanned++;
-            if (!fn.apply(e.getValue())) {
-                return false;
-            }
-        }
-        return true;
+    @Override
+    public String toString() {
+        return String.format("%s [\n Location=%s \n Generations=%s \n View=%s \n Flusher=%s \n Compactor=%s \n Readahead=%s \n Log=%s \n]", this.getClass().getSimpleName(),
+                new File(location.getRoot(), location.getStoreName()), generations, view, flusher, compactor, readahead, wal);
     }
 }
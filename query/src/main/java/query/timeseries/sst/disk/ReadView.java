@@ -0,0 +1,82 @@
+package query.timeseries.sst.disk;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Version of a store a query reads, generations on disk plus ids of memory pages that are already part of them.
+ * <p>
+ * Store holds one reference to its current view, every query takes one more. Flush and compaction publish a new view
+ * and drop reference of the old one, view whose last reference is dropped can not be pinned again and releases its generations.
+ * Query that pinned a view reads memory pages not covered by it, flushed pages stay in memory until every older view is released,
+ * so a query sees every record once whatever flush publishes while it runs.
+ */
+public class ReadView<V> {
+
+    private final long version;
+    private final List<Generation<V>> generations;
+    private final Set<Integer> flushedPages;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    // Generations must be held by store, view takes its own reference of each
+    public ReadView(long version, List<Generation<V>> generations, Set<Integer> flushedPages) {
+        this.version = version;
+        this.generations = generations;
+        this.flushedPages = flushedPages;
+        generations.forEach(Generation::acquire);
+    }
+
+    // False when view was released already, caller pins current view again
+    public boolean acquire() {
+        for (; ; ) {
+            int current = references.get();
+            if (current == 0) {
+                return false;
+            }
+            if (references.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    // Returns true when this was last reference
+    public boolean release() {
+        if (references.decrementAndGet() == 0) {
+            generations.forEach(Generation::release);
+            return true;
+        }
+        return false;
+    }
+
+    public long version() {
+        return version;
+    }
+
+    public List<Generation<V>> generations() {
+        return generations;
+    }
+
+    // Generations whose keys overlap [from, to], null bound is open
+    public List<Generation<V>> generations(String from, String to) {
+        List<Generation<V>> matched = new ArrayList<>();
+        for (Generation<V> generation : generations) {
+            if (generation.overlaps(from, to)) {
+                matched.add(generation);
+            }
+        }
+        return Collections.unmodifiableList(matched);
+    }
+
+    // Memory page whose records are in generations of this view
+    public boolean flushed(int pageId) {
+        return flushedPages.contains(pageId);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ReadView (Version: %s;Generations: %s;Flushed pages: %s;References: %s)", version, generations.size(), flushedPages.size(), references.get());
+    }
+}
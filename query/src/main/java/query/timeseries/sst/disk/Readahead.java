@@ -0,0 +1,132 @@
+package query.timeseries.sst.disk;
+
+import query.page.read.ReadPage;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+
+/**
+ * Reads pages of a scan ahead of the decoder on a dedicated I/O thread.
+ * <p>
+ * Scan knows every page it will visit once fence index is searched, so up to depth pages are requested in scan order
+ * and the decoder takes them one by one. Pages read ahead stay pinned in buffer pool until they are taken and closed,
+ * so the ring of pinned frames is bounded by depth per running scan. Page that was not read yet when decoder takes it is a stall.
+ * Tasks are cancelled without interrupt, interrupt closes the file channel that is shared with other readers.
+ */
+public class Readahead implements AutoCloseable {
+
+    private final int depth;
+    private final ExecutorService executor;
+    private final LongAdder pages = new LongAdder();
+    private final LongAdder stalls = new LongAdder();
+
+    public Readahead(String name, int depth) {
+        if (depth <= 0) {
+            throw new IllegalArgumentException("Readahead depth is not positive - " + depth);
+        }
+        this.depth = depth;
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "readahead-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /*
+        Pages at positions are read by reader on I/O thread and handed to consumer in order, consumer closes nothing.
+        Returns false when consumer asked to stop, pages read ahead but not consumed are closed.
+     */
+    public boolean scan(List<Integer> positions, IntFunction<ReadPage> reader, PageConsumer consumer) {
+        Deque<Future<ReadPage>> ahead = new ArrayDeque<>(depth);
+        int next = 0;
+        try {
+            for (int position : positions) {
+                while (next < positions.size() && ahead.size() < depth) {
+                    int nextPosition = positions.get(next++);
+                    ahead.add(executor.submit(() -> reader.apply(nextPosition)));
+                }
+                try (ReadPage page = take(ahead.poll())) {
+                    if (!consumer.accept(position, page)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        } finally {
+            discard(ahead);
+        }
+    }
+
+    private ReadPage take(Future<ReadPage> future) {
+        pages.increment();
+        if (!future.isDone()) {
+            stalls.increment();
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Readahead interrupted", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new IllegalStateException(e.getCause());
+        }
+    }
+
+    // Page already read, or being read, is waited for and closed so its frame is unpinned
+    private void discard(Deque<Future<ReadPage>> ahead) {
+        for (Future<ReadPage> future : ahead) {
+            if (future.cancel(false)) {
+                continue;
+            }
+            try {
+                future.get().close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | CancellationException e) {
+                // Page was never pinned
+            }
+        }
+        ahead.clear();
+    }
+
+    public int depth() {
+        return depth;
+    }
+
+    public long pages() {
+        return pages.sum();
+    }
+
+    public long stalls() {
+        return stalls.sum();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Readahead (Depth: %s;Pages: %s;Stalls: %s)", depth, pages(), stalls());
+    }
+
+    public interface PageConsumer {
+        // Returns false to stop the scan
+        boolean accept(int position, ReadPage page);
+    }
+}
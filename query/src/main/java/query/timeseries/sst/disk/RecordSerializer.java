@@ -1,19 +1,51 @@
 package query.timeseries.sst.disk;
 
 import java.nio.ByteBuffer;
+import java.util.Map;
 import java.util.function.Function;
 
 public class RecordSerializer<V> {
+    public static final int DEFAULT_BLOOM_BITS_PER_KEY = 10;
+
     public final Function<V, byte[]> toBytes;
-    public final Function<ByteBuffer, V> fromBytes;
+    public final Function<ByteBuffer, V> fromBytes; // Gets view over page buffer, decoded record must not keep it
     public final Function<V, String> pk;
     public final int pageSize;
+    public final int bloomBitsPerKey; // 0 disables bloom filter of data pages
+    public final ColumnSchema<V> columns; // Null when records are stored only row wise
+    public final Function<V, Map<CharSequence, Integer>> tags; // Null when pages keep no tag stats
 
     public RecordSerializer(int pageSize, Function<V, byte[]> toBytes, Function<ByteBuffer, V> fromBytes, Function<V, String> toPk) {
+        this(pageSize, toBytes, fromBytes, toPk, DEFAULT_BLOOM_BITS_PER_KEY);
+    }
+
+    public RecordSerializer(int pageSize, Function<V, byte[]> toBytes, Function<ByteBuffer, V> fromBytes, Function<V, String> toPk, int bloomBitsPerKey) {
+        this(pageSize, toBytes, fromBytes, toPk, bloomBitsPerKey, null, null);
+    }
+
+    public RecordSerializer(int pageSize, Function<V, byte[]> toBytes, Function<ByteBuffer, V> fromBytes, Function<V, String> toPk, int bloomBitsPerKey,
+                            ColumnSchema<V> columns, Function<V, Map<CharSequence, Integer>> tags) {
         this.pageSize = pageSize;
         this.toBytes = toBytes;
         this.fromBytes = fromBytes;
         this.pk = toPk;
+        this.bloomBitsPerKey = bloomBitsPerKey;
+        this.columns = columns;
+        this.tags = tags;
+    }
+
+    /*
+        Generations written with columns keep a column chunk per data page next to it, see ColumnBlock.
+     */
+    public RecordSerializer<V> withColumns(ColumnSchema<V> columns) {
+        return new RecordSerializer<>(pageSize, toBytes, fromBytes, pk, bloomBitsPerKey, columns, tags);
+    }
+
+    /*
+        Count, sum, min and max of every tag of a data page are kept in its index entry, see Generation.aggregate.
+     */
+    public RecordSerializer<V> withTags(Function<V, Map<CharSequence, Integer>> tags) {
+        return new RecordSerializer<>(pageSize, toBytes, fromBytes, pk, bloomBitsPerKey, columns, tags);
     }
 
     public Function<V, byte[]> getToBytes() {
@@ -31,4 +63,16 @@ public class RecordSerializer<V> {
     public int getPageSize() {
         return pageSize;
     }
+
+    public int getBloomBitsPerKey() {
+        return bloomBitsPerKey;
+    }
+
+    public ColumnSchema<V> getColumns() {
+        return columns;
+    }
+
+    public Function<V, Map<CharSequence, Integer>> getTags() {
+        return tags;
+    }
 }
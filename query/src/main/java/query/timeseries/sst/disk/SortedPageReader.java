@@ -0,0 +1,98 @@
+package query.timeseries.sst.disk;
+
+import query.page.read.ReadPage;
+
+import java.nio.ByteBuffer;
+import java.util.function.Function;
+
+/**
+ * Reads records of a data page that is written in key order.
+ * Slot array is binary searched for the first key >= from and records are decoded one at a time until key > to,
+ * so only records of the range and log(n) probes are decoded.
+ * <p>
+ * Records are decoded straight from a view over the page buffer, nothing is copied per record.
+ * Instance owns the view, so it is not thread safe.
+ */
+public class SortedPageReader<V> {
+
+    private final RecordSerializer<V> recordSerializer;
+    private ReadPage viewPage; // Page the view is taken from, view is taken once per page
+    private ByteBuffer view;
+    private int recordsDecoded;
+
+    public SortedPageReader(RecordSerializer<V> recordSerializer) {
+        this.recordSerializer = recordSerializer;
+    }
+
+    /*
+        Returns false when consumer asked to stop.
+     */
+    public boolean scan(ReadPage page, String from, String to, Function<V, Boolean> consumer) {
+        int total = page.totalRecords();
+        for (int slot = lowerBound(page, from); slot < total; slot++) {
+            V row = record(page, slot);
+            if (to != null && key(row).compareTo(to) > 0) {
+                break;
+            }
+            if (!consumer.apply(row)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+        First slot whose key is >= from
+     */
+    public int lowerBound(ReadPage page, String from) {
+        int low = 0, high = page.totalRecords();
+        if (from == null) {
+            return low;
+        }
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (key(record(page, mid)).compareTo(from) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /*
+        First slot whose key is > to
+     */
+    public int upperBound(ReadPage page, String to) {
+        int low = 0, high = page.totalRecords();
+        if (to == null) {
+            return high;
+        }
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (key(record(page, mid)).compareTo(to) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    public V record(ReadPage page, int slot) {
+        if (page != viewPage) {
+            viewPage = page;
+            view = page.view();
+        }
+        recordsDecoded++;
+        return recordSerializer.fromBytes.apply(page.record(slot, view));
+    }
+
+    public int recordsDecoded() {
+        return recordsDecoded;
+    }
+
+    private String key(V row) {
+        return recordSerializer.pk.apply(row);
+    }
+}
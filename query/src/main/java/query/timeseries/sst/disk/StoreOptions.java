@@ -0,0 +1,254 @@
+package query.timeseries.sst.disk;
+
+import query.page.allocator.DurabilityPolicy;
+import query.page.allocator.PageCodec;
+import query.page.buffer.BufferPool;
+
+import java.time.Duration;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Tuning options of PersistentSSTable.
+ * Instance is immutable, every with method returns a copy with the option changed.
+ */
+public class StoreOptions implements Cloneable {
+
+    public static final int MANUAL_FLUSH = 0;
+    public static final int DEFAULT_WAL_SEGMENT_SIZE = 8 * 1024 * 1024;
+    public static final int NO_COMPACTION = 0;
+    public static final int DEFAULT_COMPACTION_MIN_RUNS = 4;
+    public static final int NO_READAHEAD = 0;
+
+    private int maxUnflushedPages = MANUAL_FLUSH;
+    private boolean writeAheadLog;
+    private int walSegmentSize = DEFAULT_WAL_SEGMENT_SIZE;
+    private long walSyncIntervalMs;
+    private int compactionMinRuns = DEFAULT_COMPACTION_MIN_RUNS;
+    private PageCodec pageCodec = PageCodec.NONE;
+    private boolean mappedPages;
+    private BufferPool bufferPool;
+    private DurabilityPolicy durabilityPolicy = DurabilityPolicy.onBarrier();
+    private ForkJoinPool scanPool;
+    private int readaheadPages = NO_READAHEAD;
+    private TimePartitions timePartitions;
+    private Duration retention;
+
+    public static StoreOptions defaults() {
+        return new StoreOptions();
+    }
+
+    /*
+        Sealed buffer pages are flushed by a background thread.
+        Append blocks when more than maxUnflushedPages pages are waiting to be flushed.
+     */
+    public StoreOptions withBackgroundFlush(int maxUnflushedPages) {
+        if (maxUnflushedPages <= 0) {
+            throw new IllegalArgumentException("Max unflushed pages is not positive - " + maxUnflushedPages);
+        }
+        StoreOptions options = copy();
+        options.maxUnflushedPages = maxUnflushedPages;
+        return options;
+    }
+
+    /*
+        Every append is logged to memory mapped segments before it is added to buffer, log is replayed when store is opened.
+        Sync interval of 0 forces every append to disk, otherwise appends are forced together every interval.
+     */
+    public StoreOptions withWriteAheadLog(int segmentSize, long syncIntervalMs) {
+        if (segmentSize <= 0 || syncIntervalMs < 0) {
+            throw new IllegalArgumentException(String.format("Invalid segment size %s or sync interval %s", segmentSize, syncIntervalMs));
+        }
+        StoreOptions options = copy();
+        options.writeAheadLog = true;
+        options.walSegmentSize = segmentSize;
+        options.walSyncIntervalMs = syncIntervalMs;
+        return options;
+    }
+
+    /*
+        Generations are merged by background compactor once minRuns generations of similar size are on disk.
+        NO_COMPACTION keeps every flushed generation.
+     */
+    public StoreOptions withCompaction(int minRuns) {
+        if (minRuns != NO_COMPACTION && minRuns < 2) {
+            throw new IllegalArgumentException("Compaction needs at least 2 runs - " + minRuns);
+        }
+        StoreOptions options = copy();
+        options.compactionMinRuns = minRuns;
+        return options;
+    }
+
+    /*
+        Data pages are compressed with codec when committed, index pages are kept as it is.
+        Codec applies to new generations, existing generation is read with codec it was written with.
+     */
+    public StoreOptions withPageCompression(PageCodec codec) {
+        StoreOptions options = copy();
+        options.pageCodec = codec;
+        return options;
+    }
+
+    /*
+        Blocks are read through memory mapped regions instead of read calls. Compressed data blocks are always read with read calls,
+        their pages are decompressed into heap anyway.
+     */
+    public StoreOptions withMappedPages() {
+        StoreOptions options = copy();
+        options.mappedPages = true;
+        return options;
+    }
+
+    /*
+        Pages read from disk are cached in given pool, by default pool shared by all stores of the process is used.
+        Mapped pages are read in place and do not use the pool.
+     */
+    public StoreOptions withBufferPool(BufferPool bufferPool) {
+        StoreOptions options = copy();
+        options.bufferPool = bufferPool;
+        return options;
+    }
+
+    /*
+        Pages of a generation are forced as per policy while it is written, and always before it is renamed.
+        Default is to force only at end of generation, so flush of many pages costs a few fsyncs.
+     */
+    public StoreOptions withDurability(DurabilityPolicy durabilityPolicy) {
+        StoreOptions options = copy();
+        options.durabilityPolicy = durabilityPolicy;
+        return options;
+    }
+
+    /*
+        Range scan decodes disk pages on common pool and merges them with memory pages in key order.
+     */
+    public StoreOptions withParallelScan() {
+        return withParallelScan(ForkJoinPool.commonPool());
+    }
+
+    public StoreOptions withParallelScan(ForkJoinPool scanPool) {
+        StoreOptions options = copy();
+        options.scanPool = scanPool;
+        return options;
+    }
+
+    /*
+        Sequential range scan reads pages up to readaheadPages ahead of the decoder on a dedicated I/O thread.
+        Ignored when parallel scan is on, pages are read by scan pool then.
+     */
+    public StoreOptions withReadahead(int readaheadPages) {
+        if (readaheadPages < 0) {
+            throw new IllegalArgumentException("Readahead pages is negative - " + readaheadPages);
+        }
+        StoreOptions options = copy();
+        options.readaheadPages = readaheadPages;
+        return options;
+    }
+
+    /*
+        Every flush writes one generation per time partition it covers and compaction merges only generations of same partition.
+        Range queries skip generations outside of their range.
+     */
+    public StoreOptions withTimePartitions(TimePartitions timePartitions) {
+        StoreOptions options = copy();
+        options.timePartitions = timePartitions;
+        return options;
+    }
+
+    /*
+        After flush, partitions that end more than retention before newest event on disk are deleted.
+        Age is taken from event time and not from clock, so replayed history is kept as it is loaded.
+     */
+    public StoreOptions withRetention(Duration retention) {
+        if (retention.isNegative() || retention.isZero()) {
+            throw new IllegalArgumentException("Retention is not positive - " + retention);
+        }
+        StoreOptions options = copy();
+        options.retention = retention;
+        return options;
+    }
+
+    public boolean isBackgroundFlush() {
+        return maxUnflushedPages != MANUAL_FLUSH;
+    }
+
+    public int getMaxUnflushedPages() {
+        return maxUnflushedPages;
+    }
+
+    public boolean isWriteAheadLog() {
+        return writeAheadLog;
+    }
+
+    public int getWalSegmentSize() {
+        return walSegmentSize;
+    }
+
+    public long getWalSyncIntervalMs() {
+        return walSyncIntervalMs;
+    }
+
+    public boolean isCompaction() {
+        return compactionMinRuns != NO_COMPACTION;
+    }
+
+    public int getCompactionMinRuns() {
+        return compactionMinRuns;
+    }
+
+    public PageCodec getPageCodec() {
+        return pageCodec;
+    }
+
+    public boolean isMappedPages() {
+        return mappedPages;
+    }
+
+    public BufferPool getBufferPool() {
+        return bufferPool == null ? BufferPool.shared() : bufferPool;
+    }
+
+    public DurabilityPolicy getDurabilityPolicy() {
+        return durabilityPolicy;
+    }
+
+    public boolean isParallelScan() {
+        return scanPool != null;
+    }
+
+    // Null when scan is sequential
+    public ForkJoinPool getScanPool() {
+        return scanPool;
+    }
+
+    public boolean isReadahead() {
+        return readaheadPages != NO_READAHEAD;
+    }
+
+    public int getReadaheadPages() {
+        return readaheadPages;
+    }
+
+    // Null when generations are not partitioned
+    public TimePartitions getTimePartitions() {
+        return timePartitions;
+    }
+
+    // Null when partitions are kept forever
+    public Duration getRetention() {
+        return retention;
+    }
+
+    private StoreOptions copy() {
+        try {
+            return (StoreOptions) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("StoreOptions (Max unflushed pages: %s;WAL: %s;Compaction runs: %s;Page codec: %s;Mapped: %s;Durability: %s;Parallel scan: %s;Readahead: %s;Partitions: %s;Retention: %s)", maxUnflushedPages, writeAheadLog, compactionMinRuns, pageCodec, mappedPages, durabilityPolicy,
+                scanPool == null ? 0 : scanPool.getParallelism(), readaheadPages, timePartitions, retention);
+    }
+}
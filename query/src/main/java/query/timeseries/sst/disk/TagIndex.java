@@ -0,0 +1,143 @@
+package query.timeseries.sst.disk;
+
+import org.roaringbitmap.RoaringBitmap;
+import query.page.io.BlockRandomAccessFile;
+import query.page.io.SafeIO;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Inverted index of tags of a generation, stored as {storeName}.{id}.tags
+ * <p>
+ * Every (tag, value) maps to a bitmap of records that have it. Record is {position of page in fence index} << 16 | {slot},
+ * so high 16 bits pick the roaring container of the page and a page without the value has no container.
+ * Layout is {Version}{Tags} then per tag {Name}{Values} and per value {Value}{Bitmap}. Index is resident once opened.
+ */
+public class TagIndex {
+
+    public static final byte VERSION = 1;
+    public static final int MAX_PAGES = 1 << 16;
+    public static final int MAX_SLOTS = 1 << 16;
+
+    private final Map<String, Map<Integer, RoaringBitmap>> bitmaps;
+    private boolean overflow; // Generation too large to be addressed, it is written without index
+
+    private TagIndex(Map<String, Map<Integer, RoaringBitmap>> bitmaps) {
+        this.bitmaps = bitmaps;
+    }
+
+    public static TagIndex create() {
+        return new TagIndex(new HashMap<>());
+    }
+
+    public static TagIndex open(File location) {
+        byte[] bytes = new byte[(int) location.length()];
+        BlockRandomAccessFile file = new BlockRandomAccessFile(SafeIO.open(location.toPath()));
+        try {
+            file.read(0, bytes);
+        } finally {
+            file.close();
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            in.readByte(); // Version
+            int tags = in.readInt();
+            Map<String, Map<Integer, RoaringBitmap>> bitmaps = new HashMap<>(tags * 2);
+            for (int tag = 0; tag < tags; tag++) {
+                String name = in.readUTF();
+                int values = in.readInt();
+                Map<Integer, RoaringBitmap> valueBitmaps = new HashMap<>(values * 2);
+                for (int value = 0; value < values; value++) {
+                    int tagValue = in.readInt();
+                    RoaringBitmap bitmap = new RoaringBitmap();
+                    bitmap.deserialize(in);
+                    valueBitmaps.put(tagValue, bitmap);
+                }
+                bitmaps.put(name, valueBitmaps);
+            }
+            return new TagIndex(bitmaps);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /*
+        Tags of record at slot of page at position, records must be added in position and slot order.
+     */
+    public void add(int position, int slot, Map<CharSequence, Integer> tags) {
+        if (position >= MAX_PAGES || slot >= MAX_SLOTS) {
+            overflow = true;
+            return;
+        }
+        int record = position << 16 | slot;
+        for (Map.Entry<CharSequence, Integer> tag : tags.entrySet()) {
+            bitmaps.computeIfAbsent(tag.getKey().toString(), $ -> new HashMap<>())
+                    .computeIfAbsent(tag.getValue(), $ -> new RoaringBitmap())
+                    .add(record);
+        }
+    }
+
+    /*
+        Writes and forces index to location. Returns false when generation is too large for an index and nothing is written.
+     */
+    public boolean write(File location) {
+        if (overflow) {
+            return false;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(VERSION);
+            out.writeInt(bitmaps.size());
+            for (Map.Entry<String, Map<Integer, RoaringBitmap>> tag : bitmaps.entrySet()) {
+                out.writeUTF(tag.getKey());
+                out.writeInt(tag.getValue().size());
+                for (Map.Entry<Integer, RoaringBitmap> value : tag.getValue().entrySet()) {
+                    value.getValue().runOptimize();
+                    out.writeInt(value.getKey());
+                    value.getValue().serialize(out);
+                }
+            }
+            BlockRandomAccessFile file = new BlockRandomAccessFile(SafeIO.open(location.toPath()));
+            try {
+                file.write(0, bytes.toByteArray());
+                file.commit();
+            } finally {
+                file.close();
+            }
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /*
+        Records of pages [firstPosition, lastPosition] that have every tag value of match, match must not be empty.
+     */
+    public RoaringBitmap match(Map<String, Integer> match, int firstPosition, int lastPosition) {
+        List<RoaringBitmap> matched = new ArrayList<>(match.size());
+        for (Map.Entry<String, Integer> tag : match.entrySet()) {
+            RoaringBitmap bitmap = bitmaps.getOrDefault(tag.getKey(), new HashMap<>()).get(tag.getValue());
+            if (bitmap == null) {
+                return new RoaringBitmap();
+            }
+            matched.add(bitmap);
+        }
+        long start = (long) firstPosition << 16;
+        long end = (long) (lastPosition + 1) << 16;
+        return RoaringBitmap.and(matched.iterator(), start, end);
+    }
+
+    public long sizeInBytes() {
+        return bitmaps.values().stream().flatMap(values -> values.values().stream()).mapToLong(RoaringBitmap::getLongSizeInBytes).sum();
+    }
+}
@@ -0,0 +1,96 @@
+package query.timeseries.sst.disk;
+
+import query.timeseries.id.KeyMode;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Splits generations of a store by event time, every generation holds keys of one hour or one day.
+ * <p>
+ * Partition of a run of keys is found from its first key, rows after it only compare against the first key of next partition,
+ * so event time is parsed once per partition and not per row. Generation keeps its files {storeName}.{id}.*,
+ * partition of a generation is known from its min key. Partition is dropped by deleting files of its generations.
+ */
+public class TimePartitions {
+
+    private final ChronoUnit unit;
+    private final KeyMode keys;
+
+    private TimePartitions(ChronoUnit unit, KeyMode keys) {
+        this.unit = unit;
+        this.keys = keys;
+    }
+
+    public static TimePartitions hourly(KeyMode keys) {
+        return new TimePartitions(ChronoUnit.HOURS, keys);
+    }
+
+    public static TimePartitions daily(KeyMode keys) {
+        return new TimePartitions(ChronoUnit.DAYS, keys);
+    }
+
+    public LocalDateTime partition(String key) {
+        return keys.time(key).truncatedTo(unit);
+    }
+
+    public LocalDateTime end(LocalDateTime partition) {
+        return partition.plus(1, unit);
+    }
+
+    public LocalDateTime time(String key) {
+        return keys.time(key);
+    }
+
+    public Duration length() {
+        return unit.getDuration();
+    }
+
+    /*
+        Rows of sorted iterator up to the first key of next partition, partition is taken from first row.
+        Iterator returned by next must be drained before next is called again.
+     */
+    public <V> Iterator<Iterator<Map.Entry<String, V>>> split(Iterator<Map.Entry<String, V>> rows) {
+        return new Iterator<Iterator<Map.Entry<String, V>>>() {
+            Map.Entry<String, V> head = rows.hasNext() ? rows.next() : null;
+
+            @Override
+            public boolean hasNext() {
+                return head != null;
+            }
+
+            @Override
+            public Iterator<Map.Entry<String, V>> next() {
+                if (head == null) {
+                    throw new NoSuchElementException();
+                }
+                String endKey = keys.from(end(partition(head.getKey())));
+                return new Iterator<Map.Entry<String, V>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return head != null && head.getKey().compareTo(endKey) < 0;
+                    }
+
+                    @Override
+                    public Map.Entry<String, V> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        Map.Entry<String, V> row = head;
+                        head = rows.hasNext() ? rows.next() : null;
+                        return row;
+                    }
+                };
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TimePartitions (Unit: %s;Keys: %s)", unit, keys);
+    }
+}
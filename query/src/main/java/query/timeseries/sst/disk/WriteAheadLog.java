@@ -0,0 +1,225 @@
+package query.timeseries.sst.disk;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Append only log of buffered records, kept next to .data/.index files as {storeName}.wal.{segmentNo}
+ * <p>
+ * Segments are memory mapped files of fixed size. Record layout is {Record Length(Int)}{Key Length(Int)}{Key}{Value}
+ * and zero length marks end of segment, mapped file is zero filled when created.
+ * <p>
+ * Segments written while a buffer page is active belong to that page. When page is sealed log moves to new segment,
+ * and segments of the page are deleted once the page is flushed.
+ * <p>
+ * With sync interval of 0 every append is forced to disk, otherwise dirty segments are forced together (group commit)
+ * by a background thread every sync interval, so crash can lose at most last interval worth of appends.
+ */
+public class WriteAheadLog implements AutoCloseable {
+
+    private static final int RECORD_HEADER = 4 + 4;
+    private static final String SEGMENT = ".wal.";
+
+    private final File root;
+    private final String storeName;
+    private final int segmentSize;
+    private final long syncIntervalMs;
+    private final List<File> recovered;
+    private final List<Segment> active = new ArrayList<>();
+    private final Map<Integer, List<Segment>> sealed = new HashMap<>();
+    private final Set<Segment> dirty = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final ScheduledExecutorService syncer;
+
+    private Segment current;
+    private long nextSegmentNo;
+
+    public WriteAheadLog(File root, String storeName, int segmentSize, long syncIntervalMs) {
+        this.root = root;
+        this.storeName = storeName;
+        this.segmentSize = segmentSize;
+        this.syncIntervalMs = syncIntervalMs;
+        this.recovered = segments(root, storeName);
+        this.nextSegmentNo = recovered.isEmpty() ? 1 : segmentNo(recovered.get(recovered.size() - 1)) + 1;
+        this.syncer = syncIntervalMs > 0 ? startSyncer() : null;
+    }
+
+    /*
+        Read records of segments left by previous process. Segments are deleted once all records are handed over,
+        consumer is expected to log them again.
+     */
+    public int replay(BiConsumer<String, ByteBuffer> consumer) {
+        int records = 0;
+        for (File file : recovered) {
+            ByteBuffer buffer = map(file, file.length());
+            while (buffer.remaining() >= RECORD_HEADER) {
+                int recordLength = buffer.getInt(buffer.position());
+                if (recordLength == 0) {
+                    break;
+                }
+                buffer.getInt();
+                int keyLength = buffer.getInt();
+                byte[] key = new byte[keyLength];
+                buffer.get(key);
+
+                ByteBuffer value = buffer.slice();
+                value.limit(recordLength - RECORD_HEADER - keyLength);
+                consumer.accept(new String(key, StandardCharsets.UTF_8), value);
+                buffer.position(buffer.position() + value.limit());
+                records++;
+            }
+        }
+        sync();
+        recovered.forEach(File::delete);
+        recovered.clear();
+        return records;
+    }
+
+    public synchronized void append(String key, byte[] value) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int recordLength = RECORD_HEADER + keyBytes.length + value.length;
+        if (recordLength + 4 > segmentSize) {
+            throw new IllegalArgumentException(String.format("Record of %s bytes does not fit in segment of %s bytes", recordLength, segmentSize));
+        }
+        if (current == null || current.remaining() < recordLength + 4) {
+            current = newSegment();
+            active.add(current);
+        }
+        current.write(recordLength, keyBytes, value);
+        if (syncer == null) {
+            current.force();
+        } else {
+            dirty.add(current);
+        }
+    }
+
+    /*
+        Segments written so far belongs to sealed page, next append starts a new segment.
+     */
+    public synchronized void seal(int pageId) {
+        if (active.isEmpty()) {
+            return;
+        }
+        sealed.put(pageId, new ArrayList<>(active));
+        active.clear();
+        current = null;
+    }
+
+    /*
+        Page is flushed, its segments are not required for recovery.
+     */
+    public void release(int pageId) {
+        List<Segment> segments;
+        synchronized (this) {
+            segments = sealed.remove(pageId);
+            if (segments != null) {
+                dirty.removeAll(segments);
+            }
+        }
+        if (segments != null) {
+            segments.forEach(Segment::delete);
+        }
+    }
+
+    public void sync() {
+        List<Segment> segments;
+        synchronized (this) {
+            segments = new ArrayList<>(dirty);
+            dirty.clear();
+        }
+        segments.forEach(Segment::force);
+    }
+
+    public synchronized int noOfSegments() {
+        return active.size() + sealed.values().stream().mapToInt(List::size).sum();
+    }
+
+    @Override
+    public void close() {
+        if (syncer != null) {
+            syncer.shutdown();
+        }
+        sync();
+    }
+
+    private ScheduledExecutorService startSyncer() {
+        ScheduledExecutorService service = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "wal-sync-" + storeName);
+            thread.setDaemon(true);
+            return thread;
+        });
+        service.scheduleWithFixedDelay(this::sync, syncIntervalMs, syncIntervalMs, TimeUnit.MILLISECONDS);
+        return service;
+    }
+
+    private Segment newSegment() {
+        File file = new File(root, storeName + SEGMENT + nextSegmentNo++);
+        return new Segment(file, (MappedByteBuffer) map(file, segmentSize));
+    }
+
+    private static ByteBuffer map(File file, long size) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static List<File> segments(File root, String storeName) {
+        File[] files = root.listFiles((dir, name) -> name.startsWith(storeName + SEGMENT));
+        List<File> segments = new ArrayList<>(files == null ? Collections.emptyList() : Arrays.asList(files));
+        segments.sort(Comparator.comparingLong(WriteAheadLog::segmentNo));
+        return segments;
+    }
+
+    private static long segmentNo(File file) {
+        String name = file.getName();
+        return Long.parseLong(name.substring(name.lastIndexOf('.') + 1));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("WriteAheadLog (Segments: %s;Segment Size: %s;Sync Interval: %s ms)", noOfSegments(), segmentSize, syncIntervalMs);
+    }
+
+    private static class Segment {
+        private final File file;
+        private final MappedByteBuffer buffer;
+
+        Segment(File file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+
+        int remaining() {
+            return buffer.remaining();
+        }
+
+        void write(int recordLength, byte[] key, byte[] value) {
+            int start = buffer.position();
+            buffer.position(start + 4); // Length is written last, so torn record is seen as end of segment
+            buffer.putInt(key.length);
+            buffer.put(key);
+            buffer.put(value);
+            buffer.putInt(start, recordLength);
+        }
+
+        void force() {
+            buffer.force();
+        }
+
+        void delete() {
+            file.delete();
+        }
+    }
+}
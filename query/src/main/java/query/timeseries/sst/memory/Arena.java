@@ -0,0 +1,74 @@
+package query.timeseries.sst.memory;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed size direct buffer that records are appended to, record is {Key length}{Key}{Value length}{Value}.
+ * Space is claimed with one atomic add, so writers never block each other and write their own region.
+ * Arena is never compacted or reused, it is dropped as a whole once its page is flushed.
+ */
+public class Arena {
+
+    private final ByteBuffer buffer;
+    private final AtomicInteger position = new AtomicInteger();
+
+    public Arena(int capacity) {
+        this.buffer = ByteBuffer.allocateDirect(capacity);
+    }
+
+    public static int size(byte[] key, byte[] value) {
+        return Short.BYTES + key.length + Integer.BYTES + value.length;
+    }
+
+    /*
+        Returns offset of record or -1 when arena is full.
+     */
+    public int append(byte[] key, byte[] value) {
+        int size = size(key, value);
+        int offset = position.getAndAdd(size);
+        if (offset + size > buffer.capacity() || offset < 0) {
+            return -1;
+        }
+        ByteBuffer region = buffer.duplicate();
+        region.position(offset);
+        region.putShort((short) key.length);
+        region.put(key);
+        region.putInt(value.length);
+        region.put(value);
+        return offset;
+    }
+
+    public String key(int offset) {
+        ByteBuffer region = buffer.duplicate();
+        region.position(offset);
+        byte[] key = new byte[region.getShort()];
+        region.get(key);
+        return new String(key, StandardCharsets.UTF_8);
+    }
+
+    // Read only view of value of record at offset
+    public ByteBuffer value(int offset) {
+        ByteBuffer region = buffer.asReadOnlyBuffer();
+        int valueAt = offset + Short.BYTES + region.getShort(offset);
+        region.position(valueAt + Integer.BYTES);
+        region.limit(valueAt + Integer.BYTES + region.getInt(valueAt));
+        return region.slice();
+    }
+
+    // Records appended so far as one contiguous read only region
+    public ByteBuffer region() {
+        ByteBuffer region = buffer.asReadOnlyBuffer();
+        region.limit(used());
+        return region.slice();
+    }
+
+    public int used() {
+        return Math.min(position.get() < 0 ? buffer.capacity() : position.get(), buffer.capacity());
+    }
+
+    public int capacity() {
+        return buffer.capacity();
+    }
+}
@@ -3,25 +3,39 @@ package query.timeseries.sst.memory;
 
 import model.avro.page.SSTablePage;
 import query.timeseries.sst.PageRecord;
+import query.timeseries.sst.ScanOrder;
 import query.timeseries.sst.SortedStringTable;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.IntPredicate;
 
 import static java.util.stream.Collectors.toList;
 
 public class InMemorySSTable<V> implements SortedStringTable<V> {
 
     private final AtomicReference<NavigableMap<String, V>> currentBuffer = new AtomicReference<>(new ConcurrentSkipListMap<>());
+    private final Map<String, String> metadata = new ConcurrentHashMap<>();
     private final NavigableMap<Integer, PageRecord<V>> readOnlyBuffer = new ConcurrentSkipListMap<>();
     private final int chunkSize;
     private final AtomicInteger currentSize = new AtomicInteger();
     private final AtomicInteger currentPage = new AtomicInteger();
+    // Writers share the lock, sealing takes it exclusively so no write lands in a page after it is sealed.
+    private final ReadWriteLock sealLock = new ReentrantReadWriteLock();
+    private final List<Consumer<PageRecord<V>>> sealListeners = new CopyOnWriteArrayList<>();
 
     private int recordsScanned = 0;
 
@@ -32,7 +46,32 @@ public class InMemorySSTable<V> implements SortedStringTable<V> {
     @Override
     public void append(String key, V value) {
         allocateNewIfFull();
-        currentStore().put(key, value);
+        sealLock.readLock().lock();
+        try {
+            currentStore().put(key, value);
+        } finally {
+            sealLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void onSeal(Consumer<PageRecord<V>> listener) {
+        this.sealListeners.add(listener);
+    }
+
+    @Override
+    public V get(String key) {
+        V value = currentStore().get(key);
+        if (value != null) {
+            return value;
+        }
+        for (PageRecord<V> page : readOnlyBuffer.descendingMap().values()) {
+            value = page.getPageData().get(key);
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
     }
 
     @Override
@@ -57,6 +96,39 @@ public class InMemorySSTable<V> implements SortedStringTable<V> {
         System.out.println("Memory Scanned " + recordsScanned);
     }
 
+    /*
+        Active page first and then sealed pages from newest to oldest. Iterators are weakly consistent,
+        they do not fail when a page is appended to or flushed while it is read.
+     */
+    @Override
+    public List<Iterator<Map.Entry<String, V>>> sortedSources(String from, String to, ScanOrder order) {
+        return sortedSources(from, to, order, pageId -> true);
+    }
+
+    @Override
+    public List<Iterator<Map.Entry<String, V>>> sortedSources(String from, String to, ScanOrder order, IntPredicate pages) {
+        List<Iterator<Map.Entry<String, V>>> sources = new ArrayList<>();
+        sources.add(range(currentStore(), from, to, order).entrySet().iterator());
+        readOnlyBuffer.descendingMap().forEach((pageId, page) -> {
+            if (pages.test(pageId)) {
+                sources.add(range(page.getPageData(), from, to, order).entrySet().iterator());
+            }
+        });
+        return sources;
+    }
+
+    private NavigableMap<String, V> range(NavigableMap<String, V> buffer, String from, String to, ScanOrder order) {
+        NavigableMap<String, V> matched = buffer;
+        if (from != null && to != null) {
+            matched = bt(from, to).apply(buffer);
+        } else if (from != null) {
+            matched = gt(from).apply(buffer);
+        } else if (to != null) {
+            matched = lt(to).apply(buffer);
+        }
+        return order == ScanOrder.ASC ? matched : matched.descendingMap();
+    }
+
     @Override
     public Collection<PageRecord<V>> buffers() {
         return readOnlyBuffer.values();
@@ -67,6 +139,16 @@ public class InMemorySSTable<V> implements SortedStringTable<V> {
         readOnlyBuffer.remove(pageId);
     }
 
+    @Override
+    public String metadata(String name) {
+        return metadata.get(name);
+    }
+
+    @Override
+    public void metadata(String name, String value) {
+        metadata.put(name, value);
+    }
+
     @Override
     public void flush() {
 
@@ -79,7 +161,7 @@ public class InMemorySSTable<V> implements SortedStringTable<V> {
 
             for (; isFull(currentSize.get()); ) {
                 NavigableMap<String, V> old = currentStore();
-                if (currentBuffer.compareAndSet(old, new ConcurrentSkipListMap<>())) {
+                if (swap(old)) {
                     closeOldPage(old);
                     break;
                 } else {
@@ -89,6 +171,15 @@ public class InMemorySSTable<V> implements SortedStringTable<V> {
         }
     }
 
+    private boolean swap(NavigableMap<String, V> old) {
+        sealLock.writeLock().lock();
+        try {
+            return currentBuffer.compareAndSet(old, new ConcurrentSkipListMap<>());
+        } finally {
+            sealLock.writeLock().unlock();
+        }
+    }
+
     private void closeOldPage(NavigableMap<String, V> old) {
 
         int pageId = currentPage.incrementAndGet();
@@ -101,7 +192,9 @@ public class InMemorySSTable<V> implements SortedStringTable<V> {
                     .setMaxValue(old.lastKey())
                     .setOffSet(0)// In memory pages will have this set to 0
                     .build();
-            readOnlyBuffer.put(pageId, new InMemoryPageRecord<>(old, pageInfo));
+            InMemoryPageRecord<V> page = new InMemoryPageRecord<>(old, pageInfo);
+            readOnlyBuffer.put(pageId, page);
+            sealListeners.forEach(listener -> listener.accept(page));
         }
         currentSize.set(0);
     }
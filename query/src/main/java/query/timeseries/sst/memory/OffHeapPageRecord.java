@@ -0,0 +1,121 @@
+package query.timeseries.sst.memory;
+
+import model.avro.page.SSTablePage;
+import query.timeseries.sst.PageRecord;
+import query.timeseries.sst.ScanOrder;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Function;
+
+/**
+ * Page of OffHeapSSTable, records are in its arena and only key and offset of every record is on heap.
+ * Records are decoded as they are read.
+ */
+public class OffHeapPageRecord<V> implements PageRecord<V> {
+
+    private final Arena arena;
+    private final ConcurrentSkipListMap<String, Integer> offsets = new ConcurrentSkipListMap<>();
+    private final Function<ByteBuffer, V> fromBytes;
+    private volatile SSTablePage pageInfo; // Null until page is sealed
+
+    OffHeapPageRecord(Arena arena, Function<ByteBuffer, V> fromBytes) {
+        this.arena = arena;
+        this.fromBytes = fromBytes;
+    }
+
+    /*
+        Returns false when arena is full and record is not added. Offset is published after record is written,
+        so a reader that finds the key sees the whole record.
+     */
+    boolean append(String key, byte[] keyBytes, byte[] valueBytes) {
+        int offset = arena.append(keyBytes, valueBytes);
+        if (offset < 0) {
+            return false;
+        }
+        offsets.put(key, offset);
+        return true;
+    }
+
+    void seal(SSTablePage pageInfo) {
+        this.pageInfo = pageInfo;
+    }
+
+    V get(String key) {
+        Integer offset = offsets.get(key);
+        return offset == null ? null : fromBytes.apply(arena.value(offset));
+    }
+
+    boolean isEmpty() {
+        return offsets.isEmpty();
+    }
+
+    String firstKey() {
+        return offsets.firstKey();
+    }
+
+    String lastKey() {
+        return offsets.lastKey();
+    }
+
+    int size() {
+        return offsets.size();
+    }
+
+    // Entries of [from, to] in scan order, null bound is open ended
+    Iterator<Map.Entry<String, V>> entries(String from, String to, ScanOrder order) {
+        NavigableMap<String, Integer> matched = offsets;
+        if (from != null && to != null) {
+            matched = from.compareTo(to) > 0 ? new TreeMap<>() : offsets.subMap(from, true, to, true);
+        } else if (from != null) {
+            matched = offsets.tailMap(from, true);
+        } else if (to != null) {
+            matched = offsets.headMap(to, true);
+        }
+        Iterator<Map.Entry<String, Integer>> entries = (order == ScanOrder.ASC ? matched : matched.descendingMap()).entrySet().iterator();
+        return new Iterator<Map.Entry<String, V>>() {
+            @Override
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+
+            @Override
+            public Map.Entry<String, V> next() {
+                Map.Entry<String, Integer> entry = entries.next();
+                return new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), fromBytes.apply(arena.value(entry.getValue())));
+            }
+        };
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, V>> entries() {
+        return entries(null, null, ScanOrder.ASC);
+    }
+
+    // Copy of page decoded to heap, flush reads entries instead
+    @Override
+    public NavigableMap<String, V> getPageData() {
+        NavigableMap<String, V> data = new TreeMap<>();
+        entries().forEachRemaining(entry -> data.put(entry.getKey(), entry.getValue()));
+        return data;
+    }
+
+    @Override
+    public SSTablePage getPageInfo() {
+        return pageInfo;
+    }
+
+    // Records of page as written, one contiguous region of arena
+    public ByteBuffer region() {
+        return arena.region();
+    }
+
+    public int bytesUsed() {
+        return arena.used();
+    }
+}
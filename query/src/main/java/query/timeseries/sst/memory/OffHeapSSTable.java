@@ -0,0 +1,190 @@
+package query.timeseries.sst.memory;
+
+import model.avro.page.SSTablePage;
+import query.timeseries.sst.PageRecord;
+import query.timeseries.sst.ScanOrder;
+import query.timeseries.sst.SortedStringTable;
+import query.timeseries.sst.disk.RecordSerializer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+
+/**
+ * Buffer of records serialized into off heap arenas, a page is one arena and a skip list of key to offset.
+ * Values never live on heap between append and flush, they are decoded when read. Page is sealed when its arena is full,
+ * it is flushed from its arena and dropped as a whole, so ingest leaves no record objects for the collector.
+ */
+public class OffHeapSSTable<V> implements SortedStringTable<V> {
+
+    private final int arenaSize;
+    private final Function<V, byte[]> toBytes;
+    private final Function<ByteBuffer, V> fromBytes;
+    private final AtomicReference<OffHeapPageRecord<V>> currentBuffer;
+    private final Map<String, String> metadata = new ConcurrentHashMap<>();
+    private final NavigableMap<Integer, OffHeapPageRecord<V>> readOnlyBuffer = new ConcurrentSkipListMap<>();
+    private final AtomicInteger currentPage = new AtomicInteger();
+    // Writers share the lock, sealing takes it exclusively so no write lands in a page after it is sealed.
+    private final ReadWriteLock sealLock = new ReentrantReadWriteLock();
+    private final List<Consumer<PageRecord<V>>> sealListeners = new CopyOnWriteArrayList<>();
+
+    public OffHeapSSTable(int arenaSize, RecordSerializer<V> recordSerializer) {
+        this.arenaSize = arenaSize;
+        this.toBytes = recordSerializer.toBytes;
+        this.fromBytes = recordSerializer.fromBytes;
+        this.currentBuffer = new AtomicReference<>(newPage());
+    }
+
+    @Override
+    public void append(String key, V value) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] valueBytes = toBytes.apply(value);
+        if (Arena.size(keyBytes, valueBytes) > arenaSize) {
+            throw new IllegalArgumentException(String.format("Record of %s is larger than arena %s", key, arenaSize));
+        }
+        for (; ; ) {
+            OffHeapPageRecord<V> page;
+            sealLock.readLock().lock();
+            try {
+                page = currentBuffer.get();
+                if (page.append(key, keyBytes, valueBytes)) {
+                    return;
+                }
+            } finally {
+                sealLock.readLock().unlock();
+            }
+            seal(page);
+        }
+    }
+
+    private OffHeapPageRecord<V> newPage() {
+        return new OffHeapPageRecord<>(new Arena(arenaSize), fromBytes);
+    }
+
+    // Writer that finds arena full seals it, other writers that lost the race just retry on new page
+    private void seal(OffHeapPageRecord<V> full) {
+        sealLock.writeLock().lock();
+        try {
+            if (!currentBuffer.compareAndSet(full, newPage())) {
+                return;
+            }
+        } finally {
+            sealLock.writeLock().unlock();
+        }
+
+        int pageId = currentPage.incrementAndGet();
+        if (!full.isEmpty()) {
+            full.seal(SSTablePage
+                    .newBuilder()
+                    .setPageId(pageId)
+                    .setMinValue(full.firstKey())
+                    .setMaxValue(full.lastKey())
+                    .setOffSet(0)// In memory pages will have this set to 0
+                    .build());
+            readOnlyBuffer.put(pageId, full);
+            sealListeners.forEach(listener -> listener.accept(full));
+        }
+    }
+
+    @Override
+    public void onSeal(Consumer<PageRecord<V>> listener) {
+        this.sealListeners.add(listener);
+    }
+
+    @Override
+    public V get(String key) {
+        V value = currentBuffer.get().get(key);
+        if (value != null) {
+            return value;
+        }
+        for (OffHeapPageRecord<V> page : readOnlyBuffer.descendingMap().values()) {
+            value = page.get(key);
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void iterate(String from, String to, Function<V, Boolean> consumer) {
+        for (Iterator<Map.Entry<String, V>> rows : sortedSources(from, to, ScanOrder.ASC)) {
+            while (rows.hasNext()) {
+                if (!consumer.apply(rows.next().getValue())) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /*
+        Active page first and then sealed pages from newest to oldest.
+     */
+    @Override
+    public List<Iterator<Map.Entry<String, V>>> sortedSources(String from, String to, ScanOrder order) {
+        return sortedSources(from, to, order, pageId -> true);
+    }
+
+    @Override
+    public List<Iterator<Map.Entry<String, V>>> sortedSources(String from, String to, ScanOrder order, IntPredicate pages) {
+        List<Iterator<Map.Entry<String, V>>> sources = new ArrayList<>();
+        sources.add(currentBuffer.get().entries(from, to, order));
+        readOnlyBuffer.descendingMap().forEach((pageId, page) -> {
+            if (pages.test(pageId)) {
+                sources.add(page.entries(from, to, order));
+            }
+        });
+        return sources;
+    }
+
+    @Override
+    public Collection<PageRecord<V>> buffers() {
+        return Collections.unmodifiableCollection(readOnlyBuffer.values());
+    }
+
+    // Arena of page is dropped with it
+    @Override
+    public void remove(int pageId) {
+        readOnlyBuffer.remove(pageId);
+    }
+
+    @Override
+    public String metadata(String name) {
+        return metadata.get(name);
+    }
+
+    @Override
+    public void metadata(String name, String value) {
+        metadata.put(name, value);
+    }
+
+    @Override
+    public void flush() {
+
+    }
+
+    public long bytesUsed() {
+        return currentBuffer.get().bytesUsed() + readOnlyBuffer.values().stream().mapToLong(OffHeapPageRecord::bytesUsed).sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("OffHeapSSTable (Arena: %s;Sealed pages: %s;Bytes: %s)", arenaSize, readOnlyBuffer.size(), bytesUsed());
+    }
+}
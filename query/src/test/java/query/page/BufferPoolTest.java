@@ -0,0 +1,172 @@
+package query.page;
+
+import org.junit.jupiter.api.Test;
+import query.page.buffer.BufferPool;
+import query.page.read.ReadPage;
+import query.page.write.WritableSlotPage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BufferPoolTest {
+
+    @Test
+    public void serve_repeated_reads_from_pool() {
+
+        BufferPool pool = new BufferPool(4, 1024);
+        int owner = pool.newOwner();
+        AtomicInteger loads = new AtomicInteger();
+
+        for (int attempt = 0; attempt < 3; attempt++) {
+            try (ReadPage page = pool.pin(owner, 1, 1024, loader(1, loads))) {
+                assertEquals("Hello1", record(page));
+            }
+        }
+
+        assertAll(
+                () -> assertEquals(1, loads.get()),
+                () -> assertEquals(2, pool.hits()),
+                () -> assertEquals(1, pool.misses())
+        );
+    }
+
+    @Test
+    public void evict_unpinned_pages_and_keep_pinned_pages() {
+
+        BufferPool pool = new BufferPool(2, 1024);
+        int owner = pool.newOwner();
+        AtomicInteger loads = new AtomicInteger();
+
+        ReadPage pinned = pool.pin(owner, 1, 1024, loader(1, loads));
+        for (int pageNo = 2; pageNo <= 5; pageNo++) {
+            pool.pin(owner, pageNo, 1024, loader(pageNo, loads)).close();
+        }
+
+        assertAll(
+                () -> assertEquals("Hello1", record(pinned)),
+                () -> assertEquals(3, pool.evictions()),
+                () -> assertEquals(2, pool.cachedPages()),
+                () -> assertEquals("Hello1", record(pool.pin(owner, 1, 1024, loader(1, loads)))),
+                () -> assertEquals(5, loads.get())
+        );
+    }
+
+    @Test
+    public void read_page_outside_pool_when_every_frame_is_pinned() {
+
+        BufferPool pool = new BufferPool(1, 1024);
+        int owner = pool.newOwner();
+        AtomicInteger loads = new AtomicInteger();
+
+        ReadPage first = pool.pin(owner, 1, 1024, loader(1, loads));
+        ReadPage second = pool.pin(owner, 2, 1024, loader(2, loads));
+
+        assertAll(
+                () -> assertEquals("Hello1", record(first)),
+                () -> assertEquals("Hello2", record(second)),
+                () -> assertEquals(1, pool.cachedPages())
+        );
+    }
+
+    @Test
+    public void reload_invalidated_page() {
+
+        BufferPool pool = new BufferPool(4, 1024);
+        int owner = pool.newOwner();
+        int anotherOwner = pool.newOwner();
+        AtomicInteger loads = new AtomicInteger();
+
+        pool.pin(owner, 1, 1024, loader(1, loads)).close();
+        pool.pin(anotherOwner, 1, 1024, loader(2, loads)).close();
+        pool.invalidate(owner, 1);
+
+        assertAll(
+                () -> assertEquals("Hello3", record(pool.pin(owner, 1, 1024, loader(3, loads)))),
+                () -> assertEquals("Hello2", record(pool.pin(anotherOwner, 1, 1024, loader(4, loads)))),
+                () -> assertEquals(3, loads.get())
+        );
+    }
+
+    @Test
+    public void pin_cached_page_while_pool_lock_is_held() throws Exception {
+
+        BufferPool pool = new BufferPool(4, 1024);
+        int owner = pool.newOwner();
+        AtomicInteger loads = new AtomicInteger();
+        pool.pin(owner, 1, 1024, loader(1, loads)).close();
+
+        ExecutorService es = Executors.newSingleThreadExecutor();
+        String hit;
+        synchronized (pool) { // Miss would wait here
+            hit = es.submit(() -> {
+                try (ReadPage page = pool.pin(owner, 1, 1024, loader(1, loads))) {
+                    return record(page);
+                }
+            }).get(10, TimeUnit.SECONDS);
+        }
+        es.shutdown();
+
+        assertAll(
+                () -> assertEquals("Hello1", hit),
+                () -> assertEquals(1, loads.get()),
+                () -> assertEquals(1, pool.hits())
+        );
+    }
+
+    @Test
+    public void read_pages_from_many_threads_while_evicting() throws Exception {
+
+        BufferPool pool = new BufferPool(8, 1024);
+        int owner = pool.newOwner();
+        AtomicInteger loads = new AtomicInteger();
+
+        ExecutorService es = Executors.newFixedThreadPool(4);
+        List<Future<Integer>> readers = new ArrayList<>();
+        for (int thread = 0; thread < 4; thread++) {
+            readers.add(es.submit(() -> {
+                int mismatched = 0;
+                for (int read = 0; read < 20_000; read++) {
+                    int pageNo = ThreadLocalRandom.current().nextInt(16) + 1;
+                    try (ReadPage page = pool.pin(owner, pageNo, 1024, loader(pageNo, loads))) {
+                        mismatched += record(page).equals("Hello" + pageNo) ? 0 : 1;
+                    }
+                }
+                return mismatched;
+            }));
+        }
+        int mismatched = 0;
+        for (Future<Integer> reader : readers) {
+            mismatched += reader.get();
+        }
+        es.shutdown();
+
+        assertEquals(0, mismatched);
+        assertAll(
+                () -> assertEquals(0, pool.pinnedPages()),
+                () -> assertTrue(pool.cachedPages() <= 8),
+                () -> assertEquals(80_000, pool.hits() + pool.misses())
+        );
+    }
+
+    private BufferPool.PageLoader loader(int pageNo, AtomicInteger loads) {
+        return (buffer, length) -> {
+            loads.incrementAndGet();
+            WritableSlotPage page = new WritableSlotPage(length, (byte) 1, pageNo, System.currentTimeMillis());
+            page.write(("Hello" + pageNo).getBytes());
+            System.arraycopy(page.commit(), 0, buffer, 0, length);
+        };
+    }
+
+    private String record(ReadPage page) {
+        byte[] buffer = new byte[1024];
+        return new String(buffer, 0, page.record(0, buffer));
+    }
+}
@@ -5,13 +5,23 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import query.page.allocator.*;
 import query.page.read.ReadPage;
+import query.page.write.WritableSlotPage;
 import query.page.write.WritePage;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
 
 import static java.util.stream.IntStream.range;
 import static org.junit.jupiter.api.Assertions.*;
@@ -102,6 +112,47 @@ public class DiskPageAllocatorTest {
         );
     }
 
+    @Test
+    public void read_pages_from_many_threads_while_appending() throws Exception {
+        Path dataFile = dataFilePath("disk.1.data." + System.nanoTime());
+        PageAllocator pa = new DiskPageAllocator((byte) 1, 1024, dataFile);
+
+        range(0, 200).forEach($ -> {
+            WritePage page = pa.newPage();
+            page.write(("Hello" + page.pageNumber()).getBytes());
+            pa.commit(page);
+        });
+
+        ExecutorService es = Executors.newFixedThreadPool(4);
+        List<Future<Integer>> readers = new ArrayList<>();
+        for (int reader = 0; reader < 4; reader++) {
+            readers.add(es.submit(() -> {
+                byte[] buffer = new byte[1024];
+                int mismatches = 0;
+                for (int read = 0; read < 2_000; read++) {
+                    int pageId = ThreadLocalRandom.current().nextInt(200) + 1;
+                    ReadPage p = pa.readByPageId(pageId);
+                    if (!("Hello" + pageId).equals(new String(buffer, 0, p.record(0, buffer)))) {
+                        mismatches++;
+                    }
+                }
+                return mismatches;
+            }));
+        }
+        range(0, 100).forEach($ -> {
+            WritePage page = pa.newPage();
+            page.write(("Hello" + page.pageNumber()).getBytes());
+            pa.commit(page);
+        });
+
+        int mismatches = 0;
+        for (Future<Integer> reader : readers) {
+            mismatches += reader.get();
+        }
+        es.shutdown();
+        assertEquals(0, mismatches);
+    }
+
     @Test
     public void read_pages_from_saved_file() {
 
@@ -206,4 +257,135 @@ public class DiskPageAllocatorTest {
 
     }
 
+    @Test
+    public void read_compressed_pages_from_saved_file() {
+
+        Path dataFile = dataFilePath("disk.1.data." + System.nanoTime());
+        PageAllocator pa = new DiskPageAllocator((byte) 1, 1024, dataFile, PageCodec.DEFLATE);
+
+        range(0, 10).forEach($ -> {
+            WritePage page = pa.newPage();
+            page.write(("Hello" + page.pageNumber()).getBytes());
+            page.write(("World" + page.pageNumber()).getBytes());
+            pa.commit(page);
+        });
+
+        DiskPageAllocator anotherPage = new DiskPageAllocator((byte) 1, 1024, dataFile);
+        List<PageInfo> pages = anotherPage.pages();
+        byte[] buffer = new byte[1024];
+        assertAll(
+                () -> assertEquals(PageCodec.DEFLATE, anotherPage.codec()),
+                () -> assertTrue(dataFile.toFile().length() < 10 * 1024 / 4, "File size " + dataFile.toFile().length()),
+                () -> {
+                    ReadPage p = anotherPage.readByPageId(10);
+                    assertEquals("Hello10", new String(buffer, 0, p.record(0, buffer)));
+                    assertEquals("World10", new String(buffer, 0, p.record(1, buffer)));
+                },
+                () -> {
+                    ReadPage p = anotherPage.readByPageOffset(pages.get(0).pageOff);
+                    assertEquals("Hello1", new String(buffer, 0, p.record(0, buffer)));
+                    assertEquals("World1", new String(buffer, 0, p.record(1, buffer)));
+                },
+                () -> {
+                    anotherPage.readByPageId(10);
+                    assertEquals(1, anotherPage.bufferPool().hits());
+                }
+        );
+    }
+
+    @Test
+    public void sync_pages_as_per_durability_policy() {
+
+        Path dataFile = dataFilePath("disk.1.data." + System.nanoTime());
+        DiskPageAllocator pa = new DiskPageAllocator((byte) 1, 1024, dataFile, PageCodec.NONE, null, DurabilityPolicy.everyPages(4));
+
+        range(0, 10).forEach($ -> {
+            WritePage page = pa.newPage();
+            page.write(("Hello" + page.pageNumber()).getBytes());
+            pa.commit(page);
+        });
+
+        long syncsBeforeBarrier = pa.syncs();
+        int pagesBeforeBarrier = new DiskPageAllocator((byte) 1, 1024, dataFile).noOfPages();
+        pa.sync();
+
+        assertAll(
+                () -> assertEquals(2, syncsBeforeBarrier),
+                () -> assertEquals(8, pagesBeforeBarrier), // Header counts only synced pages
+                () -> assertEquals(3, pa.syncs()),
+                () -> assertEquals(10, new DiskPageAllocator((byte) 1, 1024, dataFile).noOfPages())
+        );
+    }
+
+    @Test
+    public void sync_compressed_pages_on_barrier() {
+
+        Path dataFile = dataFilePath("disk.1.data." + System.nanoTime());
+        DiskPageAllocator pa = new DiskPageAllocator((byte) 1, 1024, dataFile, PageCodec.DEFLATE, null, DurabilityPolicy.onBarrier());
+
+        range(0, 10).forEach($ -> {
+            WritePage page = pa.newPage();
+            page.write(("Hello" + page.pageNumber()).getBytes());
+            pa.commit(page);
+        });
+
+        int pagesBeforeBarrier = new DiskPageAllocator((byte) 1, 1024, dataFile).pages().size();
+        pa.close();
+
+        DiskPageAllocator anotherPage = new DiskPageAllocator((byte) 1, 1024, dataFile);
+        byte[] buffer = new byte[1024];
+        assertAll(
+                () -> assertEquals(0, pagesBeforeBarrier),
+                () -> assertEquals(1, pa.syncs()),
+                () -> assertEquals(10, anotherPage.pages().size()),
+                () -> assertEquals("Hello10", new String(buffer, 0, anotherPage.readByPageId(10).record(0, buffer)))
+        );
+    }
+
+    @Test
+    public void open_file_written_with_baseline_header() throws IOException {
+
+        Path dataFile = dataFilePath("disk.1.data." + System.nanoTime());
+        ByteBuffer file = ByteBuffer.allocate(Header.LEGACY_SIZE + 2 * 1024);
+        file.put((byte) 1).putInt(1024).putInt(2); // Version, page size and page count
+        range(1, 3).forEach(pageNo -> {
+            WritableSlotPage page = new WritableSlotPage(1024, (byte) 1, pageNo, now());
+            page.write(("Hello" + pageNo).getBytes());
+            file.put(page.commit());
+        });
+        Files.write(dataFile, file.array());
+
+        DiskPageAllocator pa = new DiskPageAllocator((byte) 1, 1024, dataFile, PageCodec.DEFLATE);
+        WritePage page = pa.newPage();
+        page.write("Hello3".getBytes());
+        long offSet = pa.commit(page);
+        long length = dataFile.toFile().length();
+
+        PageAllocator mapped = new MappedPageAllocator((byte) 1, 1024, dataFile);
+        byte[] buffer = new byte[1024];
+        assertAll(
+                () -> assertEquals(Header.LEGACY_SIZE + 2 * 1024, offSet),
+                () -> assertEquals(Header.LEGACY_SIZE + 3 * 1024, length),
+                () -> assertEquals(PageCodec.NONE, DiskPageAllocator.codecOf(dataFile)),
+                () -> assertEquals(3, mapped.noOfPages()),
+                () -> assertEquals("Hello1", new String(buffer, 0, mapped.readByPageId(1).record(0, buffer))),
+                () -> assertEquals("Hello2", new String(buffer, 0, mapped.readByPageOffset(Header.LEGACY_SIZE + 1024).record(0, buffer))),
+                () -> assertEquals("Hello3", new String(buffer, 0, new DiskPageAllocator((byte) 1, 1024, dataFile).readByPageId(3).record(0, buffer)))
+        );
+    }
+
+    @Test
+    public void failed_for_unknown_header_version() throws IOException {
+
+        Path dataFile = dataFilePath("disk.1.data." + System.nanoTime());
+        new DiskPageAllocator((byte) 1, 1024, dataFile).close();
+        try (RandomAccessFile raf = new RandomAccessFile(dataFile.toFile(), "rw")) {
+            raf.write(Header.VERSION + 1);
+        }
+
+        assertAll(
+                () -> assertThrows(IllegalStateException.class, () -> new DiskPageAllocator((byte) 1, 1024, dataFile)),
+                () -> assertThrows(IllegalStateException.class, () -> new MappedPageAllocator((byte) 1, 1024, dataFile))
+        );
+    }
 }
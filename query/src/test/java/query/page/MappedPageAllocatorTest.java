@@ -0,0 +1,118 @@
+package query.page;
+
+import org.junit.jupiter.api.Test;
+import query.page.allocator.DiskPageAllocator;
+import query.page.allocator.DurabilityPolicy;
+import query.page.allocator.MappedPageAllocator;
+import query.page.allocator.PageAllocator;
+import query.page.allocator.PageInfo;
+import query.page.read.ReadPage;
+import query.page.write.WritePage;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static java.util.stream.IntStream.range;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappedPageAllocatorTest {
+
+    @Test
+    public void read_pages_across_mapped_regions() {
+
+        Path dataFile = dataFilePath("mapped.1.data." + System.nanoTime());
+        MappedPageAllocator pa = new MappedPageAllocator((byte) 1, 1024, dataFile);
+
+        writePages(pa, 200);
+
+        byte[] buffer = new byte[1024];
+        assertAll(
+                () -> assertEquals(200, pa.noOfPages()),
+                () -> assertEquals(3, pa.noOfRegions()),
+                () -> {
+                    ReadPage p = pa.readByPageId(64);
+                    assertEquals("Hello64", new String(buffer, 0, p.record(0, buffer)));
+                    assertEquals("World64", new String(buffer, 0, p.record(1, buffer)));
+                },
+                () -> {
+                    ReadPage p = pa.readByPageId(200);
+                    assertEquals("Hello200", new String(buffer, 0, p.record(0, buffer)));
+                },
+                () -> {
+                    PageInfo pageInfo = pa.pages().get(64);
+                    ReadPage p = pa.readByPageOffset(pageInfo.pageOff);
+                    assertEquals("Hello65", new String(buffer, 0, p.record(0, buffer)));
+                }
+        );
+    }
+
+    @Test
+    public void share_file_format_with_disk_allocator() {
+
+        Path dataFile = dataFilePath("mapped.1.data." + System.nanoTime());
+        writePages(new MappedPageAllocator((byte) 1, 1024, dataFile), 10);
+
+        PageAllocator disk = new DiskPageAllocator((byte) 1, 1024, dataFile);
+        writePages(disk, 10);
+
+        PageAllocator mapped = new MappedPageAllocator((byte) 1, 1024, dataFile);
+        byte[] buffer = new byte[1024];
+        assertAll(
+                () -> assertEquals(20, mapped.noOfPages()),
+                () -> assertEquals("Hello10", new String(buffer, 0, disk.readByPageId(10).record(0, buffer))),
+                () -> assertEquals("Hello20", new String(buffer, 0, mapped.readByPageId(20).record(0, buffer)))
+        );
+    }
+
+    @Test
+    public void failed_for_invalid_page_number() {
+
+        Path dataFile = dataFilePath("mapped.1.data." + System.nanoTime());
+        PageAllocator pa = new MappedPageAllocator((byte) 1, 1024, dataFile);
+        writePages(pa, 10);
+
+        List<PageInfo> pages = pa.pages();
+        assertAll(
+                () -> assertThrows(IllegalArgumentException.class, () -> pa.readByPageId(100)),
+                () -> assertThrows(IllegalArgumentException.class, () -> pa.readByPageId(-10)),
+                () -> assertThrows(IllegalArgumentException.class, () -> pa.readByPageOffset(pages.get(9).pageOff + 1024))
+        );
+    }
+
+    @Test
+    public void force_pages_as_per_page_count_policy() {
+
+        Path dataFile = dataFilePath("mapped.1.data." + System.nanoTime());
+        MappedPageAllocator pa = new MappedPageAllocator((byte) 1, 1024, dataFile, DurabilityPolicy.everyPages(4));
+
+        writePages(pa, 4);
+        long afterFourPages = pa.syncs();
+        writePages(pa, 3);
+        long afterSevenPages = pa.syncs();
+        writePages(pa, 1);
+
+        assertAll(
+                () -> assertEquals(1, afterFourPages),
+                () -> assertEquals(1, afterSevenPages),
+                () -> assertEquals(2, pa.syncs()),
+                () -> assertEquals(8, new MappedPageAllocator((byte) 1, 1024, dataFile).noOfPages())
+        );
+    }
+
+    private void writePages(PageAllocator pa, int count) {
+        range(0, count).forEach($ -> {
+            WritePage page = pa.newPage();
+            page.write(("Hello" + page.pageNumber()).getBytes());
+            page.write(("World" + page.pageNumber()).getBytes());
+            pa.commit(page);
+        });
+    }
+
+    private Path dataFilePath(String fileName) {
+        File f = new File(System.getProperty("java.io.tmpdir"), "datastore");
+        f.mkdirs();
+        return Paths.get(f.getAbsolutePath(), fileName);
+    }
+}
@@ -7,6 +7,7 @@ import query.page.write.WritableSlotPage;
 import query.page.write.WritePage;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
@@ -149,6 +150,33 @@ public class SlottedPageTest {
 
     }
 
+    @Test
+    public void read_records_through_view_without_copy() {
+        WritePage expected = new WritableSlotPage(1024, version, 2, System.currentTimeMillis());
+
+        expected.write("James".getBytes());
+        expected.write("Bonds".getBytes());
+        expected.write("Albert".getBytes());
+
+        byte[] data = expected.commit();
+        ReadPage page = ReadPage.create(data);
+        ByteBuffer view = page.view();
+
+        List<String> records = new ArrayList<>();
+        PageIterator itr = page.newIterator();
+        for (ByteBuffer record = itr.next(view); record != null; record = itr.next(view)) {
+            records.add(StandardCharsets.UTF_8.decode(record).toString());
+        }
+
+        assertAll(
+                () -> assertIterableEquals(asList("James", "Bonds", "Albert"), records),
+                () -> assertSame(view, page.record(1, view)),
+                () -> assertEquals("Bonds", StandardCharsets.UTF_8.decode(page.record(1, view)).toString()),
+                () -> assertEquals("Albert", StandardCharsets.UTF_8.decode(page.record(2, view)).toString()),
+                () -> assertTrue(view.isReadOnly())
+        );
+    }
+
     public List<String> collect(byte[] readBuffer, PageIterator itr) {
         List<String> records = new ArrayList<>();
         while (itr.hasNext()) {
@@ -0,0 +1,131 @@
+package query.timeseries;
+
+import model.avro.EventInfo;
+import model.avro.LightTaxiRide;
+import org.junit.jupiter.api.Test;
+import query.timeseries.id.EventIdGenerator;
+import query.timeseries.id.KeyMode;
+import query.timeseries.id.PackedTimeIdGenerator;
+import query.timeseries.id.SystemTimeIdGenerator;
+import query.timeseries.sst.ScanOrder;
+import query.timeseries.sst.memory.InMemorySSTable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static java.util.stream.IntStream.range;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class KeyModeTest {
+
+    @Test
+    public void packed_keys_sort_as_their_values() {
+        List<Long> values = new ArrayList<>();
+        range(0, 10_000).forEach(i -> values.add(ThreadLocalRandom.current().nextLong()));
+        values.add(Long.MIN_VALUE);
+        values.add(Long.MAX_VALUE);
+        values.add(0L);
+        values.add(-1L);
+
+        List<String> keys = new ArrayList<>();
+        values.forEach(value -> keys.add(KeyMode.encode(value)));
+        values.sort(null);
+        keys.sort(null);
+
+        List<Long> decoded = new ArrayList<>();
+        keys.forEach(key -> decoded.add(KeyMode.decode(key)));
+
+        assertAll(
+                () -> assertEquals(values, decoded),
+                () -> assertTrue(keys.stream().allMatch(key -> key.length() == KeyMode.PACKED_LENGTH))
+        );
+    }
+
+    @Test
+    public void bound_events_of_time_in_every_mode() {
+        LocalDateTime time = LocalDateTime.of(2020, 1, 1, 18, 30, 15);
+        long ms = time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+
+        for (EventIdGenerator generator : new EventIdGenerator[]{new SystemTimeIdGenerator(10_000), new PackedTimeIdGenerator()}) {
+            KeyMode keys = generator.keys();
+            String event = generator.next(ms);
+            String before = generator.next(ms - 1_000);
+            assertAll(
+                    () -> assertEquals(time, keys.time(event)),
+                    () -> assertTrue(event.compareTo(keys.from(time)) >= 0),
+                    () -> assertTrue(event.compareTo(keys.to(time)) > 0),
+                    () -> assertTrue(before.compareTo(keys.from(time)) < 0),
+                    () -> assertTrue(before.compareTo(keys.to(time)) <= 0)
+            );
+        }
+    }
+
+    @Test
+    public void query_store_of_packed_keys() {
+        TimeSeriesStore db = TimeSeriesStore.persistence(new InMemorySSTable<>(100), KeyMode.PACKED);
+        db.addRollup(Duration.ofHours(1));
+        db.register(LightTaxiRide.class, () -> {
+            EventIdGenerator generator = new PackedTimeIdGenerator();
+            return row -> {
+                LightTaxiRide ride = (LightTaxiRide) row;
+                String eventId = generator.next(ride.getPickupTime());
+                Map<CharSequence, Integer> tags = new HashMap<>();
+                tags.put("total_amount", (int) ride.getTotalAmount());
+                tags.put("hour", generator.keys().time(eventId).getHour());
+                return EventInfo.newBuilder()
+                        .setEventBody(toBytes(ride))
+                        .setEventType("TAXI_RIDE")
+                        .setEventTime(eventId)
+                        .setTags(tags)
+                        .build();
+            };
+        });
+
+        LocalDateTime base = LocalDateTime.of(2020, 1, 1, 0, 0);
+        range(0, 3_000).forEach(t -> {
+            long pickTime = base.plusMinutes(t).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            db.insert(LightTaxiRide.newBuilder()
+                    .setPickupTime(pickTime)
+                    .setDropOffTime(pickTime)
+                    .setPassengerCount(2)
+                    .setTripDistance(2)
+                    .setTotalAmount(t % 50)
+                    .build());
+        });
+
+        List<String> latest = new ArrayList<>();
+        db.between(base.plusHours(10), base.plusHours(11), ScanOrder.DESC, e -> latest.add(e.getEventTime().toString()));
+        Map<String, Integer> evening = new HashMap<>();
+        evening.put("hour", 18);
+        List<EventInfo> rides = new ArrayList<>();
+        db.between(base, base.plusDays(1), evening, rides::add);
+        Map<AggFn, Double> count = db.aggregate(base.plusMinutes(30), base.plusHours(30).plusMinutes(15), "total_amount", AggFn.COUNT);
+
+        assertAll(
+                () -> assertEquals(60, latest.size()),
+                () -> assertEquals(base.plusHours(10).plusMinutes(59), KeyMode.PACKED.time(latest.get(0))),
+                () -> assertEquals(base.plusHours(10), KeyMode.PACKED.time(latest.get(59))),
+                () -> assertEquals(60, rides.size()),
+                () -> assertEquals(30 * 60 - 15, count.get(AggFn.COUNT))
+        );
+    }
+
+    private static ByteBuffer toBytes(LightTaxiRide ride) {
+        try {
+            return ride.toByteBuffer();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
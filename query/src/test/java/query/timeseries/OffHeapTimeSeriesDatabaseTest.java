@@ -0,0 +1,28 @@
+package query.timeseries;
+
+import model.avro.EventInfo;
+import query.timeseries.sst.disk.RecordSerializer;
+import query.timeseries.sst.memory.OffHeapSSTable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+public class OffHeapTimeSeriesDatabaseTest extends TimeSeriesStoreContractTest {
+    @Override
+    void create() {
+        RecordSerializer<EventInfo> serializer = new RecordSerializer<>(1024, e -> {
+            try {
+                return e.toByteBuffer().array();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }, b -> {
+            try {
+                return EventInfo.fromByteBuffer(b);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }, e -> e.getEventTime().toString());
+        db = TimeSeriesStore.persistence(new OffHeapSSTable<>(16 * 1024, serializer));
+    }
+}
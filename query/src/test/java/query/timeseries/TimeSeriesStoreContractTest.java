@@ -6,17 +6,25 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import query.timeseries.id.EventIdGenerator;
 import query.timeseries.id.SystemTimeIdGenerator;
+import query.timeseries.sst.ScanOrder;
+import query.timeseries.sst.TagFilter;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
+import java.util.function.IntConsumer;
 
 import static java.util.stream.IntStream.range;
 import static org.junit.jupiter.api.Assertions.*;
@@ -218,6 +226,261 @@ abstract public class TimeSeriesStoreContractTest {
         assertEquals(10_000, l.get());
     }
 
+    @Test
+    public void lookup_event_by_id() {
+
+        db.register(LightTaxiRide.class, () -> {
+            EventIdGenerator generator = new SystemTimeIdGenerator(10_000);
+            return toEventInfo(generator);
+        });
+
+        EventInfo[] events = range(0, 100).mapToObj(t -> {
+            long pickTime = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(t);
+            return LightTaxiRide.newBuilder()
+                    .setPickupTime(pickTime)
+                    .setDropOffTime(pickTime)
+                    .setPassengerCount(2)
+                    .setTripDistance(2)
+                    .setTotalAmount(20)
+                    .build();
+        }).map(db::insert).toArray(EventInfo[]::new);
+
+        assertAll(
+                // Store that serializes records returns a copy, compared by content
+                () -> assertEquals(events[0].toString(), db.get(events[0].getEventTime().toString()).toString()),
+                () -> assertEquals(events[99].toString(), db.get(events[99].getEventTime().toString()).toString()),
+                () -> assertNull(db.get("19700101000000/1"))
+        );
+    }
+
+    @Test
+    public void query_events_in_time_order() {
+
+        db.register(LightTaxiRide.class, () -> {
+            EventIdGenerator generator = new SystemTimeIdGenerator(10_000);
+            return toEventInfo(generator);
+        });
+
+        // Events arrive out of time order
+        long now = System.currentTimeMillis();
+        range(0, 1_000).mapToObj(t -> {
+            long pickTime = now + TimeUnit.MINUTES.toMillis((t * 7919L) % 1_000);
+            return LightTaxiRide.newBuilder()
+                    .setPickupTime(pickTime)
+                    .setDropOffTime(pickTime)
+                    .setPassengerCount(2)
+                    .setTripDistance(2)
+                    .setTotalAmount(20)
+                    .build();
+        }).forEach(db::insert);
+
+        List<String> ascending = new ArrayList<>();
+        db.gt(LocalDateTime.now().minusDays(1), ScanOrder.ASC, e -> ascending.add(e.getEventTime().toString()));
+
+        List<String> descending = new ArrayList<>();
+        db.between(LocalDateTime.now().minusDays(1), LocalDateTime.now().plusDays(10), ScanOrder.DESC, e -> descending.add(e.getEventTime().toString()));
+
+        List<String> latest = new ArrayList<>();
+        db.lt(LocalDateTime.now().plusDays(10), ScanOrder.DESC, e -> {
+            latest.add(e.getEventTime().toString());
+            return latest.size() < 10;
+        });
+
+        List<String> sorted = new ArrayList<>(ascending);
+        Collections.sort(sorted);
+        List<String> reversed = new ArrayList<>(sorted);
+        Collections.reverse(reversed);
+        assertAll(
+                () -> assertEquals(1_000, ascending.size()),
+                () -> assertEquals(sorted, ascending),
+                () -> assertEquals(reversed, descending),
+                () -> assertEquals(reversed.subList(0, 10), latest)
+        );
+    }
+
+    @Test
+    public void aggregate_tag_of_events_in_range() {
+
+        db.register(LightTaxiRide.class, () -> {
+            EventIdGenerator generator = new SystemTimeIdGenerator(10_000);
+            return toEventInfo(generator);
+        });
+
+        range(0, 1_000).mapToObj(t -> {
+            long pickTime = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(t);
+            return LightTaxiRide.newBuilder()
+                    .setPickupTime(pickTime)
+                    .setDropOffTime(pickTime)
+                    .setPassengerCount(2)
+                    .setTripDistance(2)
+                    .setTotalAmount(t % 50)
+                    .build();
+        }).forEach(db::insert);
+
+        Map<AggFn, Double> values = db.aggregate(LocalDateTime.now().minusDays(1), LocalDateTime.now().plusDays(10), "total_amount",
+                AggFn.COUNT, AggFn.SUM, AggFn.MIN, AggFn.MAX, AggFn.AVG);
+        Map<AggFn, Double> missing = db.aggregate(LocalDateTime.now().minusDays(1), LocalDateTime.now().plusDays(10), "tip_amount", AggFn.COUNT, AggFn.AVG);
+
+        assertAll(
+                () -> assertEquals(1_000, values.get(AggFn.COUNT)),
+                () -> assertEquals(24_500, values.get(AggFn.SUM)),
+                () -> assertEquals(0, values.get(AggFn.MIN)),
+                () -> assertEquals(49, values.get(AggFn.MAX)),
+                () -> assertEquals(24.5, values.get(AggFn.AVG)),
+                () -> assertEquals(0, missing.get(AggFn.COUNT)),
+                () -> assertTrue(missing.get(AggFn.AVG).isNaN())
+        );
+    }
+
+    @Test
+    public void aggregate_tag_from_rollups() {
+
+        db.register(LightTaxiRide.class, () -> {
+            EventIdGenerator generator = new SystemTimeIdGenerator(10_000);
+            return toEventInfo(generator);
+        });
+        db.addRollup(Duration.ofMinutes(1));
+        db.addRollup(Duration.ofDays(1));
+        db.addRollup(Duration.ofHours(1));
+
+        LocalDateTime base = LocalDateTime.of(2020, 1, 1, 0, 0);
+        List<LocalDateTime> times = new ArrayList<>();
+        range(0, 3_000).forEach(t -> {
+            LocalDateTime time = base.plusMinutes(t * 7L).plusSeconds(t % 60);
+            times.add(time);
+            long pickTime = time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            db.insert(LightTaxiRide.newBuilder()
+                    .setPickupTime(pickTime)
+                    .setDropOffTime(pickTime)
+                    .setPassengerCount(2)
+                    .setTripDistance(2)
+                    .setTotalAmount(t % 50)
+                    .build());
+        });
+
+        LocalDateTime from = base.plusDays(1).plusHours(3).plusMinutes(17).plusSeconds(5);
+        LocalDateTime to = base.plusDays(12).plusMinutes(2).plusSeconds(30);
+        double count = 0, sum = 0, max = Double.NEGATIVE_INFINITY;
+        for (int t = 0; t < times.size(); t++) {
+            if (!times.get(t).isBefore(from) && times.get(t).isBefore(to)) {
+                count++;
+                sum += t % 50;
+                max = Math.max(max, t % 50);
+            }
+        }
+        Map<AggFn, Double> unaligned = db.aggregate(from, to, "total_amount", AggFn.COUNT, AggFn.SUM, AggFn.MAX);
+        Map<AggFn, Double> days = db.aggregate(base.plusDays(2), base.plusDays(4), "total_amount", AggFn.COUNT);
+
+        double expectedCount = count, expectedSum = sum, expectedMax = max;
+        assertAll(
+                () -> assertEquals(expectedCount, unaligned.get(AggFn.COUNT)),
+                () -> assertEquals(expectedSum, unaligned.get(AggFn.SUM)),
+                () -> assertEquals(expectedMax, unaligned.get(AggFn.MAX)),
+                () -> assertEquals(times.stream().filter(t -> !t.isBefore(base.plusDays(2)) && t.isBefore(base.plusDays(4))).count(), days.get(AggFn.COUNT))
+        );
+    }
+
+    @Test
+    public void aggregate_events_stored_before_rollup_was_added() {
+
+        db.register(LightTaxiRide.class, () -> {
+            EventIdGenerator generator = new SystemTimeIdGenerator(10_000);
+            return toEventInfo(generator);
+        });
+
+        LocalDateTime base = LocalDateTime.of(2020, 1, 1, 0, 0);
+        IntConsumer insert = t -> {
+            long pickTime = base.plusMinutes(t).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            db.insert(LightTaxiRide.newBuilder()
+                    .setPickupTime(pickTime)
+                    .setDropOffTime(pickTime)
+                    .setPassengerCount(2)
+                    .setTripDistance(2)
+                    .setTotalAmount(1)
+                    .build());
+        };
+        range(0, 1_500).forEach(insert);
+        db.addRollup(Duration.ofHours(1));
+        range(1_500, 3_000).forEach(insert);
+
+        Map<AggFn, Double> all = db.aggregate(base, base.plusDays(3), "total_amount", AggFn.COUNT);
+        Map<AggFn, Double> before = db.aggregate(base.plusHours(2), base.plusHours(20), "total_amount", AggFn.COUNT);
+        Map<AggFn, Double> across = db.aggregate(base.plusHours(20).plusMinutes(10), base.plusHours(40), "total_amount", AggFn.COUNT);
+
+        assertAll(
+                () -> assertEquals(3_000, all.get(AggFn.COUNT)),
+                () -> assertEquals(18 * 60, before.get(AggFn.COUNT)),
+                () -> assertEquals(20 * 60 - 10, across.get(AggFn.COUNT))
+        );
+    }
+
+    @Test
+    public void aggregate_excludes_end_second() {
+
+        db.register(LightTaxiRide.class, () -> {
+            EventIdGenerator generator = new SystemTimeIdGenerator(10_000);
+            return toEventInfo(generator);
+        });
+        db.addRollup(Duration.ofSeconds(1));
+
+        LocalDateTime base = LocalDateTime.of(2020, 1, 1, 0, 0);
+        range(0, 3).forEach(t -> {
+            long pickTime = base.plusSeconds(t).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            db.insert(LightTaxiRide.newBuilder()
+                    .setPickupTime(pickTime)
+                    .setDropOffTime(pickTime)
+                    .setPassengerCount(2)
+                    .setTripDistance(2)
+                    .setTotalAmount(1)
+                    .build());
+        });
+
+        assertAll(
+                () -> assertEquals(0, db.aggregate(base, base, "total_amount", AggFn.COUNT).get(AggFn.COUNT)),
+                () -> assertEquals(1, db.aggregate(base, base.plusSeconds(1), "total_amount", AggFn.COUNT).get(AggFn.COUNT)),
+                () -> assertEquals(2, db.aggregate(base.plusSeconds(1), base.plusSeconds(3), "total_amount", AggFn.COUNT).get(AggFn.COUNT)),
+                () -> assertEquals(1, db.aggregate(base.plusSeconds(2).plusNanos(500_000_000), base.plusSeconds(3), "total_amount", AggFn.COUNT).get(AggFn.COUNT))
+        );
+    }
+
+    @Test
+    public void query_events_by_tag_value() {
+
+        db.register(LightTaxiRide.class, () -> {
+            EventIdGenerator generator = new SystemTimeIdGenerator(10_000);
+            return toEventInfo(generator);
+        });
+
+        LocalDateTime base = LocalDateTime.of(2020, 1, 1, 0, 0);
+        range(0, 3_000).forEach(t -> {
+            long pickTime = base.plusMinutes(t).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            db.insert(LightTaxiRide.newBuilder()
+                    .setPickupTime(pickTime)
+                    .setDropOffTime(pickTime)
+                    .setPassengerCount(2)
+                    .setTripDistance(2)
+                    .setTotalAmount(t % 50)
+                    .build());
+        });
+
+        Map<String, Integer> evening = new HashMap<>();
+        evening.put("hour", 18);
+        List<EventInfo> rides = new ArrayList<>();
+        db.between(base, base.plusDays(1), evening, rides::add);
+
+        Map<String, Integer> eveningFare = new HashMap<>(evening);
+        eveningFare.put("total_amount", 10);
+        List<EventInfo> fares = new ArrayList<>();
+        db.between(base, base.plusDays(3), eveningFare, fares::add);
+
+        assertAll(
+                () -> assertEquals(60, rides.size()),
+                () -> assertTrue(rides.stream().allMatch(e -> e.getEventTime().toString().startsWith("2020010118"))),
+                () -> assertEquals(range(0, 3_000).filter(t -> t / 60 % 24 == 18 && t % 50 == 10).count(), fares.size()),
+                () -> assertTrue(fares.stream().allMatch(e -> TagFilter.matches(e.getTags(), eveningFare)))
+        );
+    }
+
     private Function<Object, EventInfo> toEventInfo(EventIdGenerator generator) {
         return row -> {
             LightTaxiRide value = (LightTaxiRide) row;
@@ -0,0 +1,43 @@
+package query.timeseries.sst;
+
+import org.junit.jupiter.api.Test;
+
+import static java.util.stream.IntStream.range;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BloomFilterTest {
+
+    @Test
+    public void never_miss_added_key() {
+
+        BloomFilter filter = BloomFilter.create(1000, 10);
+        range(0, 1000).forEach(i -> filter.add("key" + i));
+
+        assertTrue(range(0, 1000).allMatch(i -> filter.mightContain("key" + i)));
+    }
+
+    @Test
+    public void false_positive_rate_is_bounded_by_bits_per_key() {
+
+        BloomFilter filter = BloomFilter.create(1000, 10);
+        range(0, 1000).forEach(i -> filter.add("key" + i));
+
+        long falsePositive = range(0, 10_000).filter(i -> filter.mightContain("missing" + i)).count();
+
+        assertTrue(falsePositive < 300, "False positive " + falsePositive);
+    }
+
+    @Test
+    public void restore_filter_from_bytes() {
+
+        BloomFilter filter = BloomFilter.create(100, 10);
+        range(0, 100).forEach(i -> filter.add("key" + i));
+
+        BloomFilter restored = BloomFilter.fromBytes(filter.toBytes());
+
+        assertAll(
+                () -> assertTrue(range(0, 100).allMatch(i -> restored.mightContain("key" + i))),
+                () -> assertEquals(filter.toBytes(), restored.toBytes())
+        );
+    }
+}
@@ -0,0 +1,32 @@
+package query.timeseries.sst;
+
+import org.junit.jupiter.api.Test;
+import query.timeseries.sst.disk.Compactor;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompactorTest {
+
+    @Test
+    public void keep_failure_of_background_run_and_throw_it() throws InterruptedException {
+
+        CountDownLatch failed = new CountDownLatch(1);
+        Compactor compactor = new Compactor("failing", () -> {
+            failed.countDown();
+            throw new IllegalArgumentException("Broken generation");
+        });
+
+        compactor.generationAdded();
+        assertTrue(failed.await(10, TimeUnit.SECONDS));
+
+        IllegalStateException onClose = assertThrows(IllegalStateException.class, compactor::close);
+        assertAll(
+                () -> assertEquals("Broken generation", onClose.getCause().getMessage()),
+                () -> assertThrows(IllegalStateException.class, compactor::generationAdded),
+                () -> assertEquals(0, compactor.compactions())
+        );
+    }
+}
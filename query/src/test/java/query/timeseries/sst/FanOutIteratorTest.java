@@ -0,0 +1,82 @@
+package query.timeseries.sst;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FanOutIteratorTest {
+
+    @Test
+    public void return_results_in_task_order() {
+
+        ForkJoinPool pool = new ForkJoinPool(2);
+        List<Callable<List<Integer>>> tasks = new ArrayList<>();
+        for (int task = 0; task < 10; task++) {
+            int value = task;
+            tasks.add(() -> asList(value * 2, value * 2 + 1));
+        }
+
+        List<Integer> results = new ArrayList<>();
+        try (FanOutIterator<Integer> iterator = new FanOutIterator<>(tasks, pool, 3)) {
+            iterator.forEachRemaining(results::add);
+        }
+        pool.shutdown();
+
+        assertEquals(20, results.size());
+        for (int index = 0; index < results.size(); index++) {
+            assertEquals(index, results.get(index));
+        }
+    }
+
+    @Test
+    public void close_waits_for_running_tasks_and_skips_others() throws InterruptedException {
+
+        ForkJoinPool pool = new ForkJoinPool(2);
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicBoolean finished = new AtomicBoolean();
+        AtomicInteger ran = new AtomicInteger();
+
+        List<Callable<List<Integer>>> tasks = new ArrayList<>();
+        tasks.add(() -> Collections.singletonList(0));
+        tasks.add(() -> {
+            ran.incrementAndGet();
+            started.countDown();
+            Thread.sleep(200);
+            finished.set(true);
+            return Collections.singletonList(1);
+        });
+        for (int task = 2; task < 100; task++) {
+            tasks.add(() -> {
+                ran.incrementAndGet();
+                return Collections.singletonList(-1);
+            });
+        }
+
+        FanOutIterator<Integer> iterator = new FanOutIterator<>(tasks, pool, 4);
+        assertEquals(0, iterator.next());
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        iterator.close();
+        boolean finishedAtClose = finished.get();
+        int ranAtClose = ran.get();
+        pool.shutdown();
+        pool.awaitTermination(10, TimeUnit.SECONDS);
+
+        assertAll(
+                () -> assertTrue(finishedAtClose),
+                () -> assertEquals(ranAtClose, ran.get()),
+                () -> assertTrue(ranAtClose <= 5, "Ran " + ranAtClose),
+                () -> assertFalse(iterator.hasNext())
+        );
+    }
+}
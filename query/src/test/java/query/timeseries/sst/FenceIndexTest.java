@@ -0,0 +1,81 @@
+package query.timeseries.sst;
+
+import model.avro.page.SSTablePage;
+import org.junit.jupiter.api.Test;
+import query.timeseries.sst.disk.FenceIndex;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FenceIndexTest {
+
+    @Test
+    public void keep_pages_sorted_by_min_key() {
+
+        FenceIndex index = FenceIndex.of(asList(page(2, "c", "d"), page(1, "a", "b")))
+                .add(asList(page(3, "b", "c")));
+
+        assertAll(
+                () -> assertEquals(3, index.size()),
+                () -> assertEquals(1, index.pageId(0)),
+                () -> assertEquals(3, index.pageId(1)),
+                () -> assertEquals(2, index.pageId(2))
+        );
+    }
+
+    @Test
+    public void visit_only_overlapping_pages() {
+
+        FenceIndex index = FenceIndex.of(asList(
+                page(1, "a", "b"),
+                page(2, "c", "d"),
+                page(3, "e", "f"),
+                page(4, "g", "h")));
+
+        assertAll(
+                () -> assertIterableEquals(asList(2, 3), pages(index, "d", "e")),
+                () -> assertIterableEquals(asList(3, 4), pages(index, "ee", null)),
+                () -> assertIterableEquals(asList(1, 2), pages(index, null, "c")),
+                () -> assertIterableEquals(asList(2), pages(index, "cc", "cd")),
+                () -> assertIterableEquals(asList(), pages(index, "x", null))
+        );
+    }
+
+    @Test
+    public void include_long_page_that_overlaps_later_pages() {
+
+        FenceIndex index = FenceIndex.of(asList(
+                page(1, "a", "z"),
+                page(2, "c", "d"),
+                page(3, "e", "f")));
+
+        assertIterableEquals(asList(1, 3), pages(index, "ee", "ef"));
+    }
+
+    @Test
+    public void stop_scan_when_visitor_returns_false() {
+
+        FenceIndex index = FenceIndex.of(asList(page(1, "a", "b"), page(2, "c", "d"), page(3, "e", "f")));
+
+        List<Integer> visited = new ArrayList<>();
+        index.scan("a", null, position -> {
+            visited.add(index.pageId(position));
+            return visited.size() < 2;
+        });
+
+        assertIterableEquals(asList(1, 2), visited);
+    }
+
+    private List<Integer> pages(FenceIndex index, String from, String to) {
+        List<Integer> pages = new ArrayList<>();
+        index.scan(from, to, position -> pages.add(index.pageId(position)));
+        return pages;
+    }
+
+    private SSTablePage page(int pageId, String min, String max) {
+        return SSTablePage.newBuilder().setPageId(pageId).setMinValue(min).setMaxValue(max).setOffSet(pageId * 1024L).build();
+    }
+}
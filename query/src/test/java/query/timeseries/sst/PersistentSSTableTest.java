@@ -2,29 +2,56 @@ package query.timeseries.sst;
 
 import model.avro.EventInfo;
 import model.avro.LightTaxiRide;
+import model.avro.RollupPartial;
+import model.avro.page.StoreManifest;
 import org.jetbrains.annotations.NotNull;
 import org.junit.jupiter.api.Test;
+import query.page.allocator.PageCodec;
+import query.page.buffer.BufferPool;
+import query.timeseries.AggFn;
 import query.timeseries.TimeSeriesStore;
 import query.timeseries.id.EventIdGenerator;
+import query.timeseries.id.KeyMode;
 import query.timeseries.id.SystemTimeIdGenerator;
+import query.timeseries.impl.Rollup;
+import query.timeseries.sst.disk.ColumnSchema;
+import query.timeseries.sst.disk.Manifest;
 import query.timeseries.sst.disk.PersistentSSTable;
 import query.timeseries.sst.disk.RecordSerializer;
 import query.timeseries.sst.disk.StoreLocation;
+import query.timeseries.sst.disk.StoreOptions;
+import query.timeseries.sst.disk.TimePartitions;
 import query.timeseries.sst.memory.InMemorySSTable;
+import query.timeseries.sst.memory.OffHeapSSTable;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Collectors;
 
 import static java.util.stream.IntStream.range;
 import static org.junit.jupiter.api.Assertions.*;
@@ -120,6 +147,1174 @@ public class PersistentSSTableTest {
         assertEquals(0, counter.get());
     }
 
+    @Test
+    public void read_records_from_compressed_pages() {
+
+        File storeLocation = new File(System.getProperty("java.io.tmpdir"), "events-compressed");
+        storeLocation.mkdirs();
+        Arrays.stream(storeLocation.listFiles()).forEach(File::delete);
+
+        RecordSerializer<EventInfo> eventInfoRecordSerializer = new RecordSerializer<>(KB, toBytes(), b -> fromBytes(b), e -> e.getEventTime().toString());
+        StoreLocation location = new StoreLocation(storeLocation, "taxi_events");
+        StoreOptions options = StoreOptions.defaults().withPageCompression(PageCodec.DEFLATE);
+
+        SortedStringTable<EventInfo> store = new PersistentSSTable<>(new InMemorySSTable<>(500), location, eventInfoRecordSerializer, options);
+        TimeSeriesStore db = TimeSeriesStore.persistence(store);
+        db.register(LightTaxiRide.class, () -> {
+            EventIdGenerator generator = new SystemTimeIdGenerator(10_000);
+            return toEventInfo(generator);
+        });
+
+        long start = System.currentTimeMillis();
+        insertRecords(db, start);
+        store.flush();
+
+        TimeSeriesStore reopened = TimeSeriesStore.persistence(new PersistentSSTable<>(new InMemorySSTable<>(500), location, eventInfoRecordSerializer, options));
+
+        LocalDateTime from = LocalDateTime.ofInstant(Instant.ofEpochMilli(start), ZoneId.systemDefault()).plusHours(1);
+        AtomicInteger counter = new AtomicInteger();
+        reopened.between(from, from.plusHours(1), x -> {
+            counter.incrementAndGet();
+            return true;
+        });
+        long dataBytes = Paths.get(storeLocation.getAbsolutePath(), "taxi_events.1.data").toFile().length();
+
+        assertAll(
+                () -> assertEquals(60, counter.get()),
+                () -> assertTrue(dataBytes < 9_500 * 130 / 2, "Data bytes " + dataBytes)
+        );
+    }
+
+    @Test
+    public void read_records_from_mapped_pages() {
+
+        File storeLocation = new File(System.getProperty("java.io.tmpdir"), "events-mapped");
+        storeLocation.mkdirs();
+        Arrays.stream(storeLocation.listFiles()).forEach(File::delete);
+
+        RecordSerializer<EventInfo> eventInfoRecordSerializer = new RecordSerializer<>(KB, toBytes(), b -> fromBytes(b), e -> e.getEventTime().toString());
+        StoreLocation location = new StoreLocation(storeLocation, "taxi_events");
+        StoreOptions options = StoreOptions.defaults().withMappedPages();
+
+        SortedStringTable<EventInfo> store = new PersistentSSTable<>(new InMemorySSTable<>(500), location, eventInfoRecordSerializer, options);
+        TimeSeriesStore db = TimeSeriesStore.persistence(store);
+        db.register(LightTaxiRide.class, () -> {
+            EventIdGenerator generator = new SystemTimeIdGenerator(10_000);
+            return toEventInfo(generator);
+        });
+
+        long start = System.currentTimeMillis();
+        insertRecords(db, start);
+        store.flush();
+
+        TimeSeriesStore reopened = TimeSeriesStore.persistence(new PersistentSSTable<>(new InMemorySSTable<>(500), location, eventInfoRecordSerializer, options));
+
+        LocalDateTime from = LocalDateTime.ofInstant(Instant.ofEpochMilli(start), ZoneId.systemDefault()).plusHours(1);
+        AtomicInteger counter = new AtomicInteger();
+        reopened.between(from, from.plusHours(1), x -> {
+            counter.incrementAndGet();
+            return true;
+        });
+
+        assertEquals(60, counter.get());
+    }
+
+    @Test
+    public void read_records_by_range_after_reopen() {
+
+        File storeLocation = new File(System.getProperty("java.io.tmpdir"), "events-reopen");
+        storeLocation.mkdirs();
+        Arrays.stream(storeLocation.listFiles()).forEach(File::delete);
+
+        RecordSerializer<EventInfo> eventInfoRecordSerializer = new RecordSerializer<>(KB, toBytes(), b -> fromBytes(b), e -> e.getEventTime().toString());
+        StoreLocation location = new StoreLocation(storeLocation, "taxi_events");
+
+        SortedStringTable<EventInfo> store = new PersistentSSTable<>(new InMemorySSTable<>(500), location, eventInfoRecordSerializer);
+        TimeSeriesStore db = TimeSeriesStore.persistence(store);
+        db.register(LightTaxiRide.class, () -> {
+            EventIdGenerator generator = new SystemTimeIdGenerator(10_000);
+            return toEventInfo(generator);
+        });
+
+        long start = System.currentTimeMillis();
+        insertRecords(db, start);
+        store.flush();
+
+        TimeSeriesStore reopened = TimeSeriesStore.persistence(new PersistentSSTable<>(new InMemorySSTable<>(500), location, eventInfoRecordSerializer));
+
+        LocalDateTime from = LocalDateTime.ofInstant(Instant.ofEpochMilli(start), ZoneId.systemDefault()).plusHours(1);
+        AtomicInteger counter = new AtomicInteger();
+        reopened.between(from, from.plusHours(1), x -> {
+            counter.incrementAndGet();
+            return true;
+        });
+
+        assertEquals(60, counter.get());
+    }
+
+    @Test
+    public void lookup_records_by_key_using_bloom_filter() {
+
+        File storeLocation = new File(System.getProperty("java.io.tmpdir"), "events-lookup");
+        storeLocation.mkdirs();
+        Arrays.stream(storeLocation.listFiles()).forEach(File::delete);
+
+        RecordSerializer<EventInfo> eventInfoRecordSerializer = new RecordSerializer<>(KB, toBytes(), b -> fromBytes(b), e -> e.getEventTime().toString());
+        PersistentSSTable<EventInfo> store = new PersistentSSTable<>(new InMemorySSTable<>(500), new StoreLocation(storeLocation, "taxi_events"), eventInfoRecordSerializer);
+        TimeSeriesStore db = TimeSeriesStore.persistence(store);
+        db.register(LightTaxiRide.class, () -> {
+            EventIdGenerator generator = new SystemTimeIdGenerator(10_000);
+            return toEventInfo(generator);
+        });
+
+        List<EventInfo> events = new ArrayList<>();
+        range(0, 5_000).mapToObj(t -> {
+            long pickTime = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(t);
+            return LightTaxiRide.newBuilder()
+                    .setPickupTime(pickTime)
+                    .setDropOffTime(pickTime)
+                    .setPassengerCount(2)
+                    .setTripDistance(2)
+                    .setTotalAmount(20)
+                    .build();
+        }).forEach(ride -> events.add(db.insert(ride)));
+        store.flush();
+
+        EventInfo flushed = events.get(100);
+        EventInfo inMemory = events.get(events.size() - 1);
+        long readsBefore = store.dataPagesRead();
+
+        assertAll(
+                () -> assertEquals(flushed.toString(), db.get(flushed.getEventTime().toString()).toString()),
+                () -> assertEquals(inMemory, db.get(inMemory.getEventTime().toString())),
+                () -> assertEquals(1, store.dataPagesRead() - readsBefore)
+        );
+
+        long readsBeforeMissing = store.dataPagesRead();
+        long found = events.stream()
+                .limit(1_000)
+                .map(e -> e.getEventTime().toString() + "0")
+                .filter(key -> db.get(key) != null)
+                .count();
+
+        assertAll(
+                () -> assertEquals(0, found),
+                () -> assertTrue(store.dataPagesRead() - readsBeforeMissing < 50, "Data pages read " + (store.dataPagesRead() - readsBeforeMissing))
+        );
+    }
+
+    @Test
+    public void flush_sealed_pages_in_background() throws InterruptedException {
+
+        File storeLocation = new File(System.getProperty("java.io.tmpdir"), "events-background");
+        storeLocation.mkdirs();
+        Arrays.stream(storeLocation.listFiles()).forEach(File::delete);
+
+        RecordSerializer<EventInfo> eventInfoRecordSerializer = new RecordSerializer<>(KB, toBytes(), b -> fromBytes(b), e -> e.getEventTime().toString());
+        StoreOptions options = StoreOptions.defaults().withBackgroundFlush(2);
+        AtomicInteger maxPending = new AtomicInteger();
+
+        try (PersistentSSTable<EventInfo> store = new PersistentSSTable<>(new InMemorySSTable<>(100), new StoreLocation(storeLocation, "taxi_events"), eventInfoRecordSerializer, options)) {
+            TimeSeriesStore db = TimeSeriesStore.persistence(store);
+            db.register(LightTaxiRide.class, () -> {
+                EventIdGenerator generator = new SystemTimeIdGenerator(10_000);
+                return toEventInfo(generator);
+            });
+
+            range(0, 10_000).mapToObj(t -> {
+                long pickTime = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(t);
+                return LightTaxiRide.newBuilder()
+                        .setPickupTime(pickTime)
+                        .setDropOffTime(pickTime)
+                        .setPassengerCount(2)
+                        .setTripDistance(2)
+                        .setTotalAmount(20)
+                        .build();
+            }).forEach(ride -> {
+                db.insert(ride);
+                maxPending.accumulateAndGet(store.buffers().size(), Math::max);
+            });
+
+            for (int attempt = 0; attempt < 100 && !store.buffers().isEmpty(); attempt++) {
+                TimeUnit.MILLISECONDS.sleep(50);
+            }
+
+            AtomicInteger counter = new AtomicInteger();
+            db.gt(LocalDateTime.now().minusDays(1), x -> {
+                counter.incrementAndGet();
+                return true;
+            });
+
+            assertAll(
+                    () -> assertEquals(0, store.buffers().size()),
+                    () -> assertTrue(maxPending.get() <= 3, "Max pending pages " + maxPending.get()),
+                    () -> assertTrue(store.dataPagesRead() > 0),
+                    () -> assertEquals(10_000, counter.get())
+            );
+        }
+    }
+
+    @Test
+    public void recover_buffered_records_from_write_ahead_log() {
+
+        File storeLocation = new File(System.getProperty("java.io.tmpdir"), "events-wal");
+        storeLocation.mkdirs();
+        Arrays.stream(storeLocation.listFiles()).forEach(File::delete);
+
+        RecordSerializer<EventInfo> eventInfoRecordSerializer = new RecordSerializer<>(KB, toBytes(), b -> fromBytes(b), e -> e.getEventTime().toString());
+        StoreLocation location = new StoreLocation(storeLocation, "taxi_events");
+        StoreOptions options = StoreOptions.defaults().withWriteAheadLog(64 * KB, 10);
+
+        PersistentSSTable<EventInfo> store = new PersistentSSTable<>(new InMemorySSTable<>(100), location, eventInfoRecordSerializer, options);
+        TimeSeriesStore db = TimeSeriesStore.persistence(store);
+        db.register(LightTaxiRide.class, () -> {
+            EventIdGenerator generator = new SystemTimeIdGenerator(10_000);
+            return toEventInfo(generator);
+        });
+
+        long start = System.currentTimeMillis();
+        range(0, 1_000).mapToObj(t -> LightTaxiRide.newBuilder()
+                .setPickupTime(start + TimeUnit.MINUTES.toMillis(t))
+                .setDropOffTime(start + TimeUnit.MINUTES.toMillis(t))
+                .setPassengerCount(2)
+                .setTripDistance(2)
+                .setTotalAmount(20)
+                .build()).forEach(db::insert);
+        store.flush();
+        int segmentsAfterFlush = segments(storeLocation);
+
+        range(1_000, 1_500).mapToObj(t -> LightTaxiRide.newBuilder()
+                .setPickupTime(start + TimeUnit.MINUTES.toMillis(t))
+                .setDropOffTime(start + TimeUnit.MINUTES.toMillis(t))
+                .setPassengerCount(2)
+                .setTripDistance(2)
+                .setTotalAmount(20)
+                .build()).forEach(db::insert);
+
+        // Store is not closed, process is treated as crashed
+        TimeSeriesStore reopened = TimeSeriesStore.persistence(new PersistentSSTable<>(new InMemorySSTable<>(100), location, eventInfoRecordSerializer, options));
+
+        AtomicInteger counter = new AtomicInteger();
+        reopened.gt(LocalDateTime.now().minusDays(1), x -> {
+            counter.incrementAndGet();
+            return true;
+        });
+
+        assertAll(
+                () -> assertEquals(1, segmentsAfterFlush),
+                () -> assertEquals(1_500, counter.get())
+        );
+    }
+
+    @Test
+    public void read_pages_ahead_of_sequential_scan() {
+
+        File storeLocation = new File(System.getProperty("java.io.tmpdir"), "events-readahead");
+        storeLocation.mkdirs();
+        Arrays.stream(storeLocation.listFiles()).forEach(File::delete);
+
+        RecordSerializer<EventInfo> eventInfoRecordSerializer = new RecordSerializer<>(KB, toBytes(), b -> fromBytes(b), e -> e.getEventTime().toString());
+        BufferPool pool = new BufferPool(64, KB);
+        StoreOptions options = StoreOptions.defaults().withCompaction(StoreOptions.NO_COMPACTION).withBufferPool(pool).withReadahead(8);
+
+        long start = System.currentTimeMillis();
+        try (PersistentSSTable<EventInfo> store = new PersistentSSTable<>(new InMemorySSTable<>(100), new StoreLocation(storeLocation, "taxi_events"), eventInfoRecordSerializer, options)) {
+            TimeSeriesStore db = TimeSeriesStore.persistence(store);
+            db.register(LightTaxiRide.class, () -> {
+                EventIdGenerator generator = new SystemTimeIdGenerator(10_000);
+                return toEventInfo(generator);
+            });
+
+            range(0, 2_000).mapToObj(t -> LightTaxiRide.newBuilder()
+                    .setPickupTime(start + TimeUnit.MINUTES.toMillis(t))
+                    .setDropOffTime(start + TimeUnit.MINUTES.toMillis(t))
+                    .setPassengerCount(2)
+                    .setTripDistance(2)
+                    .setTotalAmount(20)
+                    .build()).forEach(db::insert);
+            store.flush();
+
+            List<String> keys = new ArrayList<>();
+            db.gt(LocalDateTime.now().minusDays(1), x -> keys.add(x.getEventTime().toString()));
+            long pagesAfterFullScan = store.readahead().pages();
+
+            List<String> firstKeys = new ArrayList<>();
+            db.gt(LocalDateTime.now().minusDays(1), x -> {
+                firstKeys.add(x.getEventTime().toString());
+                return firstKeys.size() < 500; // Past memory pages, scan stops on disk
+            });
+
+            assertAll(
+                    () -> assertEquals(2_000, keys.size()),
+                    () -> assertEquals(2_000, new HashSet<>(keys).size()),
+                    () -> assertEquals(keys.subList(0, 500), firstKeys),
+                    () -> assertTrue(pagesAfterFullScan > 100, "Pages " + pagesAfterFullScan),
+                    () -> assertTrue(store.readahead().pages() - pagesAfterFullScan < 100, "Pages " + store.readahead()),
+                    () -> assertEquals(0, pool.pinnedPages(), "Read ahead pages left pinned " + pool)
+            );
+        }
+    }
+
+    @Test
+    public void partition_generations_by_day_and_drop_old_days() {
+
+        File storeLocation = new File(System.getProperty("java.io.tmpdir"), "events-partitions");
+        storeLocation.mkdirs();
+        Arrays.stream(storeLocation.listFiles()).forEach(File::delete);
+
+        RecordSerializer<EventInfo> eventInfoRecordSerializer = new RecordSerializer<>(KB, toBytes(), b -> fromBytes(b), e -> e.getEventTime().toString());
+        TimePartitions partitions = TimePartitions.daily(KeyMode.FORMATTED);
+        StoreOptions options = StoreOptions.defaults().withCompaction(StoreOptions.NO_COMPACTION).withTimePartitions(partitions);
+
+        long start = System.currentTimeMillis();
+        try (PersistentSSTable<EventInfo> store = new PersistentSSTable<>(new InMemorySSTable<>(100), new StoreLocation(storeLocation, "taxi_events"), eventInfoRecordSerializer, options)) {
+            TimeSeriesStore db = TimeSeriesStore.persistence(store);
+            db.register(LightTaxiRide.class, () -> {
+                EventIdGenerator generator = new SystemTimeIdGenerator(10_000);
+                return toEventInfo(generator);
+            });
+
+            // One ride every 10 minutes for 5 days, flushed twice so a day can have more than one generation
+            List<EventInfo> events = new ArrayList<>();
+            range(0, 6 * 24 * 5).mapToObj(t -> LightTaxiRide.newBuilder()
+                    .setPickupTime(start + TimeUnit.MINUTES.toMillis(t * 10))
+                    .setDropOffTime(start + TimeUnit.MINUTES.toMillis(t * 10))
+                    .setPassengerCount(2)
+                    .setTripDistance(2)
+                    .setTotalAmount(20)
+                    .build()).forEach(ride -> {
+                events.add(db.insert(ride));
+                if (events.size() == 300) {
+                    store.flush();
+                }
+            });
+            store.flush();
+            int flushed = events.size() - store.buffers().stream().mapToInt(page -> page.getPageData().size()).sum();
+
+            Map<LocalDate, Long> days = events.subList(0, flushed).stream()
+                    .collect(Collectors.groupingBy(e -> KeyMode.FORMATTED.time(e.getEventTime().toString()).toLocalDate(), TreeMap::new, Collectors.counting()));
+            LocalDate secondDay = new ArrayList<>(days.keySet()).get(1);
+
+            long pagesBefore = store.dataPagesRead();
+            AtomicInteger secondDayRows = new AtomicInteger();
+            LocalDateTime secondDayEnd = partitions.end(secondDay.atStartOfDay());
+            store.iterate(KeyMode.FORMATTED.from(secondDayEnd.minusHours(12)), KeyMode.FORMATTED.to(secondDayEnd), row -> {
+                secondDayRows.incrementAndGet();
+                return true;
+            });
+            long pagesRead = store.dataPagesRead() - pagesBefore;
+            int generations = store.noOfGenerations();
+
+            int dropped = store.dropPartitionsBefore(secondDayEnd);
+            AtomicInteger firstDaysRows = new AtomicInteger();
+            store.iterate(null, KeyMode.FORMATTED.to(secondDayEnd), row -> {
+                firstDaysRows.incrementAndGet();
+                return true;
+            });
+            int dataFiles = storeLocation.listFiles((dir, name) -> name.endsWith(".data")).length;
+
+            assertAll(
+                    () -> assertTrue(generations >= days.size() && generations <= days.size() + 1, "Generations " + generations + " Days " + days),
+                    () -> assertTrue(pagesRead < 20, "Pages read " + pagesRead),
+                    () -> assertTrue(Math.abs(secondDayRows.get() - 72) <= 1, "Rows " + secondDayRows),
+                    () -> assertTrue(dropped >= 2, "Dropped " + dropped),
+                    () -> assertEquals(generations - dropped, store.noOfGenerations()),
+                    () -> assertEquals(store.noOfGenerations(), dataFiles),
+                    () -> assertEquals(0, firstDaysRows.get())
+            );
+        }
+    }
+
+    @Test
+    public void keep_unpartitioned_generation_until_its_newest_row_expires() {
+
+        File storeLocation = new File(System.getProperty("java.io.tmpdir"), "events-unpartitioned");
+        storeLocation.mkdirs();
+        Arrays.stream(storeLocation.listFiles()).forEach(File::delete);
+
+        RecordSerializer<EventInfo> eventInfoRecordSerializer = new RecordSerializer<>(KB, toBytes(), b -> fromBytes(b), e -> e.getEventTime().toString());
+        StoreLocation location = new StoreLocation(storeLocation, "taxi_events");
+        LocalDateTime base = LocalDateTime.of(2020, 1, 1, 0, 0);
+
+        // Written before partitioning was enabled, one generation holds 3 days
+        try (PersistentSSTable<EventInfo> store = new PersistentSSTable<>(new InMemorySSTable<>(100), location, eventInfoRecordSerializer)) {
+            TimeSeriesStore db = TimeSeriesStore.persistence(store);
+            db.register(LightTaxiRide.class, () -> {
+                EventIdGenerator generator = new SystemTimeIdGenerator(10_000);
+                return toEventInfo(generator);
+            });
+            long start = base.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            range(0, 6 * 24 * 3).mapToObj(t -> LightTaxiRide.newBuilder()
+                    .setPickupTime(start + TimeUnit.MINUTES.toMillis(t * 10))
+                    .setDropOffTime(start + TimeUnit.MINUTES.toMillis(t * 10))
+                    .setPassengerCount(2)
+                    .setTripDistance(2)
+                    .setTotalAmount(20)
+                    .build()).forEach(db::insert);
+            store.flush();
+        }
+
+        StoreOptions options = StoreOptions.defaults().withTimePartitions(TimePartitions.daily(KeyMode.FORMATTED));
+        try (PersistentSSTable<EventInfo> store = new PersistentSSTable<>(new InMemorySSTable<>(100), location, eventInfoRecordSerializer, options)) {
+            AtomicInteger rows = new AtomicInteger();
+            store.iterate(null, null, row -> {
+                rows.incrementAndGet();
+                return true;
+            });
+            int spanning = store.dropPartitionsBefore(base.plusDays(2));
+            AtomicInteger kept = new AtomicInteger();
+            store.iterate(null, null, row -> {
+                kept.incrementAndGet();
+                return true;
+            });
+            int expired = store.dropPartitionsBefore(base.plusDays(3));
+
+            assertAll(
+                    () -> assertEquals(0, spanning),
+                    () -> assertEquals(rows.get(), kept.get()),
+                    () -> assertEquals(1, expired),
+                    () -> assertEquals(0, store.noOfGenerations())
+            );
+        }
+    }
+
+    @Test
+    public void drop_partitions_older_than_retention_on_flush() {
+
+        File storeLocation = new File(System.getProperty("java.io.tmpdir"), "events-retention");
+        storeLocation.mkdirs();
+        Arrays.stream(storeLocation.listFiles()).forEach(File::delete);
+
+        RecordSerializer<EventInfo> eventInfoRecordSerializer = new RecordSerializer<>(KB, toBytes(), b -> fromBytes(b), e -> e.getEventTime().toString());
+        StoreOptions options = StoreOptions.defaults().withCompaction(4)
+                .withTimePartitions(TimePartitions.hourly(KeyMode.FORMATTED))
+                .withRetention(Duration.ofHours(6));
+
+        long start = System.currentTimeMillis();
+        try (PersistentSSTable<EventInfo> store = new PersistentSSTable<>(new InMemorySSTable<>(100), new StoreLocation(storeLocation, "taxi_events"), eventInfoRecordSerializer, options)) {
+            TimeSeriesStore db = TimeSeriesStore.persistence(store);
+            db.register(LightTaxiRide.class, () -> {
+                EventIdGenerator generator = new SystemTimeIdGenerator(10_000);
+                return toEventInfo(generator);
+            });
+
+            // One ride a minute for 2 days
+            range(0, 60 * 48).mapToObj(t -> LightTaxiRide.newBuilder()
+                    .setPickupTime(start + TimeUnit.MINUTES.toMillis(t))
+                    .setDropOffTime(start + TimeUnit.MINUTES.toMillis(t))
+                    .setPassengerCount(2)
+                    .setTripDistance(2)
+                    .setTotalAmount(20)
+                    .build()).forEach(db::insert);
+            store.flush();
+
+            AtomicInteger rows = new AtomicInteger();
+            store.iterate(null, null, row -> {
+                rows.incrementAndGet();
+                return true;
+            });
+
+            assertAll(
+                    () -> assertTrue(store.noOfGenerations() <= 7, "Generations " + store.noOfGenerations()),
+                    () -> assertTrue(rows.get() <= 7 * 60 + 100, "Rows " + rows),
+                    () -> assertTrue(rows.get() >= 6 * 60, "Rows " + rows)
+            );
+        }
+    }
+
+    @Test
+    public void reopen_store_from_manifest_and_drop_replaced_generations() {
+
+        File storeLocation = new File(System.getProperty("java.io.tmpdir"), "events-manifest");
+        storeLocation.mkdirs();
+        Arrays.stream(storeLocation.listFiles()).forEach(File::delete);
+
+        RecordSerializer<EventInfo> eventInfoRecordSerializer = new RecordSerializer<>(KB, toBytes(), b -> fromBytes(b), e -> e.getEventTime().toString());
+        StoreLocation location = new StoreLocation(storeLocation, "taxi_events");
+
+        long start = System.currentTimeMillis();
+        String lastFlushedKey;
+        List<Integer> flushedRows = new ArrayList<>();
+        InMemorySSTable<EventInfo> memory = new InMemorySSTable<>(500);
+        try (PersistentSSTable<EventInfo> store = new PersistentSSTable<>(memory, location, eventInfoRecordSerializer)) {
+            TimeSeriesStore db = TimeSeriesStore.persistence(store);
+            db.register(LightTaxiRide.class, () -> {
+                EventIdGenerator generator = new SystemTimeIdGenerator(10_000);
+                return toEventInfo(generator);
+            });
+            for (int flush = 0; flush < 3; flush++) {
+                insertRecords(db, start + TimeUnit.DAYS.toMillis(10 * flush));
+                store.flush();
+                // Rows on disk so far, active page is not flushed and not kept across reopen
+                AtomicInteger rows = new AtomicInteger();
+                store.iterate(null, null, row -> {
+                    rows.incrementAndGet();
+                    return true;
+                });
+                int memoryRows = 0;
+                for (Iterator<Map.Entry<String, EventInfo>> active : memory.sortedSources(null, null, ScanOrder.ASC)) {
+                    for (; active.hasNext(); active.next()) {
+                        memoryRows++;
+                    }
+                }
+                flushedRows.add(rows.get() - memoryRows);
+            }
+            lastFlushedKey = store.lastFlushedKey();
+        }
+
+        Manifest manifest = new Manifest(location);
+        StoreManifest stored = manifest.read();
+
+        try (PersistentSSTable<EventInfo> store = new PersistentSSTable<>(new InMemorySSTable<>(500), location, eventInfoRecordSerializer)) {
+            AtomicInteger rows = new AtomicInteger();
+            store.iterate(null, null, row -> {
+                rows.incrementAndGet();
+                return true;
+            });
+            assertAll(
+                    () -> assertEquals(3, stored.getGenerations().size()),
+                    () -> assertEquals(4, stored.getNextGeneration()),
+                    () -> assertEquals(lastFlushedKey, store.lastFlushedKey()),
+                    () -> assertEquals(3, store.noOfGenerations()),
+                    () -> assertEquals(flushedRows.get(2), rows.get())
+            );
+        }
+
+        // Generation 3 replaced by a compaction whose output never reached disk
+        manifest.write(4, lastFlushedKey, stored.getGenerations().subList(0, 2), Arrays.asList(3), new HashMap<>());
+
+        try (PersistentSSTable<EventInfo> store = new PersistentSSTable<>(new InMemorySSTable<>(500), location, eventInfoRecordSerializer)) {
+            AtomicInteger rows = new AtomicInteger();
+            store.iterate(null, null, row -> {
+                rows.incrementAndGet();
+                return true;
+            });
+            assertAll(
+                    () -> assertEquals(2, store.noOfGenerations()),
+                    () -> assertEquals(flushedRows.get(1), rows.get()),
+                    () -> assertFalse(new File(storeLocation, "taxi_events.3.data").exists()),
+                    () -> assertTrue(manifest.read().getReplaced().isEmpty())
+            );
+        }
+
+        // Generation 2 flushed but not listed, it is adopted
+        manifest.write(4, lastFlushedKey, stored.getGenerations().subList(0, 1), new ArrayList<>(), new HashMap<>());
+
+        try (PersistentSSTable<EventInfo> store = new PersistentSSTable<>(new InMemorySSTable<>(500), location, eventInfoRecordSerializer)) {
+            AtomicInteger rows = new AtomicInteger();
+            store.iterate(null, null, row -> {
+                rows.incrementAndGet();
+                return true;
+            });
+            assertAll(
+                    () -> assertEquals(2, store.noOfGenerations()),
+                    () -> assertEquals(flushedRows.get(1), rows.get()),
+                    () -> assertEquals(2, manifest.read().getGenerations().size())
+            );
+        }
+    }
+
+    @Test
+    public void flush_while_query_runs_shows_every_row_once() {
+
+        File storeLocation = new File(System.getProperty("java.io.tmpdir"), "events-read-view");
+        storeLocation.mkdirs();
+        Arrays.stream(storeLocation.listFiles()).forEach(File::delete);
+
+        RecordSerializer<EventInfo> eventInfoRecordSerializer = new RecordSerializer<>(KB, toBytes(), b -> fromBytes(b), e -> e.getEventTime().toString());
+
+        try (PersistentSSTable<EventInfo> store = new PersistentSSTable<>(new InMemorySSTable<>(100), new StoreLocation(storeLocation, "taxi_events"), eventInfoRecordSerializer)) {
+            TimeSeriesStore db = TimeSeriesStore.persistence(store);
+            db.register(LightTaxiRide.class, () -> {
+                EventIdGenerator generator = new SystemTimeIdGenerator(10_000);
+                return toEventInfo(generator);
+            });
+            insertRecords(db, System.currentTimeMillis());
+
+            AtomicInteger expected = new AtomicInteger();
+            store.iterate(null, null, row -> {
+                expected.incrementAndGet();
+                return true;
+            });
+
+            // Flush publishes a new view while two scans are half way through memory pages
+            long version = store.version();
+            AtomicInteger rows = new AtomicInteger();
+            AtomicInteger orderedRows = new AtomicInteger();
+            AtomicInteger newViewRows = new AtomicInteger();
+            store.iterate(null, null, ScanOrder.ASC, ordered -> {
+                if (orderedRows.incrementAndGet() == 1) {
+                    store.iterate(null, null, row -> {
+                        if (rows.incrementAndGet() == 1) {
+                            store.flush();
+                            // Flushed pages are still in memory for pinned scans, new scan reads them from disk only
+                            store.iterate(null, null, newRow -> {
+                                newViewRows.incrementAndGet();
+                                return true;
+                            });
+                        }
+                        return true;
+                    });
+                }
+                return true;
+            });
+            int pinnedPages = store.buffers().size();
+
+            AtomicInteger afterFlush = new AtomicInteger();
+            store.iterate(null, null, row -> {
+                afterFlush.incrementAndGet();
+                return true;
+            });
+
+            assertAll(
+                    () -> assertEquals(version + 1, store.version()),
+                    () -> assertEquals(expected.get(), rows.get()),
+                    () -> assertEquals(expected.get(), orderedRows.get()),
+                    () -> assertEquals(expected.get(), newViewRows.get()),
+                    () -> assertEquals(expected.get(), afterFlush.get()),
+                    () -> assertEquals(0, pinnedPages),
+                    () -> assertEquals(1, store.liveViews()),
+                    () -> assertEquals(0, store.buffers().size())
+            );
+        }
+    }
+
+    @Test
+    public void merge_flushed_generations_in_background() throws InterruptedException {
+
+        File storeLocation = new File(System.getProperty("java.io.tmpdir"), "events-compaction");
+        storeLocation.mkdirs();
+        Arrays.stream(storeLocation.listFiles()).forEach(File::delete);
+
+        RecordSerializer<EventInfo> eventInfoRecordSerializer = new RecordSerializer<>(KB, toBytes(), b -> fromBytes(b), e -> e.getEventTime().toString());
+        StoreLocation location = new StoreLocation(storeLocation, "taxi_events");
+
+        long start = System.currentTimeMillis();
+        List<EventInfo> events = new ArrayList<>();
+        try (PersistentSSTable<EventInfo> store = new PersistentSSTable<>(new InMemorySSTable<>(100), location, eventInfoRecordSerializer, StoreOptions.defaults().withCompaction(4))) {
+            TimeSeriesStore db = TimeSeriesStore.persistence(store);
+            db.register(LightTaxiRide.class, () -> {
+                EventIdGenerator generator = new SystemTimeIdGenerator(10_000);
+                return toEventInfo(generator);
+            });
+
+            for (int flush = 0; flush < 16; flush++) {
+                range(flush * 500, (flush + 1) * 500).mapToObj(t -> LightTaxiRide.newBuilder()
+                        .setPickupTime(start + TimeUnit.MINUTES.toMillis(t))
+                        .setDropOffTime(start + TimeUnit.MINUTES.toMillis(t))
+                        .setPassengerCount(2)
+                        .setTripDistance(2)
+                        .setTotalAmount(20)
+                        .build()).forEach(ride -> events.add(db.insert(ride)));
+                store.flush();
+            }
+
+            // Generations of a smaller flush may stay on their own tier, no tier is left with 4 generations
+            for (int attempt = 0; attempt < 200 && store.compactionPending(); attempt++) {
+                TimeUnit.MILLISECONDS.sleep(50);
+            }
+
+            long pagesReadByCompaction = store.dataPagesRead();
+            AtomicInteger counter = new AtomicInteger();
+            db.gt(LocalDateTime.now().minusDays(1), x -> {
+                counter.incrementAndGet();
+                return true;
+            });
+            int dataFiles = storeLocation.listFiles((dir, name) -> name.endsWith(".data")).length;
+
+            assertAll(
+                    () -> assertFalse(store.compactionPending(), "Generations " + store.noOfGenerations()),
+                    () -> assertEquals(0, pagesReadByCompaction),
+                    () -> assertTrue(store.compactionPagesRead() > 0),
+                    () -> assertTrue(store.noOfGenerations() < 16, "Generations " + store.noOfGenerations()),
+                    () -> assertEquals(store.noOfGenerations(), dataFiles),
+                    () -> assertEquals(8_000, counter.get()),
+                    () -> assertEquals(events.get(0).toString(), db.get(events.get(0).getEventTime().toString()).toString())
+            );
+        }
+
+        // Records of active buffer page are not flushed on close
+        try (PersistentSSTable<EventInfo> reopened = new PersistentSSTable<>(new InMemorySSTable<>(100), location, eventInfoRecordSerializer)) {
+            AtomicInteger counter = new AtomicInteger();
+            TimeSeriesStore.persistence(reopened).gt(LocalDateTime.now().minusDays(1), x -> {
+                counter.incrementAndGet();
+                return true;
+            });
+            long found = events.stream().filter(e -> reopened.get(e.getEventTime().toString()) != null).count();
+            assertAll(
+                    () -> assertEquals(found, counter.get()),
+                    () -> assertTrue(counter.get() > 8_000 - 100, "Records " + counter.get())
+            );
+        }
+    }
+
+    @Test
+    public void keep_newest_record_when_compaction_skips_a_newer_generation() throws InterruptedException {
+
+        File storeLocation = new File(System.getProperty("java.io.tmpdir"), "events-compaction-order");
+        storeLocation.mkdirs();
+        Arrays.stream(storeLocation.listFiles()).forEach(File::delete);
+
+        RecordSerializer<EventInfo> eventInfoRecordSerializer = new RecordSerializer<>(KB, toBytes(), b -> fromBytes(b), e -> e.getEventTime().toString());
+        StoreLocation location = new StoreLocation(storeLocation, "taxi_events");
+
+        // Small generation has k=v1, large one written after it has k=v2, small ones around it share tier 0
+        try (PersistentSSTable<EventInfo> store = new PersistentSSTable<>(new InMemorySSTable<>(10), location, eventInfoRecordSerializer)) {
+            writeGeneration(store, 1, 20, "v1");
+            writeGeneration(store, 2, 20, null);
+            writeGeneration(store, 3, 80, "v2");
+            writeGeneration(store, 4, 20, null);
+        }
+
+        try (PersistentSSTable<EventInfo> store = new PersistentSSTable<>(new InMemorySSTable<>(10), location, eventInfoRecordSerializer, StoreOptions.defaults().withCompaction(2))) {
+            writeGeneration(store, 5, 20, null);
+            for (int attempt = 0; attempt < 200 && store.compactionPending(); attempt++) {
+                TimeUnit.MILLISECONDS.sleep(50);
+            }
+
+            List<String> ordered = new ArrayList<>();
+            store.iterate("k", "k", ScanOrder.ASC, row -> ordered.add(row.getHost().toString()));
+            assertAll(
+                    () -> assertFalse(store.compactionPending()),
+                    () -> assertTrue(store.noOfGenerations() < 5, "Generations " + store.noOfGenerations()),
+                    () -> assertEquals("v2", store.get("k").getHost().toString()),
+                    () -> assertEquals(Arrays.asList("v2"), ordered)
+            );
+        }
+
+        try (PersistentSSTable<EventInfo> reopened = new PersistentSSTable<>(new InMemorySSTable<>(10), location, eventInfoRecordSerializer)) {
+            assertEquals("v2", reopened.get("k").getHost().toString());
+        }
+    }
+
+    // Key k is written first so it is flushed with this generation, records left in active page go to the next one
+    private void writeGeneration(PersistentSSTable<EventInfo> store, int generation, int records, String valueOfK) {
+        if (valueOfK != null) {
+            store.append("k", event("k", valueOfK));
+        }
+        for (int record = 0; record < records; record++) {
+            String key = String.format("g%s-%03d", generation, record);
+            store.append(key, event(key, "NA"));
+        }
+        store.flush();
+    }
+
+    private EventInfo event(String key, String host) {
+        return EventInfo
+                .newBuilder()
+                .setEventBody(ByteBuffer.wrap(new byte[64]))
+                .setEventType("TAXI_RIDE")
+                .setEventTime(key)
+                .setHost(host)
+                .setService("TAXI-NO")
+                .setTags(new HashMap<>())
+                .build();
+    }
+
+    @Test
+    public void scan_memory_and_disk_pages_in_key_order_in_parallel() {
+
+        File storeLocation = new File(System.getProperty("java.io.tmpdir"), "events-parallel-scan");
+        storeLocation.mkdirs();
+        Arrays.stream(storeLocation.listFiles()).forEach(File::delete);
+
+        RecordSerializer<EventInfo> eventInfoRecordSerializer = new RecordSerializer<>(KB, toBytes(), b -> fromBytes(b), e -> e.getEventTime().toString());
+        StoreOptions options = StoreOptions.defaults().withCompaction(StoreOptions.NO_COMPACTION).withParallelScan(new ForkJoinPool(4));
+
+        long start = System.currentTimeMillis();
+        try (PersistentSSTable<EventInfo> store = new PersistentSSTable<>(new InMemorySSTable<>(100), new StoreLocation(storeLocation, "taxi_events"), eventInfoRecordSerializer, options)) {
+            TimeSeriesStore db = TimeSeriesStore.persistence(store);
+            db.register(LightTaxiRide.class, () -> {
+                EventIdGenerator generator = new SystemTimeIdGenerator(10_000);
+                return toEventInfo(generator);
+            });
+
+            // Batches overlap in time, so every generation and memory page covers the whole range
+            for (int batch = 0; batch < 3; batch++) {
+                int offset = batch;
+                range(0, 1_000).mapToObj(t -> LightTaxiRide.newBuilder()
+                        .setPickupTime(start + TimeUnit.MINUTES.toMillis(t * 3 + offset))
+                        .setDropOffTime(start + TimeUnit.MINUTES.toMillis(t * 3 + offset))
+                        .setPassengerCount(2)
+                        .setTripDistance(2)
+                        .setTotalAmount(20)
+                        .build()).forEach(db::insert);
+                if (batch < 2) {
+                    store.flush();
+                }
+            }
+
+            List<String> keys = new ArrayList<>();
+            db.gt(LocalDateTime.now().minusDays(1), x -> keys.add(x.getEventTime().toString()));
+
+            List<String> firstKeys = new ArrayList<>();
+            db.gt(LocalDateTime.now().minusDays(1), x -> {
+                firstKeys.add(x.getEventTime().toString());
+                return firstKeys.size() < 50;
+            });
+
+            List<String> sorted = new ArrayList<>(keys);
+            sorted.sort(String::compareTo);
+            assertAll(
+                    () -> assertEquals(2, store.noOfGenerations()),
+                    () -> assertEquals(3_000, keys.size()),
+                    () -> assertEquals(sorted, keys),
+                    () -> assertEquals(keys.subList(0, 50), firstKeys)
+            );
+        }
+    }
+
+    @Test
+    public void read_latest_records_first_across_memory_and_disk_pages() {
+
+        File storeLocation = new File(System.getProperty("java.io.tmpdir"), "events-ordered-scan");
+        storeLocation.mkdirs();
+        Arrays.stream(storeLocation.listFiles()).forEach(File::delete);
+
+        RecordSerializer<EventInfo> eventInfoRecordSerializer = new RecordSerializer<>(KB, toBytes(), b -> fromBytes(b), e -> e.getEventTime().toString());
+        StoreOptions options = StoreOptions.defaults().withCompaction(StoreOptions.NO_COMPACTION);
+
+        long start = System.currentTimeMillis();
+        try (PersistentSSTable<EventInfo> store = new PersistentSSTable<>(new InMemorySSTable<>(100), new StoreLocation(storeLocation, "taxi_events"), eventInfoRecordSerializer, options)) {
+            TimeSeriesStore db = TimeSeriesStore.persistence(store);
+            db.register(LightTaxiRide.class, () -> {
+                EventIdGenerator generator = new SystemTimeIdGenerator(10_000);
+                return toEventInfo(generator);
+            });
+
+            for (int batch = 0; batch < 3; batch++) {
+                int offset = batch;
+                range(0, 1_000).mapToObj(t -> LightTaxiRide.newBuilder()
+                        .setPickupTime(start + TimeUnit.MINUTES.toMillis(t * 3 + offset))
+                        .setDropOffTime(start + TimeUnit.MINUTES.toMillis(t * 3 + offset))
+                        .setPassengerCount(2)
+                        .setTripDistance(2)
+                        .setTotalAmount(20)
+                        .build()).forEach(db::insert);
+                if (batch < 2) {
+                    store.flush();
+                }
+            }
+
+            List<String> descending = new ArrayList<>();
+            db.gt(LocalDateTime.now().minusDays(1), ScanOrder.DESC, x -> descending.add(x.getEventTime().toString()));
+
+            long pagesBefore = store.dataPagesRead();
+            List<String> latest = new ArrayList<>();
+            db.gt(LocalDateTime.now().minusDays(1), ScanOrder.DESC, x -> {
+                latest.add(x.getEventTime().toString());
+                return latest.size() < 20;
+            });
+            long pagesRead = store.dataPagesRead() - pagesBefore;
+
+            List<String> sorted = new ArrayList<>(descending);
+            sorted.sort(Comparator.reverseOrder());
+            assertAll(
+                    () -> assertEquals(3_000, descending.size()),
+                    () -> assertEquals(sorted, descending),
+                    () -> assertEquals(descending.subList(0, 20), latest),
+                    () -> assertTrue(pagesRead <= 4, "Pages read " + pagesRead) // Last page of each generation and maybe one before it
+            );
+        }
+    }
+
+    @Test
+    public void scan_numeric_columns_from_column_chunks() {
+
+        File storeLocation = new File(System.getProperty("java.io.tmpdir"), "events-columns");
+        storeLocation.mkdirs();
+        Arrays.stream(storeLocation.listFiles()).forEach(File::delete);
+
+        LinkedHashMap<String, ToDoubleFunction<EventInfo>> columns = new LinkedHashMap<>();
+        columns.put("trip_distance", e -> toLightTaxiRide(e).getTripDistance());
+        columns.put("passenger_count", e -> toLightTaxiRide(e).getPassengerCount());
+        RecordSerializer<EventInfo> eventInfoRecordSerializer = new RecordSerializer<EventInfo>(KB, toBytes(), b -> fromBytes(b), e -> e.getEventTime().toString())
+                .withColumns(ColumnSchema.of(columns));
+        StoreOptions options = StoreOptions.defaults().withCompaction(StoreOptions.NO_COMPACTION);
+
+        long start = System.currentTimeMillis();
+        try (PersistentSSTable<EventInfo> store = new PersistentSSTable<>(new InMemorySSTable<>(100), new StoreLocation(storeLocation, "taxi_events"), eventInfoRecordSerializer, options)) {
+            TimeSeriesStore db = TimeSeriesStore.persistence(store);
+            db.register(LightTaxiRide.class, () -> {
+                EventIdGenerator generator = new SystemTimeIdGenerator(10_000);
+                return toEventInfo(generator);
+            });
+
+            List<String> keys = new ArrayList<>();
+            range(0, 3_000).mapToObj(t -> LightTaxiRide.newBuilder()
+                    .setPickupTime(start + TimeUnit.MINUTES.toMillis(t))
+                    .setDropOffTime(start + TimeUnit.MINUTES.toMillis(t))
+                    .setPassengerCount(1 + t % 4)
+                    .setTripDistance(t % 10)
+                    .setTotalAmount(20)
+                    .build()).forEach(ride -> {
+                keys.add(db.insert(ride).getEventTime().toString());
+                if (keys.size() == 2_000) {
+                    store.flush();
+                }
+            });
+            String from = keys.get(150), to = keys.get(2_550);
+
+            double[] expected = new double[3];
+            store.iterate(from, to, ScanOrder.ASC, e -> {
+                expected[0] += toLightTaxiRide(e).getTripDistance();
+                expected[1] += toLightTaxiRide(e).getPassengerCount();
+                expected[2]++;
+                return true;
+            });
+
+            long pagesBefore = store.dataPagesRead();
+            double[] actual = new double[3];
+            store.scanColumns(from, to, new String[]{"trip_distance", "passenger_count"}, (values, first, end) -> {
+                for (int row = first; row < end; row++) {
+                    actual[0] += values[0][row];
+                    actual[1] += values[1][row];
+                    actual[2]++;
+                }
+                return true;
+            });
+            long pagesRead = store.dataPagesRead() - pagesBefore;
+
+            assertAll(
+                    () -> assertEquals(2_401, expected[2]),
+                    () -> assertArrayEquals(expected, actual),
+                    () -> assertTrue(pagesRead <= 2, "Data pages read " + pagesRead), // Only pages cut by bounds
+                    () -> assertTrue(storeLocation.listFiles((dir, name) -> name.endsWith(".columns")).length > 0)
+            );
+        }
+    }
+
+    @Test
+    public void aggregate_tags_from_page_stats() {
+
+        File storeLocation = new File(System.getProperty("java.io.tmpdir"), "events-aggregate");
+        storeLocation.mkdirs();
+        Arrays.stream(storeLocation.listFiles()).forEach(File::delete);
+
+        RecordSerializer<EventInfo> eventInfoRecordSerializer = new RecordSerializer<EventInfo>(KB, toBytes(), b -> fromBytes(b), e -> e.getEventTime().toString())
+                .withTags(EventInfo::getTags);
+        StoreOptions options = StoreOptions.defaults().withCompaction(StoreOptions.NO_COMPACTION);
+        StoreLocation location = new StoreLocation(storeLocation, "taxi_events");
+
+        long start = System.currentTimeMillis();
+        List<String> keys = new ArrayList<>();
+        try (PersistentSSTable<EventInfo> store = new PersistentSSTable<>(new InMemorySSTable<>(100), location, eventInfoRecordSerializer, options)) {
+            TimeSeriesStore db = TimeSeriesStore.persistence(store);
+            db.register(LightTaxiRide.class, () -> {
+                EventIdGenerator generator = new SystemTimeIdGenerator(10_000);
+                return toEventInfo(generator);
+            });
+            range(0, 3_000).mapToObj(t -> LightTaxiRide.newBuilder()
+                    .setPickupTime(start + TimeUnit.MINUTES.toMillis(t))
+                    .setDropOffTime(start + TimeUnit.MINUTES.toMillis(t))
+                    .setPassengerCount(2)
+                    .setTripDistance(2)
+                    .setTotalAmount(t % 100)
+                    .build()).forEach(ride -> keys.add(db.insert(ride).getEventTime().toString()));
+            store.flush();
+        }
+
+        // Reopened store has only index entries in memory
+        try (PersistentSSTable<EventInfo> store = new PersistentSSTable<>(new InMemorySSTable<>(100), location, eventInfoRecordSerializer, options)) {
+            String from = keys.get(150), to = keys.get(2_550);
+            TagAggregate expected = new TagAggregate();
+            store.iterate(from, to, ScanOrder.ASC, e -> expected.addTag(e, EventInfo::getTags, "total_amount"));
+
+            long pagesBefore = store.dataPagesRead();
+            TagAggregate actual = store.aggregate(from, to, EventInfo::getTags, "total_amount");
+            long pagesRead = store.dataPagesRead() - pagesBefore;
+
+            assertAll(
+                    () -> assertEquals(expected.count(), actual.count()),
+                    () -> assertEquals(expected.sum(), actual.sum()),
+                    () -> assertEquals(expected.min(), actual.min()),
+                    () -> assertEquals(expected.max(), actual.max()),
+                    () -> assertTrue(pagesRead <= 2, "Data pages read " + pagesRead), // Only pages cut by bounds
+                    () -> assertTrue(store.noOfGenerations() > 0)
+            );
+        }
+    }
+
+    @Test
+    public void keep_rollups_in_their_own_store() {
+
+        File storeLocation = new File(System.getProperty("java.io.tmpdir"), "events-rollup");
+        storeLocation.mkdirs();
+        Arrays.stream(storeLocation.listFiles()).forEach(File::delete);
+
+        RecordSerializer<EventInfo> eventInfoRecordSerializer = new RecordSerializer<>(KB, toBytes(), b -> fromBytes(b), e -> e.getEventTime().toString());
+        StoreLocation location = new StoreLocation(storeLocation, "taxi_events");
+        StoreLocation rollupLocation = new StoreLocation(storeLocation, "taxi_events.rollup.1h");
+        // Open buffer page is kept by log, flush writes only sealed pages
+        StoreOptions options = StoreOptions.defaults().withWriteAheadLog(64 * KB, 10);
+
+        LocalDateTime base = LocalDateTime.of(2020, 1, 1, 0, 0);
+        long start = base.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        try (PersistentSSTable<EventInfo> store = new PersistentSSTable<>(new InMemorySSTable<>(100), location, eventInfoRecordSerializer, options);
+             PersistentSSTable<RollupPartial> rollup = new PersistentSSTable<>(new InMemorySSTable<>(100), rollupLocation, Rollup.recordSerializer(KB), options)) {
+            TimeSeriesStore db = TimeSeriesStore.persistence(store);
+            db.addRollup(Duration.ofHours(1), rollup);
+            db.register(LightTaxiRide.class, () -> {
+                EventIdGenerator generator = new SystemTimeIdGenerator(10_000);
+                return toEventInfo(generator);
+            });
+            insertRecords(db, start);
+            db.flush();
+        }
+
+        try (PersistentSSTable<EventInfo> store = new PersistentSSTable<>(new InMemorySSTable<>(100), location, eventInfoRecordSerializer, options);
+             PersistentSSTable<RollupPartial> rollup = new PersistentSSTable<>(new InMemorySSTable<>(100), rollupLocation, Rollup.recordSerializer(KB), options)) {
+            TimeSeriesStore events = TimeSeriesStore.persistence(store);
+            TimeSeriesStore db = TimeSeriesStore.persistence(store);
+            db.addRollup(Duration.ofHours(1), rollup);
+
+            LocalDateTime from = base.plusHours(5).plusMinutes(13), to = base.plusHours(120).plusMinutes(7);
+            Map<AggFn, Double> expected = events.aggregate(from, to, "total_amount", AggFn.COUNT, AggFn.SUM);
+            Map<AggFn, Double> actual = db.aggregate(from, to, "total_amount", AggFn.COUNT, AggFn.SUM);
+
+            // Rollup added to a store that has events covers only buckets after them
+            TimeSeriesStore late = TimeSeriesStore.persistence(store);
+            late.addRollup(Duration.ofHours(1));
+            Map<AggFn, Double> lateRollup = late.aggregate(from, to, "total_amount", AggFn.COUNT, AggFn.SUM);
+            List<String> partialKeys = new ArrayList<>();
+            rollup.iterate(null, null, partial -> partialKeys.add(partial.getKey().toString()));
+
+            assertAll(
+                    () -> assertEquals(expected, actual),
+                    () -> assertEquals(expected, lateRollup),
+                    () -> assertEquals((120 - 5) * 60 - 6, actual.get(AggFn.COUNT)),
+                    () -> assertTrue(rollup.noOfGenerations() > 0),
+                    () -> assertTrue(partialKeys.stream().allMatch(key -> key.split("/").length == 3), "Partials " + partialKeys),
+                    () -> assertTrue(rollup.metadata(Rollup.COVERAGE).startsWith(LocalDateTime.MIN + "/")) // Added to empty store
+            );
+        }
+    }
+
+    @Test
+    public void filter_tags_from_bitmap_index() {
+
+        File storeLocation = new File(System.getProperty("java.io.tmpdir"), "events-tag-index");
+        storeLocation.mkdirs();
+        Arrays.stream(storeLocation.listFiles()).forEach(File::delete);
+
+        RecordSerializer<EventInfo> eventInfoRecordSerializer = new RecordSerializer<EventInfo>(KB, toBytes(), b -> fromBytes(b), e -> e.getEventTime().toString())
+                .withTags(EventInfo::getTags);
+        StoreOptions options = StoreOptions.defaults().withCompaction(StoreOptions.NO_COMPACTION);
+        StoreLocation location = new StoreLocation(storeLocation, "taxi_events");
+
+        LocalDateTime base = LocalDateTime.of(2020, 1, 1, 0, 0);
+        long start = base.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        try (PersistentSSTable<EventInfo> store = new PersistentSSTable<>(new InMemorySSTable<>(100), location, eventInfoRecordSerializer, options)) {
+            TimeSeriesStore db = TimeSeriesStore.persistence(store);
+            db.register(LightTaxiRide.class, () -> {
+                EventIdGenerator generator = new SystemTimeIdGenerator(10_000);
+                return toEventInfo(generator);
+            });
+            insertRecords(db, start);
+            store.flush();
+        }
+
+        try (PersistentSSTable<EventInfo> store = new PersistentSSTable<>(new InMemorySSTable<>(100), location, eventInfoRecordSerializer, options)) {
+            String from = base.plusHours(30).format(DateTimeFormatter.ofPattern("yyyyMMddHHmmss"));
+            String to = base.plusHours(150).format(DateTimeFormatter.ofPattern("yyyyMMddHHmmss"));
+            Map<String, Integer> match = new HashMap<>();
+            match.put("hour", 18);
+
+            List<String> expected = new ArrayList<>();
+            long scanBefore = store.dataPagesRead();
+            store.iterate(from, to, ScanOrder.ASC, e -> {
+                if (TagFilter.matches(e.getTags(), match)) {
+                    expected.add(e.getEventTime().toString());
+                }
+                return true;
+            });
+            long pagesScanned = store.dataPagesRead() - scanBefore;
+
+            long pagesBefore = store.dataPagesRead();
+            List<String> actual = new ArrayList<>();
+            store.filter(from, to, EventInfo::getTags, match, e -> actual.add(e.getEventTime().toString()));
+            long pagesRead = store.dataPagesRead() - pagesBefore;
+            actual.sort(null);
+
+            assertAll(
+                    () -> assertEquals(5 * 60, expected.size()),
+                    () -> assertEquals(expected, actual),
+                    () -> assertTrue(pagesRead * 10 < pagesScanned, "Data pages read " + pagesRead + " of " + pagesScanned),
+                    () -> assertTrue(storeLocation.listFiles((dir, name) -> name.endsWith(".tags")).length > 0)
+            );
+        }
+    }
+
+    @Test
+    public void flush_records_from_off_heap_arenas() {
+
+        File storeLocation = new File(System.getProperty("java.io.tmpdir"), "events-off-heap");
+        storeLocation.mkdirs();
+        Arrays.stream(storeLocation.listFiles()).forEach(File::delete);
+
+        RecordSerializer<EventInfo> eventInfoRecordSerializer = new RecordSerializer<>(KB, toBytes(), b -> fromBytes(b), e -> e.getEventTime().toString());
+        StoreLocation location = new StoreLocation(storeLocation, "taxi_events");
+
+        long start = System.currentTimeMillis();
+        List<String> keys = new ArrayList<>();
+        OffHeapSSTable<EventInfo> arenas = new OffHeapSSTable<>(64 * KB, eventInfoRecordSerializer);
+        try (PersistentSSTable<EventInfo> store = new PersistentSSTable<>(arenas, location, eventInfoRecordSerializer)) {
+            TimeSeriesStore db = TimeSeriesStore.persistence(store);
+            db.register(LightTaxiRide.class, () -> {
+                EventIdGenerator generator = new SystemTimeIdGenerator(10_000);
+                return toEventInfo(generator);
+            });
+            range(0, 3_000).mapToObj(t -> LightTaxiRide.newBuilder()
+                    .setPickupTime(start + TimeUnit.MINUTES.toMillis(t))
+                    .setDropOffTime(start + TimeUnit.MINUTES.toMillis(t))
+                    .setPassengerCount(2)
+                    .setTripDistance(2)
+                    .setTotalAmount(t % 100)
+                    .build()).forEach(ride -> keys.add(db.insert(ride).getEventTime().toString()));
+
+            int sealedPages = arenas.buffers().size();
+            EventInfo buffered = store.get(keys.get(10));
+            store.flush();
+
+            List<String> scanned = new ArrayList<>();
+            store.iterate(keys.get(0), keys.get(2_999), ScanOrder.ASC, e -> scanned.add(e.getEventTime().toString()));
+
+            assertAll(
+                    () -> assertTrue(sealedPages > 1, "Sealed pages " + sealedPages),
+                    () -> assertEquals(keys.get(10), buffered.getEventTime().toString()),
+                    () -> assertEquals(0, arenas.buffers().size()),
+                    () -> assertTrue(store.noOfGenerations() > 0),
+                    () -> assertEquals(keys, scanned),
+                    () -> assertEquals(keys.get(2_999), store.get(keys.get(2_999)).getEventTime().toString())
+            );
+        }
+    }
+
+    private LightTaxiRide toLightTaxiRide(EventInfo event) {
+        try {
+            return LightTaxiRide.fromByteBuffer(event.getEventBody().duplicate());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private int segments(File storeLocation) {
+        return storeLocation.listFiles((dir, name) -> name.contains(".wal.")).length;
+    }
+
+    public void insertRecords(TimeSeriesStore db, long start) {
+        range(0, 10_000).mapToObj(t -> {
+            long pickTime = start + TimeUnit.MINUTES.toMillis(t);
+            return LightTaxiRide.newBuilder()
+                    .setPickupTime(pickTime)
+                    .setDropOffTime(pickTime + TimeUnit.MINUTES.toMillis(ThreadLocalRandom.current().nextInt(50)))
+                    .setPassengerCount(2)
+                    .setTripDistance(2)
+                    .setTotalAmount(20)
+                    .build();
+        }).forEach(db::insert);
+    }
+
     public void insertRecords(TimeSeriesStore db) {
         range(0, 10_000).mapToObj(t -> {
             long now = System.currentTimeMillis();
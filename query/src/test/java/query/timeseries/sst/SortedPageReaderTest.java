@@ -0,0 +1,75 @@
+package query.timeseries.sst;
+
+import org.junit.jupiter.api.Test;
+import query.page.read.ReadPage;
+import query.page.write.WritableSlotPage;
+import query.page.write.WritePage;
+import query.timeseries.sst.disk.RecordSerializer;
+import query.timeseries.sst.disk.SortedPageReader;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static java.util.stream.IntStream.range;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SortedPageReaderTest {
+
+    RecordSerializer<String> serializer = new RecordSerializer<>(1024 * 8,
+            s -> s.getBytes(StandardCharsets.UTF_8),
+            b -> StandardCharsets.UTF_8.decode(b).toString(),
+            s -> s);
+
+    @Test
+    public void read_records_in_range_using_binary_search() {
+
+        ReadPage page = sortedPage();
+        SortedPageReader<String> reader = new SortedPageReader<>(serializer);
+
+        List<String> rows = new ArrayList<>();
+        reader.scan(page, "key_0100", "key_0102", rows::add);
+
+        assertAll(
+                () -> assertIterableEquals(asList("key_0100", "key_0101", "key_0102"), rows),
+                () -> assertTrue(reader.recordsDecoded() < 20, "Decoded " + reader.recordsDecoded())
+        );
+    }
+
+    @Test
+    public void find_first_slot_for_key() {
+
+        ReadPage page = sortedPage();
+        SortedPageReader<String> reader = new SortedPageReader<>(serializer);
+
+        assertAll(
+                () -> assertEquals(0, reader.lowerBound(page, null)),
+                () -> assertEquals(0, reader.lowerBound(page, "a")),
+                () -> assertEquals(10, reader.lowerBound(page, "key_0010")),
+                () -> assertEquals(11, reader.lowerBound(page, "key_0010/1")),
+                () -> assertEquals(page.totalRecords(), reader.lowerBound(page, "z"))
+        );
+    }
+
+    @Test
+    public void stop_when_consumer_returns_false() {
+
+        ReadPage page = sortedPage();
+        SortedPageReader<String> reader = new SortedPageReader<>(serializer);
+
+        List<String> rows = new ArrayList<>();
+        boolean completed = reader.scan(page, "key_0010", null, row -> rows.add(row) && rows.size() < 2);
+
+        assertAll(
+                () -> assertFalse(completed),
+                () -> assertIterableEquals(asList("key_0010", "key_0011"), rows)
+        );
+    }
+
+    private ReadPage sortedPage() {
+        WritePage page = new WritableSlotPage(1024 * 8, (byte) 1, 1, System.currentTimeMillis());
+        range(0, 500).forEach(i -> page.write(serializer.toBytes.apply(String.format("key_%04d", i))));
+        return ReadPage.create(page.commit());
+    }
+}